@@ -0,0 +1,311 @@
+package org.jszip.css;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.jszip.pseudo.io.PseudoFile;
+import org.jszip.pseudo.io.PseudoFileInputStream;
+import org.jszip.pseudo.io.PseudoFileSystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers which files each stylesheet read when it was last compiled, including the files it imports directly or
+ * indirectly, so that a later build only recompiles the stylesheets whose inputs have changed. The graph is kept in a
+ * file between builds.
+ * <p/>
+ * An input is unchanged while its modification time and length are the same as when the stylesheet was compiled, or
+ * failing that while its contents have the same checksum, so that touching a file does not force a recompile. Inputs
+ * that did not exist when the stylesheet was compiled are changed once they appear.
+ * <p/>
+ * The file holds, in big endian order:
+ * <pre>
+ *   int magic, int version, int stylesheets
+ *   stylesheets * (utf path, int inputs, inputs * (utf path, long lastModified, long length, long checksum))
+ * </pre>
+ */
+public class CssDependencyGraph {
+
+    private static final int MAGIC = 0x4a535a44;
+
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    /**
+     * The inputs of each stylesheet, keyed by the path of the stylesheet.
+     */
+    private final ConcurrentMap<String, Stamp[]> stylesheets = new ConcurrentHashMap<String, Stamp[]>();
+
+    /**
+     * The inputs as they are in this build, keyed by path, so that an input shared by many stylesheets is only
+     * checked once.
+     */
+    private final ConcurrentMap<String, Stamp> current = new ConcurrentHashMap<String, Stamp>();
+
+    private volatile boolean dirty;
+
+    private CssDependencyGraph(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads a graph. A missing, unreadable or corrupt file gives an empty graph, which just means that every
+     * stylesheet is compiled.
+     *
+     * @param file the file holding the graph.
+     * @return the graph.
+     */
+    public static CssDependencyGraph load(File file) {
+        final CssDependencyGraph graph = new CssDependencyGraph(file);
+        if (!file.isFile()) {
+            return graph;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return graph;
+            }
+            final Map<String, Stamp[]> stylesheets = new TreeMap<String, Stamp[]>();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String path = in.readUTF();
+                final Stamp[] inputs = new Stamp[in.readInt()];
+                for (int j = 0; j < inputs.length; j++) {
+                    inputs[j] = new Stamp(in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+                }
+                stylesheets.put(path, inputs);
+            }
+            graph.stylesheets.putAll(stylesheets);
+        } catch (EOFException e) {
+            // truncated, start again
+        } catch (IOException e) {
+            // unreadable, start again
+        } catch (NegativeArraySizeException e) {
+            // corrupt, start again
+        } finally {
+            IOUtil.close(in);
+        }
+        return graph;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of stylesheets in the graph.
+     *
+     * @return the number of stylesheets in the graph.
+     */
+    public int getCount() {
+        return stylesheets.size();
+    }
+
+    /**
+     * Checks whether a stylesheet needs to be compiled again.
+     *
+     * @param fs   the filesystem the stylesheet is compiled from.
+     * @param path the path of the stylesheet.
+     * @return {@code true} if the stylesheet was compiled before and none of the files it read has changed since.
+     */
+    public boolean isUpToDate(PseudoFileSystem fs, String path) {
+        final Stamp[] inputs = stylesheets.get(path);
+        if (inputs == null) {
+            return false;
+        }
+        for (Stamp input : inputs) {
+            if (!input.matches(fs, current)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the files that a stylesheet read while it was compiled.
+     *
+     * @param fs     the filesystem the stylesheet was compiled from.
+     * @param path   the path of the stylesheet.
+     * @param inputs the paths of the files read, including the stylesheet itself.
+     */
+    public void record(PseudoFileSystem fs, String path, Collection<String> inputs) {
+        final Stamp[] stamps = new Stamp[inputs.size()];
+        int i = 0;
+        for (String input : inputs) {
+            stamps[i++] = Stamp.of(fs, input, current);
+        }
+        stylesheets.put(path, stamps);
+        dirty = true;
+    }
+
+    /**
+     * Forgets a stylesheet, so that it is compiled next time, for example because it failed to compile.
+     *
+     * @param path the path of the stylesheet.
+     */
+    public void remove(String path) {
+        if (stylesheets.remove(path) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the graph back to its file, if it has changed since it was loaded.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        final File temp = new File(parent, file.getName() + ".tmp");
+        // sorted so that the file only changes when the graph does
+        final Map<String, Stamp[]> stylesheets = new TreeMap<String, Stamp[]>(this.stylesheets);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(stylesheets.size());
+            for (Map.Entry<String, Stamp[]> entry : stylesheets.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                for (Stamp input : entry.getValue()) {
+                    out.writeUTF(input.path);
+                    out.writeLong(input.lastModified);
+                    out.writeLong(input.length);
+                    out.writeLong(input.checksum);
+                }
+            }
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        } finally {
+            IOUtil.close(out);
+        }
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            temp.delete();
+            dirty = true;
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("CssDependencyGraph");
+        sb.append("{file=").append(file);
+        sb.append(", stylesheets=").append(stylesheets.size());
+        sb.append(", inputsChecked=").append(current.size());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * The state of an input file.
+     */
+    private static final class Stamp {
+        private final String path;
+        /**
+         * The modification time, or {@code -1} if the file did not exist.
+         */
+        private final long lastModified;
+        private final long length;
+        /**
+         * The checksum of the contents, {@code -1} if it has not been needed yet or {@code -2} if the file could not
+         * be read.
+         */
+        private final long checksum;
+
+        private Stamp(String path, long lastModified, long length, long checksum) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Takes the stamp of a file as it is now, including its checksum.
+         */
+        private static Stamp of(PseudoFileSystem fs, String path, ConcurrentMap<String, Stamp> current) {
+            Stamp stamp = current.get(path);
+            if (stamp == null) {
+                final PseudoFile file = fs.getPseudoFile(path);
+                stamp = file.isFile()
+                        ? new Stamp(path, file.lastModified(), file.length(), -1)
+                        : new Stamp(path, -1, 0, 0);
+            }
+            if (stamp.checksum == -1) {
+                stamp = new Stamp(path, stamp.lastModified, stamp.length, checksum(fs.getPseudoFile(path)));
+                current.put(path, stamp);
+            } else {
+                current.putIfAbsent(path, stamp);
+            }
+            return stamp;
+        }
+
+        private boolean matches(PseudoFileSystem fs, ConcurrentMap<String, Stamp> current) {
+            Stamp now = current.get(path);
+            if (now == null) {
+                final PseudoFile file = fs.getPseudoFile(path);
+                now = file.isFile()
+                        ? new Stamp(path, file.lastModified(), file.length(), -1)
+                        : new Stamp(path, -1, 0, 0);
+                final Stamp existing = current.putIfAbsent(path, now);
+                if (existing != null) {
+                    now = existing;
+                }
+            }
+            if (now.lastModified == lastModified && now.length == length) {
+                return true;
+            }
+            if (now.lastModified == -1 || lastModified == -1 || now.length != length) {
+                return false;
+            }
+            // touched but maybe not changed
+            final long checksum = of(fs, path, current).checksum;
+            return checksum >= 0 && checksum == this.checksum;
+        }
+
+        private static long checksum(PseudoFile file) {
+            final CRC32 crc = new CRC32();
+            InputStream in = null;
+            try {
+                in = new PseudoFileInputStream(file);
+                final byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, count);
+                }
+            } catch (IOException e) {
+                // unreadable files never match
+                return -2;
+            } finally {
+                IOUtil.close(in);
+            }
+            return crc.getValue();
+        }
+    }
+}
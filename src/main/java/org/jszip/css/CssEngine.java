@@ -1,5 +1,8 @@
 package org.jszip.css;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 /**
  * @author stephenc
  * @since 31/01/2013 23:42
@@ -9,4 +12,15 @@ public interface CssEngine {
     String mapName(String sourceFileName);
 
     String toCSS(String name) throws CssCompilationError;
+
+    /**
+     * Compiles a stylesheet and writes the CSS to a stream as UTF-8, without holding an encoded copy of the whole
+     * stylesheet in memory. Use {@link java.nio.channels.Channels#newOutputStream} to write to a channel.
+     *
+     * @param name the path of the stylesheet.
+     * @param out  the stream to write to, which is flushed but not closed.
+     * @throws CssCompilationError if the stylesheet could not be compiled, in which case nothing has been written.
+     * @throws IOException         if the stream could not be written.
+     */
+    void toCSS(String name, OutputStream out) throws CssCompilationError, IOException;
 }
@@ -0,0 +1,40 @@
+package org.jszip.css;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Helps {@link CssEngine}s write their output.
+ */
+public final class CssOutput {
+
+    /**
+     * The encoding of the CSS written by {@link CssEngine#toCSS(String, OutputStream)}.
+     */
+    public static final String ENCODING = "UTF-8";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private CssOutput() {
+    }
+
+    /**
+     * Writes CSS to a stream. The CSS is encoded a buffer at a time rather than all at once.
+     *
+     * @param css the CSS.
+     * @param out the stream, which is flushed but not closed.
+     * @throws IOException if the stream could not be written.
+     */
+    public static void write(String css, OutputStream out) throws IOException {
+        final Writer writer = new OutputStreamWriter(out, ENCODING);
+        final char[] buffer = new char[Math.min(BUFFER_SIZE, css.length())];
+        for (int start = 0; start < css.length(); start += buffer.length) {
+            final int end = Math.min(start + buffer.length, css.length());
+            css.getChars(start, end, buffer, 0);
+            writer.write(buffer, 0, end - start);
+        }
+        writer.flush();
+    }
+}
@@ -1,6 +1,7 @@
 package org.jszip.jetty;
 
 import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
 import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.util.resource.Resource;
 import org.jszip.css.CssCompilationError;
@@ -9,8 +10,10 @@ import org.jszip.pseudo.io.PseudoFile;
 import org.jszip.pseudo.io.PseudoFileSystem;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -54,17 +57,33 @@ public class CssEngineResource extends Resource {
                 targetFile.delete();
             } else if (sourceFile.isFile() && (!targetFile.exists() || targetFile.lastModified() < sourceFile
                     .lastModified())) {
+                OutputStream out = null;
+                boolean written = false;
                 try {
-                    FileUtils.fileWrite(targetFile, "utf-8", engine.toCSS(sourceFilename));
+                    out = new FileOutputStream(targetFile);
+                    engine.toCSS(sourceFilename, out);
+                    out.close();
+                    written = true;
                 } catch (IOException e) {
-                    targetFile.delete();
+                    // the partial file is deleted below
                 } catch (CssCompilationError cssCompilationError) {
-                    targetFile.delete();
+                    // the partial file is deleted below
+                } finally {
+                    if (!written) {
+                        IOUtil.close(out);
+                        targetFile.delete();
+                    }
                 }
             }
         }
     }
 
+    private CssBuffer compile() throws CssCompilationError, IOException {
+        final CssBuffer buffer = new CssBuffer();
+        engine.toCSS(sourceFilename, buffer);
+        return buffer;
+    }
+
     @Override
     public boolean isContainedIn(Resource r) throws MalformedURLException {
         return false;
@@ -96,7 +115,9 @@ public class CssEngineResource extends Resource {
             return targetFile.length();
         }
         try {
-            return engine.toCSS(sourceFilename).getBytes("utf-8").length;
+            final CountingOutputStream out = new CountingOutputStream();
+            engine.toCSS(sourceFilename, out);
+            return out.count;
         } catch (Throwable t) {
             return -1;
         }
@@ -137,7 +158,7 @@ public class CssEngineResource extends Resource {
         refresh();
         if (targetFile != null && targetFile.exists()) return new FileInputStream(targetFile);
         try {
-            return new ByteArrayInputStream(engine.toCSS(sourceFilename).getBytes("utf-8"));
+            return compile().getInputStream();
         } catch (CssCompilationError e) {
             final IOException ioe = new IOException(e.getMessage());
             ioe.initCause(e);
@@ -228,7 +249,7 @@ public class CssEngineResource extends Resource {
         @Override
         protected URLConnection openConnection(URL u) throws IOException {
             try {
-                final byte[] content = CssEngineResource.this.engine.toCSS(sourceFilename).getBytes("utf-8");
+                final CssBuffer content = compile();
                 return new URLConnection(u) {
                     @Override
                     public void connect() throws IOException {
@@ -237,12 +258,12 @@ public class CssEngineResource extends Resource {
 
                     @Override
                     public InputStream getInputStream() throws IOException {
-                        return new ByteArrayInputStream(content);
+                        return content.getInputStream();
                     }
 
                     @Override
                     public int getContentLength() {
-                        return content.length;
+                        return content.size();
                     }
 
                     @Override
@@ -268,5 +289,29 @@ public class CssEngineResource extends Resource {
         }
     }
 
+    /**
+     * Holds compiled CSS, and reads it back without copying it again.
+     */
+    private static class CssBuffer extends ByteArrayOutputStream {
+        private InputStream getInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+    /**
+     * Counts the bytes of compiled CSS without keeping them.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
 
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
 }
@@ -5,6 +5,7 @@ import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
 import org.jszip.css.CssCompilationError;
 import org.jszip.css.CssEngine;
+import org.jszip.css.CssOutput;
 import org.jszip.pseudo.io.PseudoFileSystem;
 import org.jszip.rhino.GlobalFunctions;
 import org.jszip.rhino.JavaScriptTerminationException;
@@ -25,6 +26,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Set;
 
 /**
  * @author stephenc
@@ -32,6 +36,12 @@ import java.io.InputStreamReader;
  */
 public class LessEngine implements CssEngine {
 
+    /**
+     * The package that the bundled scripts are compiled into when the plugin is built, see the
+     * {@code precompile-less} execution in the POM.
+     */
+    static final String PRECOMPILED_PACKAGE = "org.jszip.less.compiled";
+
     private final PseudoFileSystem fs;
     private final ContextFactory contextFactory;
     private final Global global;
@@ -61,7 +71,7 @@ public class LessEngine implements CssEngine {
         if (!global.isInitialized()) {
             global.init(contextFactory);
         }
-        global.defineFunctionProperties(new String[]{"print", "debug", "warn", "quit", "readFile"},
+        global.defineFunctionProperties(new String[]{"print", "debug", "warn", "quit", "readFile", "fileStamp"},
                 GlobalFunctions.class,
                 ScriptableObject.DONTENUM);
         final Context context = contextFactory.enterContext();
@@ -71,17 +81,17 @@ public class LessEngine implements CssEngine {
             global.defineProperty("arguments", new Object[0], ScriptableObject.DONTENUM);
             scope = GlobalFunctions.createPseudoFileSystemScope(global, context);
 
-            compileScript(context, "less-env.js", null, "/org/jszip/less/less-env.js")
+            loadScript(context, "less-env.js", null, "/org/jszip/less/less-env.js")
                     .exec(context, scope);
 
             // now load less-rhino.js
 
-            compileScript(context, "less-rhino.js", customLessScript, "/org/jszip/less/less-rhino.js")
+            loadScript(context, "less-rhino.js", customLessScript, "/org/jszip/less/less-rhino.js")
                     .exec(context, scope);
 
             global.defineProperty("showErrorExtracts", showErrorExtracts, ScriptableObject.DONTENUM);
 
-            compileScript(context, "less-engine.js", null, "/org/jszip/less/less-engine.js")
+            loadScript(context, "less-engine.js", null, "/org/jszip/less/less-engine.js")
                     .exec(context, scope);
 
             function = (Function) scope.get("engine", scope);
@@ -93,17 +103,56 @@ public class LessEngine implements CssEngine {
         }
     }
 
+    /**
+     * Returns the number of times an import was taken from the cache of parsed imports rather than parsed again.
+     * Imports are cached for as long as the engine lives, and are only used while neither they nor anything they
+     * import has changed.
+     *
+     * @return the number of imports taken from the cache.
+     */
+    public long getImportCacheHits() {
+        return getCounter("importCacheHits");
+    }
+
+    /**
+     * Returns the number of times an import had to be parsed.
+     *
+     * @return the number of imports parsed.
+     */
+    public long getImportCacheMisses() {
+        return getCounter("importCacheMisses");
+    }
+
+    private long getCounter(String name) {
+        final Object value = ScriptableObject.getProperty(scope, name);
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
     public String mapName(String sourceFileName) {
         return sourceFileName.replaceFirst("\\.[lL][eE][sS][sS]$", ".css");
     }
 
     public String toCSS(String name) throws CssCompilationError {
+        return toCSS(name, (Set<String>) null);
+    }
+
+    /**
+     * Compiles a LESS file, noting every file that the compilation reads, including the file itself and any files
+     * that it imports.
+     *
+     * @param name   the path of the LESS file.
+     * @param inputs the set to add the paths of the files read to, or {@code null}.
+     * @return the CSS.
+     * @throws CssCompilationError if the file could not be compiled.
+     */
+    public String toCSS(String name, Set<String> inputs) throws CssCompilationError {
 
         final Context context = contextFactory.enterContext();
         try {
             context.setErrorReporter(new MavenLogErrorReporter(log));
             context.putThreadLocal(Log.class, log);
             fs.installInContext();
+            GlobalFunctions.setReadRecorder(inputs);
 
             GlobalFunctions.setExitCode(0);
 
@@ -126,12 +175,55 @@ public class LessEngine implements CssEngine {
             }
             throw new CssCompilationError(name, -1, -1, e);
         } finally {
+            GlobalFunctions.setReadRecorder(null);
             fs.removeFromContext();
             Context.exit();
             context.putThreadLocal(Log.class, null);
         }
     }
 
+    public void toCSS(String name, OutputStream out) throws CssCompilationError, IOException {
+        toCSS(name, null, out);
+    }
+
+    /**
+     * Compiles a LESS file to a stream, see {@link #toCSS(String, Set)} and {@link #toCSS(String, OutputStream)}.
+     */
+    public void toCSS(String name, Set<String> inputs, OutputStream out) throws CssCompilationError, IOException {
+        CssOutput.write(toCSS(name, inputs), out);
+    }
+
+    /**
+     * Loads one of the scripts. Unless a custom script is given, the bundled script is taken from the class that
+     * Rhino's class compiler produced for it when the plugin was built, which saves compiling it on every start. If
+     * that class is missing, as when running from an IDE that skipped the build step, the bundled script is compiled
+     * from source.
+     */
+    private Script loadScript(Context context, String scriptName, File customScriptFile,
+                              String bundledScriptResource) throws IOException {
+        if (customScriptFile == null || !customScriptFile.isFile()) {
+            final String className = PRECOMPILED_PACKAGE + "."
+                    + scriptName.substring(0, scriptName.lastIndexOf('.')).replace('-', '_');
+            try {
+                final Script script = (Script) Class.forName(className, true, LessEngine.class.getClassLoader())
+                        .getDeclaredConstructor().newInstance();
+                log.debug("Using precompiled " + scriptName);
+                return script;
+            } catch (ClassNotFoundException e) {
+                log.debug("No precompiled " + scriptName + ", compiling it from source");
+            } catch (InstantiationException e) {
+                log.debug("Could not instantiate precompiled " + scriptName + ", compiling it from source", e);
+            } catch (IllegalAccessException e) {
+                log.debug("Could not instantiate precompiled " + scriptName + ", compiling it from source", e);
+            } catch (NoSuchMethodException e) {
+                log.debug("Could not instantiate precompiled " + scriptName + ", compiling it from source", e);
+            } catch (InvocationTargetException e) {
+                log.debug("Could not instantiate precompiled " + scriptName + ", compiling it from source", e);
+            }
+        }
+        return compileScript(context, scriptName, customScriptFile, bundledScriptResource);
+    }
+
     private Script compileScript(Context context, String scriptName, File customScriptFile,
                                  String bundledScriptResource) throws IOException {
         String source;
@@ -0,0 +1,173 @@
+package org.jszip.less;
+
+import org.apache.maven.plugin.logging.Log;
+import org.jszip.css.CssCompilationError;
+import org.jszip.css.CssEngine;
+import org.jszip.css.CssOutput;
+import org.jszip.pseudo.io.PseudoFileSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link CssEngine} that can compile several LESS files at once. A {@link LessEngine} has a single Rhino scope,
+ * so it can only compile one file at a time. This pool holds up to a fixed number of engines, each with its own scope
+ * and its own copy of {@code less-rhino.js}, and hands each compilation to an idle engine. Engines are only created
+ * when every existing engine is busy, as loading {@code less-rhino.js} is expensive.
+ */
+public class LessEnginePool implements CssEngine {
+
+    private final PseudoFileSystem fs;
+    private final String encoding;
+    private final Log log;
+    private final boolean lessCompress;
+    private final File customLessScript;
+    private final boolean showErrorExtracts;
+    private final int size;
+    private final BlockingQueue<LessEngine> idle = new LinkedBlockingQueue<LessEngine>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final List<LessEngine> engines = new CopyOnWriteArrayList<LessEngine>();
+
+    /**
+     * Creates the pool along with its first engine, so that a script that cannot be loaded is reported straight away.
+     *
+     * @param size the maximum number of engines, which is also the number of files that can be compiled at once.
+     */
+    public LessEnginePool(PseudoFileSystem fs, String encoding, Log log, boolean lessCompress, File customLessScript,
+                          boolean showErrorExtracts, int size) throws IOException {
+        this.fs = fs;
+        this.encoding = encoding;
+        this.log = log;
+        this.lessCompress = lessCompress;
+        this.customLessScript = customLessScript;
+        this.showErrorExtracts = showErrorExtracts;
+        this.size = Math.max(1, size);
+        created.incrementAndGet();
+        idle.add(newEngine());
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of engines created so far.
+     *
+     * @return the number of engines created so far.
+     */
+    public int getEnginesCreated() {
+        return created.get();
+    }
+
+    /**
+     * Returns the number of imports taken from the caches of parsed imports, see
+     * {@link LessEngine#getImportCacheHits()}. Each engine has its own cache.
+     *
+     * @return the number of imports taken from the caches.
+     */
+    public long getImportCacheHits() {
+        long hits = 0;
+        for (LessEngine engine : engines) {
+            hits += engine.getImportCacheHits();
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the number of imports parsed by all the engines.
+     *
+     * @return the number of imports parsed.
+     */
+    public long getImportCacheMisses() {
+        long misses = 0;
+        for (LessEngine engine : engines) {
+            misses += engine.getImportCacheMisses();
+        }
+        return misses;
+    }
+
+    public String mapName(String sourceFileName) {
+        return sourceFileName.replaceFirst("\\.[lL][eE][sS][sS]$", ".css");
+    }
+
+    public String toCSS(String name) throws CssCompilationError {
+        return toCSS(name, (Set<String>) null);
+    }
+
+    /**
+     * See {@link LessEngine#toCSS(String, Set)}.
+     */
+    public String toCSS(String name, Set<String> inputs) throws CssCompilationError {
+        final LessEngine engine = acquire();
+        try {
+            return engine.toCSS(name, inputs);
+        } finally {
+            idle.add(engine);
+        }
+    }
+
+    public void toCSS(String name, OutputStream out) throws CssCompilationError, IOException {
+        toCSS(name, null, out);
+    }
+
+    /**
+     * See {@link LessEngine#toCSS(String, Set, OutputStream)}. The engine is handed back before the CSS is written.
+     */
+    public void toCSS(String name, Set<String> inputs, OutputStream out) throws CssCompilationError, IOException {
+        CssOutput.write(toCSS(name, inputs), out);
+    }
+
+    private LessEngine acquire() {
+        LessEngine engine = idle.poll();
+        if (engine != null) {
+            return engine;
+        }
+        while (true) {
+            final int count = created.get();
+            if (count >= size) {
+                break;
+            }
+            if (created.compareAndSet(count, count + 1)) {
+                try {
+                    return newEngine();
+                } catch (IOException e) {
+                    created.decrementAndGet();
+                    // the first engine loaded the same scripts, so they were readable a moment ago
+                    throw new IllegalStateException("Could not instantiate compiler: " + e.getMessage(), e);
+                }
+            }
+        }
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a LESS engine", e);
+        }
+    }
+
+    private LessEngine newEngine() throws IOException {
+        final LessEngine engine = new LessEngine(fs, encoding, log, lessCompress, customLessScript, showErrorExtracts);
+        engines.add(engine);
+        return engine;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("LessEnginePool");
+        sb.append("{size=").append(size);
+        sb.append(", enginesCreated=").append(created);
+        sb.append(", idle=").append(idle.size());
+        sb.append(", importCacheHits=").append(getImportCacheHits());
+        sb.append(", importCacheMisses=").append(getImportCacheMisses());
+        sb.append('}');
+        return sb.toString();
+    }
+}
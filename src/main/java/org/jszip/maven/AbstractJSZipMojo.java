@@ -17,6 +17,8 @@
 package org.jszip.maven;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Plugin;
 import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.AbstractMojo;
@@ -31,12 +33,15 @@ import org.codehaus.plexus.configuration.PlexusConfiguration;
 import org.codehaus.plexus.util.StringUtils;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.codehaus.plexus.util.xml.Xpp3DomUtils;
+import org.jszip.pseudo.io.ZipIndexRegistry;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Common base class for all the JSZip goals.
@@ -47,6 +52,13 @@ public abstract class AbstractJSZipMojo extends AbstractMojo {
      */
     public static final String JSZIP_TYPE = "jszip";
 
+    /**
+     * The archive indexes of each build session. The copies of a session made for each module share the session's
+     * request, so the request is used as the key and the registry is dropped once the build is over.
+     */
+    private static final Map<MavenExecutionRequest, ZipIndexRegistry> ZIP_INDEXES =
+            new WeakHashMap<MavenExecutionRequest, ZipIndexRegistry>();
+
     /**
      * The maven project.
      */
@@ -195,6 +207,23 @@ public abstract class AbstractJSZipMojo extends AbstractMojo {
         return null;
     }
 
+    /**
+     * Returns the archive indexes shared by all the modules of a build session.
+     *
+     * @param session the build session.
+     * @return the archive indexes of the build session.
+     */
+    protected static ZipIndexRegistry getZipIndexRegistry(MavenSession session) {
+        synchronized (ZIP_INDEXES) {
+            ZipIndexRegistry registry = ZIP_INDEXES.get(session.getRequest());
+            if (registry == null) {
+                registry = new ZipIndexRegistry();
+                ZIP_INDEXES.put(session.getRequest(), registry);
+            }
+            return registry;
+        }
+    }
+
     protected static String[] processIncludesExcludes(List<String> list) {
         List<String> result = new ArrayList<String>();
         for (String entry : list) {
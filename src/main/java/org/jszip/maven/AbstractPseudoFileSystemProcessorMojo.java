@@ -21,7 +21,10 @@ import org.apache.maven.shared.artifact.filter.collection.ProjectTransitivityFil
 import org.apache.maven.shared.artifact.filter.collection.ScopeFilter;
 import org.apache.maven.shared.artifact.filter.collection.TypeFilter;
 import org.codehaus.plexus.util.StringUtils;
+import org.jszip.pseudo.io.ContentCache;
+import org.jszip.pseudo.io.IndexSnapshot;
 import org.jszip.pseudo.io.PseudoFileSystem;
+import org.jszip.pseudo.io.ScanCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -54,6 +57,37 @@ public abstract class AbstractPseudoFileSystemProcessorMojo extends AbstractJSZi
      */
     @Parameter(defaultValue = "${basedir}/src/main/webapp", required = true)
     private File warSourceDirectory;
+    /**
+     * The maximum number of bytes of file content to keep in memory so that files read repeatedly during the build
+     * are only read once. Set to {@code 0} to disable. Each module has its own cache, shared by the goals executed
+     * against the module.
+     */
+    @Parameter(property = "jszip.contentCacheSize", defaultValue = "33554432")
+    private long contentCacheSize;
+    /**
+     * Whether to hold the files written to the webapp directory in memory, so that later goals can read them back
+     * without touching the disk. The files are written out in a single parallel pass at the end of each goal.
+     */
+    @Parameter(property = "jszip.bufferOutput", defaultValue = "false")
+    private boolean bufferOutput;
+    /**
+     * The number of bytes of output to hold in memory when {@link #bufferOutput} is enabled, beyond which output is
+     * written straight to disk.
+     */
+    @Parameter(property = "jszip.bufferOutputThreshold", defaultValue = "67108864")
+    private long bufferOutputThreshold;
+    /**
+     * Where to keep a copy of the directories of the jszip archives on the virtual filesystem, so that later builds
+     * do not need to open archives that have not changed.
+     */
+    @Parameter(property = "jszip.indexSnapshot", defaultValue = "${project.build.directory}/jszip-index.bin")
+    private File indexSnapshot;
+    /**
+     * Where to keep the results of scanning the virtual filesystem for files to process, so that later builds only
+     * list the directories that have changed.
+     */
+    @Parameter(property = "jszip.scanCache", defaultValue = "${project.build.directory}/jszip-scans.bin")
+    private File scanCache;
     /**
      * The Maven plugin Manager
      */
@@ -70,14 +104,135 @@ public abstract class AbstractPseudoFileSystemProcessorMojo extends AbstractJSZi
     @Parameter(property = "plugin", readonly = true)
     private PluginDescriptor pluginDescriptor;
 
+    /**
+     * Creates the layers of the archives, see {@link #saveIndexSnapshot()}.
+     */
+    private ZipLayerLoader zipLayers;
+
     private String getPath(Artifact artifact) {
         return Mapping.getArtifactPath(mappings, artifact);
     }
 
+    /**
+     * Returns the in-memory output layer, which is shared by all the goals executed against the project.
+     *
+     * @return the in-memory output layer.
+     */
+    private PseudoFileSystem.MemoryLayer getOutputLayer() {
+        final String key = PseudoFileSystem.MemoryLayer.class.getName() + ":" + webappDirectory.getAbsolutePath();
+        PseudoFileSystem.MemoryLayer layer = (PseudoFileSystem.MemoryLayer) project.getContextValue(key);
+        if (layer == null) {
+            layer = new PseudoFileSystem.MemoryLayer("/target", webappDirectory, bufferOutputThreshold);
+            project.setContextValue(key, layer);
+        }
+        return layer;
+    }
+
+    /**
+     * Returns the cache of file content, which is shared by all the goals executed against the project.
+     *
+     * @return the cache of file content.
+     */
+    private ContentCache getContentCache() {
+        final String key = ContentCache.class.getName();
+        ContentCache cache = (ContentCache) project.getContextValue(key);
+        if (cache == null) {
+            cache = new ContentCache(contentCacheSize);
+            project.setContextValue(key, cache);
+        } else {
+            cache.setMaxBytes(contentCacheSize);
+        }
+        return cache;
+    }
+
+    /**
+     * Creates a filesystem over the layers that reads file content through the project's cache.
+     *
+     * @param layers the layers, see {@link #buildVirtualFileSystemLayers()}.
+     * @return the filesystem.
+     */
+    protected PseudoFileSystem createFileSystem(List<PseudoFileSystem.Layer> layers) {
+        final PseudoFileSystem fs = new PseudoFileSystem(layers);
+        fs.setContentCache(getContentCache());
+        return fs;
+    }
+
+    /**
+     * Returns the cache of scan results, which is loaded once and shared by all the goals executed against the
+     * project.
+     *
+     * @return the cache of scan results.
+     */
+    protected ScanCache getScanCache() {
+        final String key = ScanCache.class.getName() + ":" + scanCache.getAbsolutePath();
+        ScanCache cache = (ScanCache) project.getContextValue(key);
+        if (cache == null) {
+            cache = ScanCache.load(scanCache, ScanCache.DEFAULT_MAX_ENTRIES);
+            project.setContextValue(key, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Writes the cache of scan results back to its file. A cache that cannot be written only costs a full scan next
+     * time, so failures are logged rather than failing the build.
+     */
+    protected void saveScanCache() {
+        final ScanCache cache = getScanCache();
+        try {
+            cache.save();
+        } catch (IOException e) {
+            getLog().warn("Could not save " + cache.getFile() + ": " + e.getMessage());
+        }
+        getLog().debug(String.valueOf(cache));
+    }
+
+    /**
+     * Records the archives indexed through the layers from {@link #buildVirtualFileSystemLayers()} in the index
+     * snapshot and saves it. Archives are only indexed when first looked up, so this is called once the goal has
+     * finished with the layers.
+     */
+    protected void saveIndexSnapshot() {
+        if (zipLayers != null) {
+            zipLayers.finish();
+            zipLayers = null;
+        }
+    }
+
+    /**
+     * Returns {@code true} if output is held in memory until {@link #flushOutput()} is called.
+     *
+     * @return {@code true} if output is held in memory.
+     */
+    protected boolean isOutputBuffered() {
+        return bufferOutput;
+    }
+
+    /**
+     * Writes any output held in memory to the webapp directory.
+     *
+     * @throws MojoExecutionException if the output could not be written.
+     */
+    protected void flushOutput() throws MojoExecutionException {
+        if (!bufferOutput) {
+            return;
+        }
+        try {
+            final int count = getOutputLayer().flush();
+            getLog().debug("Wrote " + count + " buffered files to " + webappDirectory);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not write to " + webappDirectory + ": " + e.getMessage(), e);
+        }
+    }
+
     protected List<PseudoFileSystem.Layer> buildVirtualFileSystemLayers() throws MojoExecutionException {
         List<PseudoFileSystem.Layer> layers = new ArrayList<PseudoFileSystem.Layer>();
-        layers.add(new PseudoFileSystem.FileLayer("/target", webappDirectory));
+        layers.add(bufferOutput ? getOutputLayer() : new PseudoFileSystem.FileLayer("/target", webappDirectory));
         layers.add(new PseudoFileSystem.FileLayer("/virtual", warSourceDirectory));
+        // layers built earlier must record what they indexed before the snapshot is loaded again
+        saveIndexSnapshot();
+        final IndexSnapshot snapshot = IndexSnapshot.load(indexSnapshot);
+        zipLayers = new ZipLayerLoader(getZipIndexRegistry(session), snapshot, getLog());
         FilterArtifacts filter = new FilterArtifacts();
 
         filter.addFilter(new ProjectTransitivityFilter(project.getDependencyArtifacts(), false));
@@ -143,12 +298,8 @@ public abstract class AbstractPseudoFileSystemProcessorMojo extends AbstractJSZi
                     throw new MojoExecutionException("Cannot find jzsip artifact: " + artifact.getId());
                 }
             } else {
-                try {
-                    getLog().debug("Merging .zip file " + file + " into " + path);
-                    layers.add(new PseudoFileSystem.ZipLayer(path, file));
-                } catch (IOException e) {
-                    throw new MojoExecutionException(e.getMessage(), e);
-                }
+                getLog().debug("Merging .zip file " + file + " into " + path);
+                layers.add(zipLayers.load(path, file));
             }
         }
         return layers;
@@ -9,8 +9,8 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.codehaus.plexus.util.IOUtil;
 import org.jszip.css.CssCompilationError;
-import org.jszip.css.CssEngine;
-import org.jszip.less.LessEngine;
+import org.jszip.css.CssDependencyGraph;
+import org.jszip.less.LessEnginePool;
 import org.jszip.pseudo.io.PseudoDirectoryScanner;
 import org.jszip.pseudo.io.PseudoFile;
 import org.jszip.pseudo.io.PseudoFileOutputStream;
@@ -33,8 +33,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 @Mojo(name = "compile-less", defaultPhase = LifecyclePhase.PROCESS_RESOURCES,
         requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME)
@@ -53,7 +61,8 @@ public class CompileLESSMojo extends AbstractPseudoFileSystemProcessorMojo {
     private boolean lessSkip;
 
     /**
-     * Force compilation even if the source LESS file is older than the destination CSS file.
+     * Force compilation even if neither the source LESS file nor any of the files it imports has changed since the
+     * destination CSS file was compiled.
      */
     @Parameter(property = "jszip.less.forceIfOlder", defaultValue = "false")
     private boolean lessForceIfOlder;
@@ -76,6 +85,21 @@ public class CompileLESSMojo extends AbstractPseudoFileSystemProcessorMojo {
     @Parameter(property = "jszip.less.showErrorExtracts", defaultValue = "false")
     private boolean showErrorExtracts;
 
+    /**
+     * The number of LESS files to compile at once, each with its own copy of the LESS processor. {@code 0} or less
+     * compiles one file per processor.
+     */
+    @Parameter(property = "jszip.less.threads", defaultValue = "0")
+    private int lessThreads;
+
+    /**
+     * Where to keep track of the files that each LESS file imported when it was last compiled, so that the next
+     * build only recompiles the LESS files that have changed or import files that have changed.
+     */
+    @Parameter(property = "jszip.less.dependencies",
+            defaultValue = "${project.build.directory}/jszip-less-dependencies.bin")
+    private File lessDependencies;
+
     /**
      * A list of &lt;include&gt; elements specifying the less files (by pattern) that should be included in
      * processing.
@@ -112,9 +136,14 @@ public class CompileLESSMojo extends AbstractPseudoFileSystemProcessorMojo {
             return;
         }
         final List<PseudoFileSystem.Layer> layers = buildVirtualFileSystemLayers();
-        final PseudoFileSystem fs = new PseudoFileSystem(layers);
+        final PseudoFileSystem fs = createFileSystem(layers);
+        final int threads = lessThreads > 0 ? lessThreads : Runtime.getRuntime().availableProcessors();
+        final CssDependencyGraph dependencies = CssDependencyGraph.load(lessDependencies);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        boolean flushed = false;
         try {
-            CssEngine engine = new LessEngine(fs, encoding == null ? "utf-8" : encoding, getLog(), lessCompress, customLessScript, showErrorExtracts);
+            final LessEnginePool engine = new LessEnginePool(fs, encoding == null ? "utf-8" : encoding, getLog(),
+                    lessCompress, customLessScript, showErrorExtracts, threads);
 
             // look for files to compile
 
@@ -122,6 +151,10 @@ public class CompileLESSMojo extends AbstractPseudoFileSystemProcessorMojo {
 
             scanner.setFileSystem(fs);
 
+            scanner.setThreads(Runtime.getRuntime().availableProcessors());
+
+            scanner.setScanCache(getScanCache());
+
             scanner.setBasedir(fs.getPseudoFile("/virtual"));
 
             if (lessIncludes != null && !lessIncludes.isEmpty()) {
@@ -136,40 +169,111 @@ public class CompileLESSMojo extends AbstractPseudoFileSystemProcessorMojo {
                 scanner.setExcludes(new String[0]);
             }
 
-            scanner.scan();
-
-            final List<String> includedFiles = new ArrayList<String>(Arrays.asList(scanner.getIncludedFiles()));
-            getLog().debug("Files to compile: " + includedFiles);
-
-            for (String fileName : includedFiles) {
+            final List<String> fileNames = new ArrayList<String>();
+            final List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (Iterator<String> files = scanner.scanIncludedFiles(); files.hasNext(); ) {
+                final String fileName = files.next();
+                getLog().debug("Found file to compile: " + fileName);
+                final String source = "/virtual/" + fileName;
                 final PseudoFile dest = fs.getPseudoFile("/target/" + engine.mapName(fileName));
-                if (!lessForceIfOlder) {
-                    if (dest.isFile()) {
-                        final PseudoFile src = fs.getPseudoFile("/virtual/" + fileName);
-                        if (src.lastModified() < dest.lastModified()) {
-                            continue;
-                        }
-                    }
+                if (!lessForceIfOlder && dest.isFile() && dependencies.isUpToDate(fs, source)) {
+                    getLog().debug("Up to date: " + fileName);
+                    continue;
                 }
                 if (!dest.getParentFile().isDirectory()) {
                     dest.getParentFile().mkdirs();
                 }
 
-                final String css = engine.toCSS("/virtual/" + fileName);
-                PseudoFileOutputStream fos = null;
+                fileNames.add(fileName);
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws CssCompilationError, IOException {
+                        // a file that fails to compile or write must be compiled again next time
+                        dependencies.remove(source);
+                        final Set<String> inputs = new TreeSet<String>();
+                        PseudoFileOutputStream fos = null;
+                        boolean written = false;
+                        try {
+                            fos = new PseudoFileOutputStream(dest);
+                            engine.toCSS(source, inputs, fos);
+                            written = true;
+                        } finally {
+                            IOUtil.close(fos);
+                            if (!written) {
+                                dest.delete();
+                            }
+                        }
+                        dependencies.record(fs, source, inputs);
+                        return null;
+                    }
+                }));
+            }
+            saveScanCache();
+            // report the first failure in scan order, whichever file happened to fail first
+            for (int i = 0; i < results.size(); i++) {
                 try {
-                    fos = new PseudoFileOutputStream(dest);
-                    IOUtil.copy(css, fos);
-                } catch (IOException e) {
-                    throw new MojoFailureException("Could not write CSS file produced from " + fileName, e);
-                } finally {
-                    IOUtil.close(fos);
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof CssCompilationError) {
+                        if (lessFailOnError) {
+                            throw (CssCompilationError) cause;
+                        }
+                        getLog().error("Could not compile " + fileNames.get(i) + ": " + cause.getMessage());
+                        continue;
+                    }
+                    if (cause instanceof IOException) {
+                        throw new MojoFailureException("Could not write CSS file produced from " + fileNames.get(i),
+                                cause);
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new MojoExecutionException(cause.getMessage(), cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoExecutionException("Interrupted while compiling LESS files", e);
                 }
             }
+            getLog().debug(String.valueOf(engine));
+            flushOutput();
+            flushed = true;
         } catch (CssCompilationError e) {
             throw new MojoFailureException("Compilation failure: " + e.getMessage(), e);
         } catch (IOException e) {
             throw new MojoExecutionException("Could not instantiate compiler: " + e.getMessage(), e);
+        } finally {
+            // after a failure the remaining files are abandoned, and nothing may record while the graph is saved
+            stopWorkers(executor);
+            // output held in memory is lost unless flushed, so the graph must not claim it is up to date
+            if (flushed || !isOutputBuffered()) {
+                try {
+                    dependencies.save();
+                } catch (IOException e) {
+                    getLog().warn("Could not save " + dependencies.getFile() + ": " + e.getMessage());
+                }
+            }
+            getLog().debug(String.valueOf(dependencies));
+            getLog().debug(String.valueOf(fs.getContentCache()));
+            fs.close();
+            saveIndexSnapshot();
+        }
+    }
+
+    /**
+     * Stops the workers and waits for the ones still compiling, so that none of them uses the filesystem after it
+     * has been closed.
+     *
+     * @param executor the workers.
+     */
+    private void stopWorkers(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            // a script that is being evaluated does not notice the interrupt
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                getLog().debug("Waiting for LESS compilation to stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 }
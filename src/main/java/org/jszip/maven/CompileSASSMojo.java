@@ -25,8 +25,7 @@ import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 @Mojo(name = "compile-sass", defaultPhase = LifecyclePhase.PROCESS_RESOURCES,
@@ -87,7 +86,7 @@ public class CompileSASSMojo extends AbstractPseudoFileSystemProcessorMojo {
             return;
         }
         final List<PseudoFileSystem.Layer> layers = buildVirtualFileSystemLayers();
-        final PseudoFileSystem fs = new PseudoFileSystem(layers);
+        final PseudoFileSystem fs = createFileSystem(layers);
         try {
             CssEngine engine = new SassEngine(fs, encoding == null ? "utf-8" : encoding);
 
@@ -97,6 +96,10 @@ public class CompileSASSMojo extends AbstractPseudoFileSystemProcessorMojo {
 
             scanner.setFileSystem(fs);
 
+            scanner.setThreads(Runtime.getRuntime().availableProcessors());
+
+            scanner.setScanCache(getScanCache());
+
             scanner.setBasedir(fs.getPseudoFile("/virtual"));
 
             if (sassIncludes != null && !sassIncludes.isEmpty()) {
@@ -111,12 +114,9 @@ public class CompileSASSMojo extends AbstractPseudoFileSystemProcessorMojo {
                 scanner.setExcludes(new String[]{"**/_*.sass","**/_*.scss"});
             }
 
-            scanner.scan();
-
-            final List<String> includedFiles = new ArrayList<String>(Arrays.asList(scanner.getIncludedFiles()));
-            getLog().debug("Files to compile: " + includedFiles);
-
-            for (String fileName : includedFiles) {
+            for (Iterator<String> files = scanner.scanIncludedFiles(); files.hasNext(); ) {
+                final String fileName = files.next();
+                getLog().debug("Found file to compile: " + fileName);
                 final PseudoFile dest = fs.getPseudoFile("/target/" + engine.mapName(fileName));
                 if (!sassForceIfOlder) {
                     if (dest.isFile()) {
@@ -130,21 +130,32 @@ public class CompileSASSMojo extends AbstractPseudoFileSystemProcessorMojo {
                     dest.getParentFile().mkdirs();
                 }
 
-                final String css = engine.toCSS("/virtual/" + fileName);
                 PseudoFileOutputStream fos = null;
+                boolean written = false;
                 try {
                     fos = new PseudoFileOutputStream(dest);
-                    IOUtil.copy(css, fos);
+                    engine.toCSS("/virtual/" + fileName, fos);
+                    written = true;
                 } catch (IOException e) {
                     throw new MojoFailureException("Could not write CSS file produced from " + fileName, e);
                 } finally {
                     IOUtil.close(fos);
+                    if (!written) {
+                        // do not leave a partial file that looks newer than the source
+                        dest.delete();
+                    }
                 }
             }
+            saveScanCache();
+            flushOutput();
         } catch (CssCompilationError e) {
             throw new MojoFailureException("Compilation failure: " + e.getMessage(), e);
         } catch (IOException e) {
             throw new MojoExecutionException("Could not instantiate compiler: " + e.getMessage(), e);
+        } finally {
+            getLog().debug(String.valueOf(fs.getContentCache()));
+            fs.close();
+            saveIndexSnapshot();
         }
     }
 }
@@ -39,6 +39,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -188,9 +189,10 @@ public class OptimizeMojo extends AbstractPseudoFileSystemProcessorMojo {
             File profileJs = new File(contentDirectory, path);
             PseudoFileSystem.Layer[] layersArray = layers.toArray(new PseudoFileSystem.Layer[layers.size() + 1]);
             layersArray[layers.size()] = new PseudoFileSystem.FileLayer("build", profileJs.getParentFile());
+            final PseudoFileSystem fileSystem = createFileSystem(Arrays.asList(layersArray));
             try {
                 Object rv = contextFactory
-                        .call(new OptimizeContextAction(getLog(), global, profileJs, source, lineNo, layersArray));
+                        .call(new OptimizeContextAction(getLog(), global, profileJs, source, lineNo, fileSystem));
                 if (rv instanceof Number) {
                     if (((Number) rv).intValue() != 0) {
                         throw new MojoExecutionException(
@@ -206,6 +208,8 @@ public class OptimizeMojo extends AbstractPseudoFileSystemProcessorMojo {
                         "Non-zero exit code of " + e.getExitCode() + " when trying to optimize profile " + profileJs);
             }
         }
+        flushOutput();
+        saveIndexSnapshot();
     }
 
 }
@@ -85,10 +85,12 @@ import org.jszip.jetty.SystemProperties;
 import org.jszip.jetty.SystemProperty;
 import org.jszip.jetty.VirtualDirectoryResource;
 import org.jszip.less.LessEngine;
+import org.jszip.pseudo.io.IndexSnapshot;
 import org.jszip.pseudo.io.PseudoDirectoryScanner;
 import org.jszip.pseudo.io.PseudoFile;
 import org.jszip.pseudo.io.PseudoFileOutputStream;
 import org.jszip.pseudo.io.PseudoFileSystem;
+import org.jszip.pseudo.io.ScanCache;
 import org.jszip.sass.SassEngine;
 
 import java.io.File;
@@ -163,6 +165,13 @@ public class RunMojo extends AbstractJSZipMojo {
     @Parameter(defaultValue = "${project.build.directory}/${project.build.finalName}", required = true)
     private File webappDirectory;
 
+    /**
+     * Where to keep a copy of the directories of the jszip archives on the virtual filesystem, so that later builds
+     * do not need to open archives that have not changed.
+     */
+    @Parameter(property = "jszip.indexSnapshot", defaultValue = "${project.build.directory}/jszip-index.bin")
+    private File indexSnapshot;
+
     /**
      * List of connectors to use. If none are configured
      * then the default is a single SelectChannelConnector at port 8080. You can
@@ -314,6 +323,13 @@ public class RunMojo extends AbstractJSZipMojo {
     @Parameter( defaultValue = "${project.build.sourceEncoding}" )
     private String encoding;
 
+    /**
+     * The time in milliseconds for which directory listings and file metadata of the source directories are served
+     * from memory before they are re-read from disk. Use {@code 0} to read from disk on every request.
+     */
+    @Parameter(property = "jszip.run.refreshInterval", defaultValue = "1000")
+    private long refreshInterval;
+
     /**
      * Used to resolve transitive dependencies.
      */
@@ -347,6 +363,17 @@ public class RunMojo extends AbstractJSZipMojo {
     private final String scope = "test";
     private final long classpathCheckInterval = TimeUnit.SECONDS.toMillis(10);
 
+    /**
+     * The virtual filesystems backing the current CSS engine resources.
+     */
+    private final List<PseudoFileSystem> fileSystems = new ArrayList<PseudoFileSystem>();
+
+    /**
+     * Creates the layers of the archives behind {@link #fileSystems}, which record the archives indexed so far in the
+     * index snapshot when they finish.
+     */
+    private final List<ZipLayerLoader> zipLayerLoaders = new ArrayList<ZipLayerLoader>();
+
     public void execute()
             throws MojoExecutionException, MojoFailureException {
         if (runPackages == null || runPackages.length == 0) {
@@ -611,6 +638,7 @@ public class RunMojo extends AbstractJSZipMojo {
                 if (overlaysChanged || classPathChanged) {
                     getLog().info("Updating overlays...");
                     try {
+                        closeFileSystems();
                         resources = new ArrayList<Resource>();
                         addCssEngineResources(project, reactorProjects, mappings, resources);
                         for (Artifact a : getOverlayArtifacts(project, scope)) {
@@ -646,10 +674,27 @@ public class RunMojo extends AbstractJSZipMojo {
                 server.stop();
             } catch (Exception e) {
                 throw new MojoExecutionException(e.getMessage(), e);
+            } finally {
+                closeFileSystems();
             }
         }
     }
 
+    private void closeFileSystems() {
+        for (PseudoFileSystem fs : fileSystems) {
+            fs.close();
+        }
+        fileSystems.clear();
+        saveIndexSnapshots();
+    }
+
+    private void saveIndexSnapshots() {
+        for (ZipLayerLoader zipLayers : zipLayerLoaders) {
+            zipLayers.finish();
+        }
+        zipLayerLoaders.clear();
+    }
+
     private void addOverlayResources(List<MavenProject> reactorProjects, List<Resource> _resources, Artifact a)
             throws PluginConfigurationException, PluginContainerException, IOException, MojoExecutionException {
         List<Resource> resources = new ArrayList<Resource>();
@@ -728,7 +773,12 @@ public class RunMojo extends AbstractJSZipMojo {
     private void addCssEngineResources(MavenProject project, List<MavenProject> reactorProjects, Mapping[] mappings, List<Resource> _resources)
             throws MojoExecutionException, IOException {
         List<PseudoFileSystem.Layer> layers = new ArrayList<PseudoFileSystem.Layer>();
-        layers.add(new PseudoFileSystem.FileLayer("/virtual", warSourceDirectory));
+        layers.add(new PseudoFileSystem.FileLayer("/virtual", warSourceDirectory, refreshInterval));
+        // the layers built last time have been in use until now, so record what they indexed before loading again
+        saveIndexSnapshots();
+        final IndexSnapshot snapshot = IndexSnapshot.load(indexSnapshot);
+        final ZipLayerLoader zipLayers = new ZipLayerLoader(getZipIndexRegistry(session), snapshot, getLog());
+        zipLayerLoaders.add(zipLayers);
         FilterArtifacts filter = new FilterArtifacts();
 
         filter.addFilter(new ProjectTransitivityFilter(project.getDependencyArtifacts(), false));
@@ -774,12 +824,12 @@ public class RunMojo extends AbstractJSZipMojo {
                                 File contentDirectory = mojo.getContentDirectory();
                                 if (contentDirectory.isDirectory()) {
                                     getLog().debug("Merging directory " + contentDirectory + " into " + path);
-                                    layers.add(new PseudoFileSystem.FileLayer(path, contentDirectory));
+                                    layers.add(new PseudoFileSystem.FileLayer(path, contentDirectory, refreshInterval));
                                 }
                                 File resourcesDirectory = mojo.getResourcesDirectory();
                                 if (resourcesDirectory.isDirectory()) {
                                     getLog().debug("Merging directory " + contentDirectory + " into " + path);
-                                    layers.add(new PseudoFileSystem.FileLayer(path, resourcesDirectory));
+                                    layers.add(new PseudoFileSystem.FileLayer(path, resourcesDirectory, refreshInterval));
                                 }
                             } finally {
                                 mavenPluginManager.releaseMojo(mojo, mojoExecution);
@@ -794,16 +844,12 @@ public class RunMojo extends AbstractJSZipMojo {
                     throw new MojoExecutionException("Cannot find jzsip artifact: " + artifact.getId());
                 }
             } else {
-                try {
-                    getLog().debug("Merging .zip file " + file + " into " + path);
-                    layers.add(new PseudoFileSystem.ZipLayer(path, file));
-                } catch (IOException e) {
-                    throw new MojoExecutionException(e.getMessage(), e);
-                }
+                getLog().debug("Merging .zip file " + file + " into " + path);
+                layers.add(zipLayers.load(path, file));
             }
         }
-
         final PseudoFileSystem fs = new PseudoFileSystem(layers);
+        fileSystems.add(fs);
 
         CssEngine engine = new LessEngine(fs, encoding == null ? "utf-8" : encoding, getLog(), lessCompress, customLessScript, showErrorExtracts);
 
@@ -813,6 +859,10 @@ public class RunMojo extends AbstractJSZipMojo {
 
         scanner.setFileSystem(fs);
 
+        scanner.setThreads(Runtime.getRuntime().availableProcessors());
+
+        scanner.setScanCache(ScanCache.getDefault());
+
         scanner.setBasedir(fs.getPseudoFile("/virtual"));
 
         if (lessIncludes != null && !lessIncludes.isEmpty()) {
@@ -827,9 +877,8 @@ public class RunMojo extends AbstractJSZipMojo {
             scanner.setExcludes(new String[0]);
         }
 
-        scanner.scan();
-
-        for (String fileName : new ArrayList<String>(Arrays.asList(scanner.getIncludedFiles()))) {
+        for (Iterator<String> files = scanner.scanIncludedFiles(); files.hasNext(); ) {
+            final String fileName = files.next();
             final CssEngineResource child = new CssEngineResource(fs, engine, "/virtual/" + fileName,
                     new File(webappDirectory, engine.mapName(fileName)));
             final String path = FileUtils.dirname(fileName);
@@ -854,9 +903,8 @@ public class RunMojo extends AbstractJSZipMojo {
             scanner.setExcludes(new String[]{"**/_*.sass","**/_*.scss"});
         }
 
-        scanner.scan();
-
-        for (String fileName : new ArrayList<String>(Arrays.asList(scanner.getIncludedFiles()))) {
+        for (Iterator<String> files = scanner.scanIncludedFiles(); files.hasNext(); ) {
+            final String fileName = files.next();
             final CssEngineResource child = new CssEngineResource(fs, engine, "/virtual/" + fileName,
                     new File(webappDirectory, engine.mapName(fileName)));
             final String path = FileUtils.dirname(fileName);
@@ -0,0 +1,85 @@
+package org.jszip.maven;
+
+import org.apache.maven.plugin.logging.Log;
+import org.jszip.pseudo.io.IndexSnapshot;
+import org.jszip.pseudo.io.PseudoFileSystem;
+import org.jszip.pseudo.io.ZipFilePool;
+import org.jszip.pseudo.io.ZipIndex;
+import org.jszip.pseudo.io.ZipIndexRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the layers for jszip archives without indexing the archives. An archive is only indexed once a path within
+ * the prefix of one of its layers is about to be looked up, and the archives mounted at that prefix are then indexed
+ * together on a pool of at most one thread per processor. The order of the layers, and hence their precedence, is the
+ * order in which they are created. {@link #finish()} records the archives indexed so far in the snapshot and saves it.
+ */
+class ZipLayerLoader {
+    private final ZipIndexRegistry registry;
+    private final IndexSnapshot snapshot;
+    private final Log log;
+    private final ThreadPoolExecutor executor;
+    private final Map<File, FutureTask<ZipIndex>> tasks = new LinkedHashMap<File, FutureTask<ZipIndex>>();
+
+    ZipLayerLoader(ZipIndexRegistry registry, IndexSnapshot snapshot, Log log) {
+        this.registry = registry;
+        this.snapshot = snapshot;
+        this.log = log;
+        final int threads = Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // the layers start tasks for as long as they are used, so the threads just go away once idle
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates the layer for an archive.
+     *
+     * @param path    the path to mount the archive at.
+     * @param zipFile the archive.
+     * @return the layer.
+     */
+    PseudoFileSystem.Layer load(String path, File zipFile) {
+        FutureTask<ZipIndex> task = tasks.get(zipFile);
+        if (task == null) {
+            task = registry.submit(zipFile, ZipFilePool.getDefault(), snapshot, null);
+            tasks.put(zipFile, task);
+        }
+        return new PseudoFileSystem.ZipLayer(path, zipFile, task, executor, ZipFilePool.getDefault());
+    }
+
+    /**
+     * Records the archives that have been indexed in the snapshot and saves it, without waiting for or starting the
+     * indexing of the others. Archives that have not been indexed keep the copy the snapshot was loaded with, so that
+     * an archive which a build never looks up is not read by the next build either. Called once the layers are no
+     * longer used, and may be called again to save what has been indexed since.
+     */
+    void finish() {
+        for (Map.Entry<File, FutureTask<ZipIndex>> task : tasks.entrySet()) {
+            if (!task.getValue().isDone()) {
+                snapshot.keep(task.getKey());
+                continue;
+            }
+            try {
+                ZipIndexRegistry.record(task.getKey(), task.getValue(), snapshot);
+            } catch (IOException e) {
+                log.warn("Could not index " + task.getKey() + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                log.warn("Could not index " + task.getKey() + ": " + e.getMessage());
+            }
+        }
+        try {
+            snapshot.save();
+        } catch (IOException e) {
+            log.warn("Could not save " + snapshot.getFile() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of file content held in direct (off-heap) buffers, so that files which are read again and again
+ * during a build (shared partials, imported stylesheets, modules) are only read from disk or inflated from an archive
+ * once. Content is keyed by its source, path, modification time and size, so a changed file is never served stale.
+ * When the byte budget is exceeded the least recently used content is evicted.
+ */
+public class ContentCache {
+
+    /**
+     * The default byte budget.
+     */
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * The cache shared by all filesystems that are not given a cache explicitly.
+     */
+    private static final ContentCache DEFAULT = new ContentCache(DEFAULT_MAX_BYTES);
+
+    private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<Key, ByteBuffer>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private long maxBytes;
+
+    private long bytes;
+
+    public ContentCache(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    public static ContentCache getDefault() {
+        return DEFAULT;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Changes the byte budget, evicting content if the cache is now over budget.
+     *
+     * @param maxBytes the byte budget, {@code 0} disables caching.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        evict();
+    }
+
+    /**
+     * Returns the number of bytes currently cached.
+     *
+     * @return the number of bytes currently cached.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of files currently cached.
+     *
+     * @return the number of files currently cached.
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Opens a stream of cached content.
+     *
+     * @param key the content.
+     * @return the stream or {@code null} if the content is not cached.
+     */
+    public InputStream get(Key key) {
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = entries.get(key);
+        }
+        if (buffer == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    /**
+     * Reads content into the cache. The stream is always consumed and closed.
+     *
+     * @param key the content.
+     * @param in  the content, which must be exactly {@link Key#getLength()} bytes long.
+     * @return a stream of the cached content or {@code null} if the content cannot be cached, in which case the
+     *         caller should re-open the content.
+     * @throws IOException if the content could not be read.
+     */
+    public InputStream put(Key key, InputStream in) throws IOException {
+        try {
+            if (key.length < 0 || key.length > getMaxBytes()) {
+                return null;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocateDirect((int) key.length);
+            final byte[] chunk = new byte[(int) Math.min(8192, Math.max(1, key.length))];
+            int read;
+            while ((read = in.read(chunk, 0, Math.min(chunk.length, buffer.remaining() + 1))) != -1) {
+                if (read > buffer.remaining()) {
+                    // the content has changed since it was measured
+                    return null;
+                }
+                buffer.put(chunk, 0, read);
+            }
+            if (buffer.hasRemaining()) {
+                return null;
+            }
+            buffer.flip();
+            final ByteBuffer readOnly = buffer.asReadOnlyBuffer();
+            synchronized (this) {
+                final ByteBuffer previous = entries.put(key, readOnly);
+                if (previous != null) {
+                    bytes -= previous.capacity();
+                }
+                bytes += readOnly.capacity();
+                evict();
+            }
+            return new ByteBufferInputStream(readOnly.duplicate());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Discards all cached content of a file, or of an archive and all its entries.
+     *
+     * @param file the file.
+     */
+    public synchronized void invalidate(File file) {
+        Iterator<Map.Entry<Key, ByteBuffer>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, ByteBuffer> entry = iterator.next();
+            if (entry.getKey().file.equals(file)) {
+                bytes -= entry.getValue().capacity();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Discards all cached content.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void evict() {
+        Iterator<ByteBuffer> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().capacity();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("ContentCache");
+        synchronized (this) {
+            sb.append("{bytes=").append(bytes);
+            sb.append(", maxBytes=").append(maxBytes);
+            sb.append(", count=").append(entries.size());
+        }
+        sb.append(", hits=").append(hits);
+        sb.append(", misses=").append(misses);
+        sb.append(", evictions=").append(evictions);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Identifies a version of some content.
+     */
+    public static final class Key {
+        private final File file;
+        private final String entry;
+        private final long lastModified;
+        private final long length;
+        private final int hashCode;
+
+        /**
+         * Constructs a key.
+         *
+         * @param file         the file holding the content.
+         * @param entry        the entry within the file if the file is an archive, otherwise {@code null}.
+         * @param lastModified the modification time of the content.
+         * @param length       the size of the content.
+         */
+        public Key(File file, String entry, long lastModified, long length) {
+            this.file = file;
+            this.entry = entry;
+            this.lastModified = lastModified;
+            this.length = length;
+            int hashCode = file.hashCode();
+            hashCode = 31 * hashCode + (entry != null ? entry.hashCode() : 0);
+            hashCode = 31 * hashCode + (int) (lastModified ^ (lastModified >>> 32));
+            hashCode = 31 * hashCode + (int) (length ^ (length >>> 32));
+            this.hashCode = hashCode;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hashCode == key.hashCode
+                    && lastModified == key.lastModified
+                    && length == key.length
+                    && file.equals(key.file)
+                    && (entry != null ? entry.equals(key.entry) : key.entry == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
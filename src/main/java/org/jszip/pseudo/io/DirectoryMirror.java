@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo.io;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory copy of the listings and file metadata of a directory tree. Each directory is scanned when first
+ * needed and re-scanned once its copy is older than the refresh interval, so repeated lookups cost no system calls.
+ * Changes made through the filesystem refresh the affected directories immediately; changes made by other processes
+ * are picked up within the refresh interval.
+ */
+class DirectoryMirror {
+
+    /**
+     * How long after a modification the modification time of a directory is trusted to change again, allowing for
+     * filesystems that only keep modification times to the second or two.
+     */
+    private static final long TIMESTAMP_GRANULARITY = 2000L;
+
+    private final File root;
+
+    private final long refreshInterval;
+
+    /**
+     * The scanned directories, keyed by their path relative to {@link #root} with no leading or trailing {@code /}.
+     */
+    private final ConcurrentHashMap<String, Listing> listings = new ConcurrentHashMap<String, Listing>();
+
+    private final AtomicLong changeStamp = new AtomicLong();
+
+    DirectoryMirror(File root, long refreshInterval) {
+        this.root = root;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Returns a value that changes whenever a re-scan finds that files or directories have been added or removed.
+     *
+     * @return the change stamp.
+     */
+    long getChangeStamp() {
+        return changeStamp.get();
+    }
+
+    /**
+     * Lists a directory.
+     *
+     * @param path the relative path of the directory.
+     * @return the sorted names of the children or {@code null} if there is no such directory.
+     */
+    String[] list(String path) {
+        return listing(path).names;
+    }
+
+    /**
+     * Returns the modification time that a directory had when it was listed, so that callers can tell whether a
+     * listing they have kept from an earlier build is still current.
+     *
+     * @param path the relative path of the directory.
+     * @return the modification time, {@code 0} if it cannot be trusted, or {@code -1} if the directory has not been
+     *         listed.
+     */
+    long getListedModified(String path) {
+        final Listing current = listings.get(path);
+        return current == null ? -1 : current.modified;
+    }
+
+    /**
+     * Reads the modification time of a directory, which changes whenever entries are added to or removed from it.
+     *
+     * @param dir the directory.
+     * @param now the current time.
+     * @return the modification time, {@code 0} if there is no such directory or if it was modified so recently that
+     *         the modification time cannot be trusted to change again on the next modification.
+     */
+    static long getTrustedModified(File dir, long now) {
+        final long modified = dir.lastModified();
+        return now - modified < TIMESTAMP_GRANULARITY ? 0 : modified;
+    }
+
+    /**
+     * Looks up the metadata of a file or directory.
+     *
+     * @param path the relative path.
+     * @return the metadata or {@code null} if there is no such file or directory.
+     */
+    Stat stat(String path) {
+        if (path.isEmpty()) {
+            return root.exists() ? new Stat(root) : null;
+        }
+        final int index = path.lastIndexOf('/');
+        final Listing listing = listing(index == -1 ? "" : path.substring(0, index));
+        return listing.stats == null ? null : listing.stats.get(path.substring(index + 1));
+    }
+
+    /**
+     * Discards the copy of a path and its directory, so that the next lookup sees changes made to it.
+     *
+     * @param path the relative path.
+     */
+    void refresh(String path) {
+        listings.remove(path);
+        final int index = path.lastIndexOf('/');
+        listings.remove(index == -1 ? "" : path.substring(0, index));
+    }
+
+    private Listing listing(String path) {
+        final long now = System.currentTimeMillis();
+        final Listing current = listings.get(path);
+        if (current != null && now - current.scannedAt < refreshInterval) {
+            return current;
+        }
+        final Listing listing = new Listing(path.isEmpty() ? root : new File(root, path), now);
+        if (current != null && !Arrays.equals(current.names, listing.names)) {
+            changeStamp.incrementAndGet();
+        }
+        listings.put(path, listing);
+        return listing;
+    }
+
+    /**
+     * The metadata of a file or directory.
+     */
+    static final class Stat {
+        final boolean directory;
+        final long length;
+        final long lastModified;
+
+        private Stat(File file) {
+            this.directory = file.isDirectory();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+    }
+
+    /**
+     * A scanned directory.
+     */
+    private static final class Listing {
+        private final long scannedAt;
+        private final long modified;
+        private final String[] names;
+        private final Map<String, Stat> stats;
+
+        private Listing(File dir, long scannedAt) {
+            this.scannedAt = scannedAt;
+            // read before listing, so that a change made while listing shows up as a newer time next time round
+            this.modified = getTrustedModified(dir, scannedAt);
+            final String[] names = dir.list();
+            if (names == null) {
+                this.names = null;
+                this.stats = null;
+            } else {
+                Arrays.sort(names);
+                this.names = names;
+                this.stats = new HashMap<String, Stat>(names.length * 2);
+                for (String name : names) {
+                    stats.put(name, new Stat(new File(dir, name)));
+                }
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.jszip.pseudo.io;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -27,9 +28,39 @@ public class FilePseudoFile extends PseudoFile {
 
     private final File delegate;
 
+    private final ContentCache cache;
+
+    /**
+     * The in-memory copy of the directory tree that metadata is read from, or {@code null} to read from disk.
+     */
+    private final DirectoryMirror mirror;
+
+    /**
+     * The path of {@link #delegate} relative to the root of {@link #mirror}.
+     */
+    private final String path;
+
     public FilePseudoFile(PseudoFile parent, File delegate) {
+        this(parent, delegate, null);
+    }
+
+    /**
+     * Constructs a file backed by a real file.
+     *
+     * @param parent   the parent directory.
+     * @param delegate the real file.
+     * @param cache    the cache to read content through or {@code null} to always read from disk.
+     */
+    public FilePseudoFile(PseudoFile parent, File delegate, ContentCache cache) {
+        this(parent, delegate, cache, null, null);
+    }
+
+    FilePseudoFile(PseudoFile parent, File delegate, ContentCache cache, DirectoryMirror mirror, String path) {
         super(parent);
         this.delegate = delegate;
+        this.cache = cache;
+        this.mirror = mirror;
+        this.path = path == null ? null : path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
     }
 
     /**
@@ -50,28 +81,33 @@ public class FilePseudoFile extends PseudoFile {
      * {@inheritDoc}
      */
     public boolean createNewFile() throws IOException {
-        return delegate.createNewFile();
+        return changed(delegate.createNewFile());
     }
 
     /**
      * {@inheritDoc}
      */
     public boolean delete() {
-        return delegate.delete();
+        invalidateContent();
+        return changed(delegate.delete());
     }
 
     /**
      * {@inheritDoc}
      */
     public boolean renameTo(PseudoFile dest) {
+        invalidateContent();
         while (dest instanceof ProxyPseudoFile) {
             dest = ((ProxyPseudoFile) dest).$unwrap();
         }
         if (dest instanceof FilePseudoFile) {
-            return delegate.renameTo(FilePseudoFile.class.cast(dest).delegate);
+            final FilePseudoFile destination = FilePseudoFile.class.cast(dest);
+            destination.invalidateContent();
+            return changed(delegate.renameTo(destination.delegate)) && changed(dest, true);
         }
         if (dest.getParentFile().equals(getParentFile())) {
-            return delegate.renameTo(new File(delegate.getParent(), dest.getName()));
+            return changed(delegate.renameTo(new File(delegate.getParent(), dest.getName())))
+                    && changed(dest, true);
         }
         return false;
     }
@@ -80,13 +116,17 @@ public class FilePseudoFile extends PseudoFile {
      * {@inheritDoc}
      */
     public boolean exists() {
-        return delegate.exists();
+        return mirror != null ? stat() != null : delegate.exists();
     }
 
     /**
      * {@inheritDoc}
      */
     public boolean isDirectory() {
+        if (mirror != null) {
+            final DirectoryMirror.Stat stat = stat();
+            return stat != null && stat.directory;
+        }
         return delegate.isDirectory();
     }
 
@@ -94,6 +134,10 @@ public class FilePseudoFile extends PseudoFile {
      * {@inheritDoc}
      */
     public long lastModified() {
+        if (mirror != null) {
+            final DirectoryMirror.Stat stat = stat();
+            return stat == null ? 0L : stat.lastModified;
+        }
         return delegate.lastModified();
     }
 
@@ -108,6 +152,7 @@ public class FilePseudoFile extends PseudoFile {
      * {@inheritDoc}
      */
     public boolean setLastModified(long time) {
+        refreshMirror();
         return delegate.setLastModified(time);
     }
 
@@ -115,27 +160,47 @@ public class FilePseudoFile extends PseudoFile {
      * {@inheritDoc}
      */
     InputStream $newInputStream() throws IOException {
-        return new FileInputStream(delegate);
+        if (cache == null) {
+            return new FileInputStream(delegate);
+        }
+        final ContentCache.Key key = new ContentCache.Key(delegate, null, lastModified(), length());
+        InputStream inputStream = cache.get(key);
+        if (inputStream == null) {
+            inputStream = cache.put(key, new FileInputStream(delegate));
+        }
+        return inputStream != null ? inputStream : new FileInputStream(delegate);
     }
 
     /**
      * {@inheritDoc}
      */
     OutputStream $newOutputStream() throws IOException {
-        return new FileOutputStream(delegate);
+        final boolean created = !delegate.exists();
+        invalidateContent();
+        final OutputStream outputStream = new FileOutputStream(delegate);
+        changed(created);
+        return refreshOnClose(outputStream);
     }
 
     /**
      * {@inheritDoc}
      */
     OutputStream $newOutputStream(boolean append) throws IOException {
-        return new FileOutputStream(delegate, append);
+        final boolean created = !delegate.exists();
+        invalidateContent();
+        final OutputStream outputStream = new FileOutputStream(delegate, append);
+        changed(created);
+        return refreshOnClose(outputStream);
     }
 
     /**
      * {@inheritDoc}
      */
     public boolean isFile() {
+        if (mirror != null) {
+            final DirectoryMirror.Stat stat = stat();
+            return stat != null && !stat.directory;
+        }
         return delegate.isFile();
     }
 
@@ -143,7 +208,7 @@ public class FilePseudoFile extends PseudoFile {
      * {@inheritDoc}
      */
     public boolean mkdir() {
-        return delegate.mkdir();
+        return changed(delegate.mkdir());
     }
 
     /**
@@ -157,7 +222,7 @@ public class FilePseudoFile extends PseudoFile {
      * {@inheritDoc}
      */
     public boolean mkdirs() {
-        return delegate.mkdirs();
+        return changed(delegate.mkdirs());
     }
 
     /**
@@ -171,7 +236,95 @@ public class FilePseudoFile extends PseudoFile {
      * {@inheritDoc}
      */
     public long length() {
+        if (mirror != null) {
+            final DirectoryMirror.Stat stat = stat();
+            return stat == null ? 0L : stat.length;
+        }
         return delegate.length();
     }
 
+    private DirectoryMirror.Stat stat() {
+        return mirror.stat(path);
+    }
+
+    /**
+     * Discards the mirrored metadata of this file, so that the next lookup reads it from disk.
+     */
+    private void refreshMirror() {
+        if (mirror != null) {
+            mirror.refresh(path);
+        }
+    }
+
+    /**
+     * Refreshes the mirrored metadata once writing completes, as the length and modification time are only final
+     * then.
+     *
+     * @param outputStream the stream to wrap.
+     * @return the wrapped stream.
+     */
+    private OutputStream refreshOnClose(OutputStream outputStream) {
+        if (mirror == null) {
+            return outputStream;
+        }
+        return new RefreshingOutputStream(outputStream);
+    }
+
+    /**
+     * Discards any cached content, as the modification time may not change when the file is rewritten in quick
+     * succession.
+     */
+    private void invalidateContent() {
+        refreshMirror();
+        if (cache != null) {
+            cache.invalidate(delegate);
+        }
+    }
+
+    /**
+     * Notifies the filesystem when files or directories have been added or removed, as that may change how paths
+     * resolve.
+     *
+     * @param changed {@code true} if files or directories have been added or removed.
+     * @return {@code changed}.
+     */
+    private boolean changed(boolean changed) {
+        refreshMirror();
+        return changed(this, changed);
+    }
+
+    private static boolean changed(PseudoFile file, boolean changed) {
+        final PseudoFileSystem fileSystem = file.getFileSystem();
+        if (changed && fileSystem != null) {
+            fileSystem.invalidate(file.getAbsolutePath(fileSystem));
+        }
+        return changed;
+    }
+
+    /**
+     * Refreshes the mirror once the file has been written.
+     */
+    private class RefreshingOutputStream extends FilterOutputStream implements StreamWrapper {
+        private RefreshingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public Object getWrapped() {
+            return out;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                refreshMirror();
+            }
+        }
+    }
 }
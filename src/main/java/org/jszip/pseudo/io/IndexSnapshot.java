@@ -0,0 +1,306 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo.io;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A copy of the indexes of the archives behind {@link PseudoFileSystem.ZipLayer}s, kept in a file so that later builds
+ * can set up their layers without opening the archives or building their trees again. Each archive's copy is keyed by
+ * the archive's location and is only used while the archive's size and modification time still match. The file is
+ * read into memory when loaded, rather than mapped, so that {@link #save()} can replace it on every platform, and
+ * each copy is only decoded when a layer asks for it.
+ * <p/>
+ * The file holds a table of archives followed by their indexes, all in big endian order:
+ * <pre>
+ *   int magic, int version, int archives
+ *   archives * (string path, long size, long lastModified, int offset)
+ *   at each offset: the index, see {@link ZipIndex#write(DataOutputStream)}
+ * </pre>
+ * where a string is an int byte count followed by UTF-8 bytes.
+ */
+public class IndexSnapshot {
+
+    private static final int MAGIC = 0x4a535a49;
+
+    private static final int VERSION = 2;
+
+    private final File file;
+
+    /**
+     * The contents of the file, or {@code null} if there was no usable file. Only absolute reads are performed on
+     * this buffer.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The archives in {@link #buffer}, keyed by their location.
+     */
+    private final Map<String, Section> sections = new HashMap<String, Section>();
+
+    /**
+     * The indexes handed out or recorded since the snapshot was loaded, keyed by the location of their archive, which
+     * are the ones that {@link #save()} writes.
+     */
+    private final Map<String, ZipIndex> used = new LinkedHashMap<String, ZipIndex>();
+
+    private boolean dirty;
+
+    private IndexSnapshot(File file, ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Loads a snapshot. A missing, unreadable or corrupt file gives an empty snapshot, as the archives can always be
+     * read again.
+     *
+     * @param file the snapshot file.
+     * @return the snapshot.
+     */
+    public static IndexSnapshot load(File file) {
+        if (!file.isFile()) {
+            return new IndexSnapshot(file, null);
+        }
+        try {
+            final byte[] bytes;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                bytes = new byte[(int) raf.length()];
+                raf.readFully(bytes);
+            } finally {
+                raf.close();
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            final IndexSnapshot snapshot = new IndexSnapshot(file, buffer);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return new IndexSnapshot(file, null);
+            }
+            final int count = buffer.getInt(8);
+            int position = 12;
+            for (int i = 0; i < count; i++) {
+                final String path = readString(buffer, position);
+                position += 4 + buffer.getInt(position);
+                final long size = buffer.getLong(position);
+                final long lastModified = buffer.getLong(position + 8);
+                final int offset = buffer.getInt(position + 16);
+                position += 20;
+                if (offset < 0 || offset >= buffer.limit()) {
+                    return new IndexSnapshot(file, null);
+                }
+                snapshot.sections.put(path, new Section(size, lastModified, offset));
+            }
+            return snapshot;
+        } catch (IOException e) {
+            return new IndexSnapshot(file, null);
+        } catch (IndexOutOfBoundsException e) {
+            return new IndexSnapshot(file, null);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns {@code true} if archives have been recorded since the snapshot was loaded.
+     *
+     * @return {@code true} if the snapshot needs to be saved.
+     */
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Returns the index of an archive as it is now.
+     *
+     * @param archive the archive.
+     * @return the index or {@code null} if the snapshot holds no copy for the archive as it is now.
+     */
+    synchronized ZipIndex get(File archive) {
+        final String path = archive.getAbsolutePath();
+        final long size = archive.length();
+        final long lastModified = archive.lastModified();
+        ZipIndex index = used.get(path);
+        if (index != null && index.matches(size, lastModified)) {
+            return index;
+        }
+        final Section section = sections.get(path);
+        if (section == null || section.size != size || section.lastModified != lastModified) {
+            return null;
+        }
+        try {
+            index = ZipIndex.read(archive, size, lastModified, buffer, section.offset);
+        } catch (IndexOutOfBoundsException e) {
+            // a corrupt copy, just read the archive again
+            sections.remove(path);
+            return null;
+        }
+        used.put(path, index);
+        return index;
+    }
+
+    /**
+     * Keeps the copy of an archive that was not indexed this time, so that {@link #save()} writes it as long as it is
+     * still a copy of the archive as it is now. The archive itself is not read.
+     *
+     * @param archive the archive.
+     */
+    public void keep(File archive) {
+        get(archive);
+    }
+
+    /**
+     * Records the index of an archive, replacing any copy of an earlier version of the archive, so that
+     * {@link #save()} keeps it.
+     *
+     * @param index the index.
+     */
+    synchronized void put(ZipIndex index) {
+        final String path = index.getZipFile().getAbsolutePath();
+        if (used.put(path, index) == index) {
+            return;
+        }
+        final Section section = sections.get(path);
+        if (section == null || !index.matches(section.size, section.lastModified)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the archives used since the snapshot was loaded back to the file, if any were recorded. Archives that
+     * were not used are dropped.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        final File temp = new File(parent, file.getName() + ".tmp");
+        final Map<String, byte[]> paths = new LinkedHashMap<String, byte[]>();
+        int offset = 12;
+        for (String path : used.keySet()) {
+            final byte[] bytes = utf8(path);
+            paths.put(path, bytes);
+            offset += 4 + bytes.length + 20;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(used.size());
+            final ByteArrayOutputStream indexes = new ByteArrayOutputStream();
+            final DataOutputStream indexOut = new DataOutputStream(indexes);
+            for (Map.Entry<String, ZipIndex> entry : used.entrySet()) {
+                final ZipIndex index = entry.getValue();
+                writeBytes(out, paths.get(entry.getKey()));
+                out.writeLong(index.getArchiveSize());
+                out.writeLong(index.getArchiveLastModified());
+                out.writeInt(offset + indexes.size());
+                index.write(indexOut);
+            }
+            indexOut.flush();
+            indexes.writeTo(out);
+            out.close();
+            out = null;
+        } finally {
+            IOUtil.close(out);
+        }
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+        dirty = false;
+    }
+
+    static String readString(ByteBuffer buffer, int position) {
+        final int length = buffer.getInt(position);
+        if (length < 0 || position + 4 + length > buffer.limit()) {
+            throw new IndexOutOfBoundsException("Corrupt string at " + position);
+        }
+        final byte[] bytes = new byte[length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(position + 4);
+        source.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is a required encoding", e);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, utf8(value));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is a required encoding", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("IndexSnapshot");
+        sb.append("{file=").append(file);
+        sb.append(", archives=").append(sections.size());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Where the index of an archive starts in the file, and the archive it was built from.
+     */
+    private static final class Section {
+        private final long size;
+        private final long lastModified;
+        private final int offset;
+
+        private Section(long size, long lastModified, int offset) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.offset = offset;
+        }
+    }
+}
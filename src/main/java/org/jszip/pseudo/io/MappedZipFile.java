@@ -0,0 +1,511 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only zip reader that memory-maps the archive. The central directory is only parsed when first needed, and
+ * then only into a table of record offsets; everything else is read from the mapped archive on demand. Stored entries
+ * are served as zero-copy slices of the mapping and deflated entries are inflated as they are read.
+ * <p/>
+ * Entries are identified by their index in the central directory. Instances are safe for use by multiple threads.
+ * <p/>
+ * The mapping is of the archive as it was when mapped. An archive that is rewritten in place must be mapped again,
+ * see {@link #isStale()}, and reading a mapping whose archive has since been truncated may crash the JVM.
+ * <p/>
+ * A mapping cannot be released before it is garbage collected, so an archive can instead be read through a file
+ * handle, which {@link #close()} releases. Then only the central directory is held in memory and each entry is read
+ * from the archive when opened. See {@link #MAP_BY_DEFAULT}.
+ */
+public class MappedZipFile {
+
+    public static final int STORED = 0;
+
+    public static final int DEFLATED = 8;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int LOCAL_HEADER_LENGTH = 30;
+
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+
+    private static final int END_HEADER_SIGNATURE = 0x06054b50;
+
+    private static final int END_HEADER_LENGTH = 22;
+
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+    /**
+     * Whether archives are mapped unless asked otherwise. On Windows a file cannot be replaced or deleted while it is
+     * mapped, so there archives are read through a file handle instead. The {@code jszip.mapArchives} system property
+     * overrides this.
+     */
+    public static final boolean MAP_BY_DEFAULT = mapByDefault();
+
+    private final File file;
+
+    /**
+     * The size of the archive when it was mapped.
+     */
+    private final long length;
+
+    /**
+     * The modification time of the archive when it was mapped.
+     */
+    private final long lastModified;
+
+    /**
+     * The mapped archive, in little endian order, or {@code null} if the archive is read through {@link #raf}. Only
+     * absolute reads are performed on this buffer so it is never mutated after construction.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The archive, or {@code null} if the archive is mapped.
+     */
+    private final RandomAccessFile raf;
+
+    /**
+     * The part of the archive that holds the central directory and the end of central directory record, in little
+     * endian order. This is {@link #buffer} when the archive is mapped and a copy otherwise. Only absolute reads are
+     * performed on this buffer.
+     */
+    private final ByteBuffer directory;
+
+    /**
+     * Where {@link #directory} starts within the archive.
+     */
+    private final int directoryStart;
+
+    private final int centralDirectoryOffset;
+
+    private final int entryCount;
+
+    /**
+     * The offset of each entry's central directory record, lazily populated.
+     */
+    private volatile int[] offsets;
+
+    public MappedZipFile(File file) throws IOException {
+        this(file, MAP_BY_DEFAULT);
+    }
+
+    /**
+     * Opens an archive.
+     *
+     * @param file the archive.
+     * @param map  {@code true} to map the archive, {@code false} to read it through a file handle.
+     * @throws IOException if the archive could not be read.
+     */
+    public MappedZipFile(File file, boolean map) throws IOException {
+        this.file = file;
+        // taken before mapping so that a change made while mapping shows as stale
+        this.lastModified = file.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        boolean keepOpen = false;
+        try {
+            final long size = raf.length();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException(file + " is too large to map");
+            }
+            length = size;
+            if (map) {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+                directory = buffer;
+                directoryStart = 0;
+            } else {
+                buffer = null;
+                // the end record is within the tail of the archive, and the central directory comes just before it
+                final int tailStart = (int) Math.max(0, size - END_HEADER_LENGTH - MAX_COMMENT_LENGTH);
+                final ByteBuffer tail = read(raf, tailStart, (int) size - tailStart);
+                final long offset = tail.getInt(findEndOfCentralDirectory(tail) + 16) & 0xffffffffL;
+                if (offset < tailStart) {
+                    directory = read(raf, offset, (int) (size - offset));
+                    directoryStart = (int) offset;
+                } else {
+                    directory = tail;
+                    directoryStart = tailStart;
+                }
+                keepOpen = true;
+            }
+        } finally {
+            if (!keepOpen) {
+                raf.close();
+            }
+        }
+        this.raf = keepOpen ? raf : null;
+        try {
+            final int end = directoryStart + findEndOfCentralDirectory(directory);
+            entryCount = getDirectoryShort(end + 10);
+            final long offset = getDirectoryInt(end + 16) & 0xffffffffL;
+            if (entryCount == 0xffff || offset == 0xffffffffL) {
+                throw new ZipException(file + " is a ZIP64 archive which is not supported");
+            }
+            if (offset > end || offset < directoryStart) {
+                throw new ZipException(file + " has an invalid central directory offset");
+            }
+            centralDirectoryOffset = (int) offset;
+        } catch (ZipException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static boolean mapByDefault() {
+        final String property = System.getProperty("jszip.mapArchives");
+        if (property != null) {
+            return Boolean.valueOf(property);
+        }
+        return !System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH).startsWith("windows");
+    }
+
+    /**
+     * Reads part of an archive into a heap buffer. Reads are serialized on the file, as they move its file pointer.
+     *
+     * @param raf      the archive.
+     * @param position where to start reading.
+     * @param count    the number of bytes to read.
+     * @return the bytes, in little endian order.
+     * @throws IOException if the archive could not be read.
+     */
+    private static ByteBuffer read(RandomAccessFile raf, long position, int count) throws IOException {
+        final byte[] bytes = new byte[count];
+        synchronized (raf) {
+            raf.seek(position);
+            raf.readFully(bytes);
+        }
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int findEndOfCentralDirectory(ByteBuffer region) throws ZipException {
+        final int limit = Math.max(0, region.limit() - END_HEADER_LENGTH - MAX_COMMENT_LENGTH);
+        for (int i = region.limit() - END_HEADER_LENGTH; i >= limit; i--) {
+            if (region.getInt(i) == END_HEADER_SIGNATURE) {
+                return i;
+            }
+        }
+        throw new ZipException(file + " is not a zip file");
+    }
+
+    private int getDirectoryShort(int offset) {
+        return directory.getShort(offset - directoryStart) & 0xffff;
+    }
+
+    private int getDirectoryInt(int offset) {
+        return directory.getInt(offset - directoryStart);
+    }
+
+    private int[] offsets() throws ZipException {
+        int[] offsets = this.offsets;
+        if (offsets == null) {
+            offsets = new int[entryCount];
+            int offset = centralDirectoryOffset;
+            for (int i = 0; i < entryCount; i++) {
+                if (offset + CENTRAL_HEADER_LENGTH > directoryStart + directory.limit()
+                        || getDirectoryInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new ZipException(file + " has a corrupt central directory");
+                }
+                offsets[i] = offset;
+                offset += CENTRAL_HEADER_LENGTH
+                        + getDirectoryShort(offset + 28)
+                        + getDirectoryShort(offset + 30)
+                        + getDirectoryShort(offset + 32);
+            }
+            this.offsets = offsets;
+        }
+        return offsets;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the size of the archive when it was mapped.
+     *
+     * @return the size of the archive when it was mapped.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the modification time of the archive when it was mapped.
+     *
+     * @return the modification time of the archive when it was mapped.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Checks whether the archive has changed since it was mapped, in which case this mapping no longer describes it.
+     *
+     * @return {@code true} if the size or modification time of the archive has changed since it was mapped.
+     */
+    public boolean isStale() {
+        return file.length() != length || file.lastModified() != lastModified;
+    }
+
+    /**
+     * Returns {@code true} if the archive is mapped, {@code false} if it is read through a file handle.
+     *
+     * @return {@code true} if the archive is mapped.
+     */
+    public boolean isMapped() {
+        return buffer != null;
+    }
+
+    /**
+     * Closes the file handle the archive is read through. Entries must not be opened afterwards. A mapped archive has
+     * no handle to close; the mapping is released once garbage collected.
+     *
+     * @throws IOException if the file handle could not be closed.
+     */
+    public void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the number of entries in the archive.
+     *
+     * @return the number of entries in the archive.
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    public String getName(int index) throws ZipException {
+        final int offset = offsets()[index];
+        final byte[] name = new byte[getDirectoryShort(offset + 28)];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = directory.get(offset - directoryStart + CENTRAL_HEADER_LENGTH + i);
+        }
+        try {
+            return new String(name, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is a required encoding", e);
+        }
+    }
+
+    public boolean isDirectory(int index) throws ZipException {
+        final int offset = offsets()[index];
+        final int length = getDirectoryShort(offset + 28);
+        return length > 0 && directory.get(offset - directoryStart + CENTRAL_HEADER_LENGTH + length - 1) == '/';
+    }
+
+    public int getMethod(int index) throws ZipException {
+        return getDirectoryShort(offsets()[index] + 10);
+    }
+
+    public long getCrc(int index) throws ZipException {
+        return getDirectoryInt(offsets()[index] + 16) & 0xffffffffL;
+    }
+
+    public long getCompressedSize(int index) throws ZipException {
+        return getDirectoryInt(offsets()[index] + 20) & 0xffffffffL;
+    }
+
+    public long getSize(int index) throws ZipException {
+        return getDirectoryInt(offsets()[index] + 24) & 0xffffffffL;
+    }
+
+    /**
+     * Returns the modification time of the entry.
+     *
+     * @param index the entry.
+     * @return the modification time in milliseconds since the epoch.
+     * @throws ZipException if the central directory is corrupt.
+     */
+    public long getTime(int index) throws ZipException {
+        return dosToJavaTime(getDirectoryInt(offsets()[index] + 12) & 0xffffffffL);
+    }
+
+    private long getLocalHeaderOffset(int index) throws ZipException {
+        return getDirectoryInt(offsets()[index] + 42) & 0xffffffffL;
+    }
+
+    /**
+     * Returns the (possibly compressed) data of an entry as a read-only slice of the mapped archive, or as a copy if
+     * the archive is not mapped.
+     *
+     * @param index the entry.
+     * @return the raw entry data.
+     * @throws IOException if the archive is corrupt or could not be read.
+     */
+    public ByteBuffer getRawContent(int index) throws IOException {
+        final long header = getLocalHeaderOffset(index);
+        if (buffer == null) {
+            return readRawContent(index, header);
+        }
+        if (header + LOCAL_HEADER_LENGTH > buffer.limit() || buffer.getInt((int) header) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException(file + " has a corrupt local header for " + getName(index));
+        }
+        final long start = header + LOCAL_HEADER_LENGTH
+                + (buffer.getShort((int) header + 26) & 0xffff)
+                + (buffer.getShort((int) header + 28) & 0xffff);
+        final long end = start + getCompressedSize(index);
+        if (end > buffer.limit()) {
+            throw new ZipException(file + " is truncated within " + getName(index));
+        }
+        ByteBuffer content = buffer.duplicate();
+        content.limit((int) end);
+        content.position((int) start);
+        return content.slice().asReadOnlyBuffer();
+    }
+
+    private ByteBuffer readRawContent(int index, long header) throws IOException {
+        if (header + LOCAL_HEADER_LENGTH > length) {
+            throw new ZipException(file + " has a corrupt local header for " + getName(index));
+        }
+        final ByteBuffer local = read(raf, header, LOCAL_HEADER_LENGTH);
+        if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException(file + " has a corrupt local header for " + getName(index));
+        }
+        final long start = header + LOCAL_HEADER_LENGTH
+                + (local.getShort(26) & 0xffff)
+                + (local.getShort(28) & 0xffff);
+        final long end = start + getCompressedSize(index);
+        if (end > length) {
+            throw new ZipException(file + " is truncated within " + getName(index));
+        }
+        return read(raf, start, (int) (end - start)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the content of a stored entry as a zero-copy slice of the mapped archive, or as a copy if the archive is
+     * not mapped.
+     *
+     * @param index the entry.
+     * @return the entry content or {@code null} if the entry is compressed.
+     * @throws IOException if the archive is corrupt or could not be read.
+     */
+    public ByteBuffer getStoredContent(int index) throws IOException {
+        return getMethod(index) == STORED ? getRawContent(index) : null;
+    }
+
+    /**
+     * Opens a stream of the uncompressed content of an entry.
+     *
+     * @param index the entry.
+     * @return the stream.
+     * @throws IOException if the entry cannot be read.
+     */
+    public InputStream getInputStream(int index) throws IOException {
+        final int method = getMethod(index);
+        switch (method) {
+            case STORED:
+                return new ByteBufferInputStream(getRawContent(index));
+            case DEFLATED:
+                return new InflatingInputStream(new ByteBufferInputStream(getRawContent(index)), getSize(index));
+            default:
+                throw new ZipException("Unsupported compression method " + method + " for " + getName(index));
+        }
+    }
+
+    private static long dosToJavaTime(long dosTime) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set((int) ((dosTime >> 25) & 0x7f) + 1980,
+                (int) ((dosTime >> 21) & 0x0f) - 1,
+                (int) ((dosTime >> 16) & 0x1f),
+                (int) ((dosTime >> 11) & 0x1f),
+                (int) ((dosTime >> 5) & 0x3f),
+                (int) ((dosTime << 1) & 0x3e));
+        return calendar.getTimeInMillis();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("MappedZipFile");
+        sb.append("{file=").append(file);
+        sb.append(", entries=").append(entryCount);
+        sb.append(", mapped=").append(isMapped());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Inflates raw deflate data, supplying the trailing dummy byte that {@link Inflater} needs in {@code nowrap} mode.
+     */
+    private static class InflatingInputStream extends InflaterInputStream {
+        private long remaining;
+        private boolean eof;
+        private boolean closed;
+
+        private InflatingInputStream(InputStream in, long size) {
+            super(in, new Inflater(true), (int) Math.max(512, Math.min(8192, size)));
+            this.remaining = size;
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of deflated entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return closed ? 0 : (int) Math.max(0, Math.min(Integer.MAX_VALUE, remaining));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo.io;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A file in a {@link PseudoFileSystem.MemoryLayer}. Content written to the file is held by the layer until it is
+ * flushed; anything not held in memory is read from the directory behind the layer.
+ */
+public class MemoryPseudoFile extends PseudoFile {
+
+    private final PseudoFileSystem.MemoryLayer layer;
+
+    /**
+     * The path relative to the layer's directory, empty for the directory itself.
+     */
+    private final String path;
+
+    private final String name;
+
+    private final File file;
+
+    MemoryPseudoFile(PseudoFile parent, PseudoFileSystem.MemoryLayer layer, String path, String name) {
+        super(parent);
+        this.layer = layer;
+        this.path = path;
+        this.name = name;
+        this.file = path.isEmpty() ? layer.getDirectory() : new File(layer.getDirectory(), path);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean canRead() {
+        return exists();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean canWrite() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean createNewFile() throws IOException {
+        if (exists()) {
+            return false;
+        }
+        layer.store(path, new byte[0], System.currentTimeMillis());
+        return changed(true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean delete() {
+        return changed(layer.delete(path));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void deleteOnExit() {
+        file.deleteOnExit();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean exists() {
+        return path.isEmpty() || layer.isFile(path) || layer.isDirectory(path) || file.exists();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isDirectory() {
+        return path.isEmpty() || layer.isDirectory(path) || !layer.isFile(path) && file.isDirectory();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isFile() {
+        return layer.isFile(path) || !layer.isDirectory(path) && file.isFile();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isHidden() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long lastModified() {
+        final long lastModified = layer.lastModified(path);
+        return lastModified != -1 ? lastModified : file.lastModified();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long length() {
+        final byte[] content = layer.getContent(path);
+        return content != null ? content.length : file.length();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean mkdir() {
+        if (path.isEmpty() || exists() || !getParentFile().isDirectory()) {
+            return false;
+        }
+        return changed(layer.mkdir(path));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean mkdirs() {
+        if (path.isEmpty() || exists()) {
+            return false;
+        }
+        getParentFile().mkdirs();
+        return changed(layer.mkdir(path));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean renameTo(PseudoFile dest) {
+        while (dest instanceof ProxyPseudoFile) {
+            dest = ((ProxyPseudoFile) dest).$unwrap();
+        }
+        if (!(dest instanceof MemoryPseudoFile) || ((MemoryPseudoFile) dest).layer != layer || !isFile()) {
+            return false;
+        }
+        final MemoryPseudoFile target = (MemoryPseudoFile) dest;
+        try {
+            layer.store(target.path, read(), lastModified());
+        } catch (IOException e) {
+            return false;
+        }
+        layer.delete(path);
+        changed(true);
+        target.changed(true);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean setLastModified(long time) {
+        return layer.setLastModified(path, time) || file.setLastModified(time);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    InputStream $newInputStream() throws IOException {
+        final byte[] content = layer.getContent(path);
+        return content != null ? new ByteArrayInputStream(content) : new FileInputStream(file);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    OutputStream $newOutputStream() throws IOException {
+        return $newOutputStream(false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    OutputStream $newOutputStream(boolean append) throws IOException {
+        if (path.isEmpty() || isDirectory()) {
+            throw new IOException(getPath() + " is a directory");
+        }
+        final boolean created = !exists();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream() {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    layer.store(path, toByteArray(), System.currentTimeMillis());
+                    changed(created);
+                }
+            }
+        };
+        if (append && !created) {
+            buffer.write(read());
+        }
+        return buffer;
+    }
+
+    private byte[] read() throws IOException {
+        final byte[] content = layer.getContent(path);
+        if (content != null) {
+            return content;
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            return IOUtil.toByteArray(is);
+        } finally {
+            IOUtil.close(is);
+        }
+    }
+
+    /**
+     * Notifies the filesystem when files or directories have been added or removed, as that may change how paths
+     * resolve.
+     *
+     * @param changed {@code true} if files or directories have been added or removed.
+     * @return {@code changed}.
+     */
+    private boolean changed(boolean changed) {
+        final PseudoFileSystem fileSystem = getFileSystem();
+        if (changed && fileSystem != null) {
+            fileSystem.invalidate(getAbsolutePath(fileSystem));
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo.io;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A set of include or exclude patterns compiled into a single automaton over path segments. Each pattern is
+ * tokenised once, when the set is compiled, and a path is then matched against every pattern in one pass over its
+ * segments, so the cost of a match no longer grows with the number of times the patterns are re-parsed.
+ * <p/>
+ * The matching rules are those of {@link SelectorUtils#matchPath(String, String, boolean)}. Regular expression
+ * patterns cannot be compiled into the automaton and are delegated to {@link SelectorUtils}.
+ */
+final class PathPatterns {
+
+    private static final byte LITERAL = 0;
+
+    private static final byte GLOB = 1;
+
+    private static final byte ANY_PATH = 2;
+
+    private static final byte END = 3;
+
+    /**
+     * The patterns this set was compiled from.
+     */
+    private final String[] patterns;
+
+    private final String separator;
+
+    private final boolean caseSensitive;
+
+    /**
+     * The segments of every compiled pattern laid out back to back, each pattern followed by an {@link #END} state.
+     */
+    private final String[] segments;
+
+    /**
+     * The kind of each state in {@link #segments}.
+     */
+    private final byte[] kinds;
+
+    /**
+     * The states in which matching starts for paths that start with the separator.
+     */
+    private final BitSet absoluteStart;
+
+    /**
+     * The states in which matching starts for paths that do not start with the separator.
+     */
+    private final BitSet relativeStart;
+
+    /**
+     * The patterns that are matched by {@link SelectorUtils}.
+     */
+    private final String[] fallback;
+
+    private PathPatterns(String[] patterns, String separator, boolean caseSensitive) {
+        this.patterns = patterns;
+        this.separator = separator;
+        this.caseSensitive = caseSensitive;
+        List<String> segments = new ArrayList<String>();
+        List<Byte> kinds = new ArrayList<Byte>();
+        List<String> fallback = new ArrayList<String>();
+        List<Integer> absoluteStarts = new ArrayList<Integer>();
+        List<Integer> relativeStarts = new ArrayList<Integer>();
+        for (String pattern : patterns) {
+            if (isHandled(pattern, SelectorUtils.REGEX_HANDLER_PREFIX)) {
+                fallback.add(pattern);
+                continue;
+            }
+            if (isHandled(pattern, SelectorUtils.ANT_HANDLER_PREFIX)) {
+                pattern = pattern.substring(SelectorUtils.ANT_HANDLER_PREFIX.length(),
+                        pattern.length() - SelectorUtils.PATTERN_HANDLER_SUFFIX.length());
+            }
+            (pattern.startsWith(separator) ? absoluteStarts : relativeStarts).add(segments.size());
+            for (String segment : tokenize(pattern, separator)) {
+                segments.add(segment);
+                if ("**".equals(segment)) {
+                    kinds.add(ANY_PATH);
+                } else if (segment.indexOf('*') != -1 || segment.indexOf('?') != -1) {
+                    kinds.add(GLOB);
+                } else {
+                    kinds.add(LITERAL);
+                }
+            }
+            segments.add(null);
+            kinds.add(END);
+        }
+        this.segments = segments.toArray(new String[segments.size()]);
+        this.kinds = new byte[kinds.size()];
+        for (int i = 0; i < this.kinds.length; i++) {
+            this.kinds[i] = kinds.get(i);
+        }
+        this.fallback = fallback.toArray(new String[fallback.size()]);
+        this.absoluteStart = new BitSet(this.kinds.length);
+        for (Integer start : absoluteStarts) {
+            enter(absoluteStart, start);
+        }
+        this.relativeStart = new BitSet(this.kinds.length);
+        for (Integer start : relativeStarts) {
+            enter(relativeStart, start);
+        }
+    }
+
+    /**
+     * Compiles patterns.
+     *
+     * @param patterns      the patterns, which must already be normalized to use {@code separator}.
+     * @param separator     the separator between path segments.
+     * @param caseSensitive whether or not matching should be performed case sensitively.
+     * @return the compiled patterns.
+     */
+    static PathPatterns compile(String[] patterns, String separator, boolean caseSensitive) {
+        return new PathPatterns(patterns, separator, caseSensitive);
+    }
+
+    /**
+     * Tests whether this set was compiled from the given patterns.
+     *
+     * @param patterns      the patterns.
+     * @param caseSensitive whether or not matching should be performed case sensitively.
+     * @return {@code true} if this set was compiled from the very same array with the same case sensitivity.
+     */
+    boolean isCompiledFrom(String[] patterns, boolean caseSensitive) {
+        return this.patterns == patterns && this.caseSensitive == caseSensitive;
+    }
+
+    /**
+     * Tests whether a path matches at least one of the patterns.
+     *
+     * @param path the path.
+     * @return {@code true} if at least one pattern matches the path.
+     */
+    boolean matches(String path) {
+        final BitSet states = run(path);
+        if (states != null) {
+            for (int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i + 1)) {
+                if (kinds[i] == END) {
+                    return true;
+                }
+            }
+        }
+        for (String pattern : fallback) {
+            if (SelectorUtils.matchPath(pattern, path, caseSensitive)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests whether at least one of the patterns could match a path below a directory. Directories for which this
+     * returns {@code false} can be skipped entirely.
+     *
+     * @param path the path of the directory.
+     * @return {@code true} if a path below the directory could match.
+     */
+    boolean couldMatchBelow(String path) {
+        final BitSet states = run(path);
+        if (states != null) {
+            for (int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i + 1)) {
+                if (kinds[i] != END) {
+                    return true;
+                }
+            }
+        }
+        for (String pattern : fallback) {
+            if (SelectorUtils.matchPatternStart(pattern, path, caseSensitive)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the automaton over the segments of a path.
+     *
+     * @param path the path.
+     * @return the states reached or {@code null} if there are none.
+     */
+    private BitSet run(String path) {
+        BitSet states = (BitSet) (path.startsWith(separator) ? absoluteStart : relativeStart).clone();
+        int start = 0;
+        while (start <= path.length() && !states.isEmpty()) {
+            int end = path.indexOf(separator, start);
+            if (end == -1) {
+                end = path.length();
+            }
+            if (end > start) {
+                states = step(states, path.substring(start, end));
+            }
+            start = end + separator.length();
+        }
+        return states.isEmpty() ? null : states;
+    }
+
+    private BitSet step(BitSet states, String name) {
+        final BitSet next = new BitSet(kinds.length);
+        for (int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i + 1)) {
+            switch (kinds[i]) {
+                case ANY_PATH:
+                    enter(next, i);
+                    break;
+                case LITERAL:
+                    if (caseSensitive ? segments[i].equals(name) : segments[i].equalsIgnoreCase(name)) {
+                        enter(next, i + 1);
+                    }
+                    break;
+                case GLOB:
+                    if (glob(segments[i], name, caseSensitive)) {
+                        enter(next, i + 1);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Adds a state and, as {@code **} can match zero segments, the states that follow it without consuming input.
+     */
+    private void enter(BitSet states, int state) {
+        states.set(state);
+        while (kinds[state] == ANY_PATH) {
+            states.set(++state);
+        }
+    }
+
+    /**
+     * Matches a single segment against a pattern in which {@code *} matches zero or more characters and {@code ?}
+     * exactly one.
+     */
+    private static boolean glob(String pattern, String str, boolean caseSensitive) {
+        int p = 0;
+        int s = 0;
+        int star = -1;
+        int mark = 0;
+        while (s < str.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = s;
+            } else if (p < pattern.length()
+                    && (pattern.charAt(p) == '?' || equals(pattern.charAt(p), str.charAt(s), caseSensitive))) {
+                p++;
+                s++;
+            } else if (star != -1) {
+                p = star + 1;
+                s = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    private static boolean equals(char c1, char c2, boolean caseSensitive) {
+        return c1 == c2 || !caseSensitive && (Character.toUpperCase(c1) == Character.toUpperCase(c2)
+                || Character.toLowerCase(c1) == Character.toLowerCase(c2));
+    }
+
+    private static boolean isHandled(String pattern, String prefix) {
+        return pattern.length() > prefix.length() + SelectorUtils.PATTERN_HANDLER_SUFFIX.length()
+                && pattern.startsWith(prefix) && pattern.endsWith(SelectorUtils.PATTERN_HANDLER_SUFFIX);
+    }
+
+    private static List<String> tokenize(String path, String separator) {
+        List<String> result = new ArrayList<String>();
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf(separator, start);
+            if (end == -1) {
+                end = path.length();
+            }
+            if (end > start) {
+                result.add(path.substring(start, end));
+            }
+            start = end + separator.length();
+        }
+        return result;
+    }
+}
@@ -26,8 +26,8 @@ public class ProxyPseudoFile extends PseudoFile {
 
     public ProxyPseudoFile(PseudoFile parent, String child) {
         super(parent);
-        final PseudoFileSystem current = PseudoFileSystem.current();
-        delegate = current.getPseudoFile(parent.getAbsolutePath() + current.getPathSeparator() + child);
+        final PseudoFileSystem fs = parent.fileSystem();
+        delegate = fs.getPseudoFile(parent.getAbsolutePath(fs) + fs.getPathSeparator() + child);
     }
 
     public ProxyPseudoFile(String pathname) {
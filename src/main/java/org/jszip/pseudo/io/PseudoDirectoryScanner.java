@@ -60,7 +60,16 @@ import org.codehaus.plexus.util.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class for scanning a directory for files/directories which match certain
@@ -163,40 +172,40 @@ public class PseudoDirectoryScanner
     /** The files which matched at least one include and no excludes
      *  and were selected.
      */
-    protected Vector<String> filesIncluded;
+    protected List<String> filesIncluded;
 
     /** The files which did not match any includes or selectors. */
-    protected Vector<String> filesNotIncluded;
+    protected List<String> filesNotIncluded;
 
     /**
      * The files which matched at least one include and at least
      * one exclude.
      */
-    protected Vector<String> filesExcluded;
+    protected List<String> filesExcluded;
 
     /** The directories which matched at least one include and no excludes
      *  and were selected.
      */
-    protected Vector<String> dirsIncluded;
+    protected List<String> dirsIncluded;
 
     /** The directories which were found and did not match any includes. */
-    protected Vector<String> dirsNotIncluded;
+    protected List<String> dirsNotIncluded;
 
     /**
      * The directories which matched at least one include and at least one
      * exclude.
      */
-    protected Vector<String> dirsExcluded;
+    protected List<String> dirsExcluded;
 
     /** The files which matched at least one include and no excludes and
      *  which a selector discarded.
      */
-    protected Vector<String> filesDeselected;
+    protected List<String> filesDeselected;
 
     /** The directories which matched at least one include and no excludes
      *  but which a selector discarded.
      */
-    protected Vector<String> dirsDeselected;
+    protected List<String> dirsDeselected;
 
     /** Whether or not our results were built by a slow scan. */
     protected boolean haveSlowResults = false;
@@ -211,6 +220,28 @@ public class PseudoDirectoryScanner
     /** Whether or not everything tested so far has been included. */
     protected boolean everythingIncluded = true;
 
+    /** The number of threads that scan directories, <code>1</code> scans on the calling thread. */
+    private int threads = 1;
+
+    /** Where results are kept between scans, <code>null</code> to always scan every directory. */
+    private ScanCache scanCache;
+
+    static final int FILES_INCLUDED = 0;
+
+    private static final int FILES_NOT_INCLUDED = 1;
+
+    private static final int FILES_EXCLUDED = 2;
+
+    private static final int FILES_DESELECTED = 3;
+
+    private static final int DIRS_INCLUDED = 4;
+
+    private static final int DIRS_NOT_INCLUDED = 5;
+
+    private static final int DIRS_EXCLUDED = 6;
+
+    static final int DIRS_DESELECTED = 7;
+
     /**
      * Sole constructor.
      */
@@ -219,7 +250,10 @@ public class PseudoDirectoryScanner
     }
 
     public PseudoFileSystem getFileSystem() {
-        return fs == null ? PseudoFileSystem.current() : fs;
+        if (fs != null) {
+            return fs;
+        }
+        return basedir != null ? basedir.fileSystem() : PseudoFileSystem.current();
     }
 
     public void setFileSystem(PseudoFileSystem fs) {
@@ -259,6 +293,51 @@ public class PseudoDirectoryScanner
         this.followSymlinks = followSymlinks;
     }
 
+    /**
+     * Sets the number of threads used to scan subdirectories. With more than
+     * one thread the filesystem is resolved once on the calling thread, so the
+     * workers do not need a script context, and {@link #isSelected} may be
+     * called from several threads at once. The results are in the same order
+     * as those of a single threaded scan.
+     *
+     * @param threads the number of threads, <code>1</code> or less scans on
+     *                the calling thread.
+     */
+    public void setThreads( int threads )
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the number of threads used to scan subdirectories.
+     *
+     * @return the number of threads.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Sets where the results of {@link #scan()} and {@link #scanIncludedFiles()}
+     * are kept between scans. A later scan of the same base directory with the
+     * same patterns, even through another filesystem, then only lists the
+     * directories that the layers cannot vouch are unchanged. Kept results
+     * assume that {@link #isSelected} only looks at names.
+     *
+     * @param scanCache where to keep results, <code>null</code> to always scan
+     *                  every directory.
+     */
+    public void setScanCache( ScanCache scanCache )
+    {
+        this.scanCache = scanCache;
+    }
+
+    public ScanCache getScanCache()
+    {
+        return scanCache;
+    }
+
     /**
      * Returns whether or not the scanner has included all the files or
      * directories it has come across so far.
@@ -282,31 +361,18 @@ public class PseudoDirectoryScanner
      */
     public void scan() throws IllegalStateException
     {
-        if ( basedir == null )
-        {
-            throw new IllegalStateException( "No basedir set" );
-        }
-        if ( !basedir.exists() )
-        {
-            throw new IllegalStateException( "basedir " + basedir
-                                             + " does not exist" );
-        }
-        if ( !basedir.isDirectory() )
-        {
-            throw new IllegalStateException( "basedir " + basedir
-                                             + " is not a directory" );
-        }
+        checkBasedir();
 
         setupDefaultFilters();
 
-        filesIncluded = new Vector<String>();
-        filesNotIncluded = new Vector<String>();
-        filesExcluded = new Vector<String>();
-        filesDeselected = new Vector<String>();
-        dirsIncluded = new Vector<String>();
-        dirsNotIncluded = new Vector<String>();
-        dirsExcluded = new Vector<String>();
-        dirsDeselected = new Vector<String>();
+        filesIncluded = new ArrayList<String>();
+        filesNotIncluded = new ArrayList<String>();
+        filesExcluded = new ArrayList<String>();
+        filesDeselected = new ArrayList<String>();
+        dirsIncluded = new ArrayList<String>();
+        dirsNotIncluded = new ArrayList<String>();
+        dirsExcluded = new ArrayList<String>();
+        dirsDeselected = new ArrayList<String>();
 
         if ( isIncluded( "" ) )
         {
@@ -314,23 +380,75 @@ public class PseudoDirectoryScanner
             {
                 if ( isSelected( "", basedir ) )
                 {
-                    dirsIncluded.addElement( "" );
+                    dirsIncluded.add( "" );
                 }
                 else
                 {
-                    dirsDeselected.addElement( "" );
+                    dirsDeselected.add( "" );
                 }
             }
             else
             {
-                dirsExcluded.addElement( "" );
+                dirsExcluded.add( "" );
             }
         }
         else
         {
-            dirsNotIncluded.addElement( "" );
+            dirsNotIncluded.add( "" );
+        }
+        if ( scanCache != null )
+        {
+            final PseudoFileSystem fs = getFileSystem();
+            new BufferedScan( fs, true, true, scanCache, cacheKey( fs, true ) ).scan( basedir, "" );
+        }
+        else
+        {
+            scandir( basedir, "", true );
+        }
+    }
+
+    /**
+     * Scans the base directory for files which match at least one include
+     * pattern and don't match any exclude patterns, handing them out while
+     * the scan is still running. Directories are scanned as the iteration
+     * reaches them, or ahead of it if {@link #setThreads(int)} asked for more
+     * than one thread. The files come in the same order as
+     * {@link #getIncludedFiles()} after {@link #scan()}.
+     * <p>
+     * Only the included files are tracked, none of the result collections
+     * are filled in.
+     *
+     * @return the names of the included files, relative to the base directory.
+     * @exception IllegalStateException if the base directory was set
+     *            incorrectly (i.e. if it is <code>null</code>, doesn't exist,
+     *            or isn't a directory).
+     */
+    public Iterator<String> scanIncludedFiles() throws IllegalStateException
+    {
+        checkBasedir();
+
+        setupDefaultFilters();
+
+        final PseudoFileSystem fs = getFileSystem();
+        return new BufferedScan( fs, true, false, scanCache, cacheKey( fs, false ) ).iterator( basedir, "" );
+    }
+
+    private void checkBasedir() throws IllegalStateException
+    {
+        if ( basedir == null )
+        {
+            throw new IllegalStateException( "No basedir set" );
+        }
+        if ( !basedir.exists() )
+        {
+            throw new IllegalStateException( "basedir " + basedir
+                                             + " does not exist" );
+        }
+        if ( !basedir.isDirectory() )
+        {
+            throw new IllegalStateException( "basedir " + basedir
+                                             + " is not a directory" );
         }
-        scandir( basedir, "", true );
     }
 
     /**
@@ -348,11 +466,9 @@ public class PseudoDirectoryScanner
             return;
         }
 
-        String[] excl = new String[dirsExcluded.size()];
-        dirsExcluded.copyInto( excl );
+        String[] excl = dirsExcluded.toArray( new String[dirsExcluded.size()] );
 
-        String[] notIncl = new String[dirsNotIncluded.size()];
-        dirsNotIncluded.copyInto( notIncl );
+        String[] notIncl = dirsNotIncluded.toArray( new String[dirsNotIncluded.size()] );
 
         for ( String anExcl : excl )
         {
@@ -377,7 +493,8 @@ public class PseudoDirectoryScanner
      * Scans the given directory for files and directories. Found files and
      * directories are placed in their respective collections, based on the
      * matching of includes, excludes, and the selectors.  When a directory
-     * is found, it is scanned recursively.
+     * is found, it is scanned recursively, on a pool of worker threads if
+     * {@link #setThreads(int)} asked for more than one.
      *
      * @param dir   The directory to scan. Must not be <code>null</code>.
      * @param vpath The path relative to the base directory (needed to
@@ -395,7 +512,29 @@ public class PseudoDirectoryScanner
      */
     protected void scandir( PseudoFile dir, String vpath, boolean fast )
     {
-        PseudoFile[] children = getFileSystem().listChildren(dir, PseudoFileFilter.FILTER_NONE);
+        final PseudoFileSystem fs = getFileSystem();
+        if ( threads > 1 )
+        {
+            new BufferedScan( fs, fast, true, null, null ).scan( dir, vpath );
+        }
+        else
+        {
+            scandir( fs, dir, vpath, fast, new DirectResults( fs, fast ) );
+        }
+    }
+
+    /**
+     * Scans a single directory, handing its entries and subdirectories to the given results.
+     *
+     * @param fs      The filesystem to resolve files in.
+     * @param dir     The directory to scan.
+     * @param vpath   The path of the directory relative to the base directory.
+     * @param fast    Whether or not this call is part of a fast scan.
+     * @param results Where the entries of the directory go.
+     */
+    private void scandir( PseudoFileSystem fs, PseudoFile dir, String vpath, boolean fast, Results results )
+    {
+        PseudoFile[] children = fs.listChildren(dir, PseudoFileFilter.FILTER_NONE);
         String[] newfiles = new String[children.length];
         for (int i = 0; i < children.length; i++) {
             newfiles[i] = children[i].getName();
@@ -403,7 +542,7 @@ public class PseudoDirectoryScanner
 
         if ( !followSymlinks )
         {
-            Vector<String> noLinks = new Vector<String>();
+            List<String> noLinks = new ArrayList<String>();
             for ( String newfile : newfiles )
             {
                 try
@@ -411,19 +550,19 @@ public class PseudoDirectoryScanner
                     if ( isSymbolicLink( dir, newfile ) )
                     {
                         String name = vpath + newfile;
-                        PseudoFile file = getFileSystem().getPseudoFile(dir, newfile);
+                        PseudoFile file = fs.getPseudoFile(dir, newfile);
                         if ( file.isDirectory() )
                         {
-                            dirsExcluded.addElement( name );
+                            results.add( DIRS_EXCLUDED, name );
                         }
                         else
                         {
-                            filesExcluded.addElement( name );
+                            results.add( FILES_EXCLUDED, name );
                         }
                     }
                     else
                     {
-                        noLinks.addElement( newfile );
+                        noLinks.add( newfile );
                     }
                 }
                 catch ( IOException ioe )
@@ -431,17 +570,16 @@ public class PseudoDirectoryScanner
                     String msg = "IOException caught while checking " + "for links, couldn't get cannonical path!";
                     // will be caught and redirected to Ant's logging system
                     System.err.println( msg );
-                    noLinks.addElement( newfile );
+                    noLinks.add( newfile );
                 }
             }
-            newfiles = new String[noLinks.size()];
-            noLinks.copyInto( newfiles );
+            newfiles = noLinks.toArray( new String[noLinks.size()] );
         }
 
         for ( String newfile : newfiles )
         {
             String name = vpath + newfile;
-            PseudoFile file = getFileSystem().getPseudoFile(dir, newfile);
+            PseudoFile file = fs.getPseudoFile(dir, newfile);
             if ( file.isDirectory() )
             {
                 if ( isIncluded( name ) )
@@ -450,45 +588,45 @@ public class PseudoDirectoryScanner
                     {
                         if ( isSelected( name, file ) )
                         {
-                            dirsIncluded.addElement( name );
+                            results.add( DIRS_INCLUDED, name );
                             if ( fast )
                             {
-                                scandir( file, name + getFileSystem().getPathSeparator(), fast );
+                                results.descend( file, name + fs.getPathSeparator() );
                             }
                         }
                         else
                         {
-                            everythingIncluded = false;
-                            dirsDeselected.addElement( name );
+                            results.notEverythingIncluded();
+                            results.add( DIRS_DESELECTED, name );
                             if ( fast && couldHoldIncluded( name ) )
                             {
-                                scandir( file, name + getFileSystem().getPathSeparator(), fast );
+                                results.descend( file, name + fs.getPathSeparator() );
                             }
                         }
 
                     }
                     else
                     {
-                        everythingIncluded = false;
-                        dirsExcluded.addElement( name );
+                        results.notEverythingIncluded();
+                        results.add( DIRS_EXCLUDED, name );
                         if ( fast && couldHoldIncluded( name ) )
                         {
-                            scandir( file, name + getFileSystem().getPathSeparator(), fast );
+                            results.descend( file, name + fs.getPathSeparator() );
                         }
                     }
                 }
                 else
                 {
-                    everythingIncluded = false;
-                    dirsNotIncluded.addElement( name );
+                    results.notEverythingIncluded();
+                    results.add( DIRS_NOT_INCLUDED, name );
                     if ( fast && couldHoldIncluded( name ) )
                     {
-                        scandir( file, name + getFileSystem().getPathSeparator(), fast );
+                        results.descend( file, name + fs.getPathSeparator() );
                     }
                 }
                 if ( !fast )
                 {
-                    scandir( file, name + getFileSystem().getPathSeparator(), fast );
+                    results.descend( file, name + fs.getPathSeparator() );
                 }
             }
             else if ( file.isFile() )
@@ -499,27 +637,435 @@ public class PseudoDirectoryScanner
                     {
                         if ( isSelected( name, file ) )
                         {
-                            filesIncluded.addElement( name );
+                            results.add( FILES_INCLUDED, name );
+                        }
+                        else
+                        {
+                            results.notEverythingIncluded();
+                            results.add( FILES_DESELECTED, name );
+                        }
+                    }
+                    else
+                    {
+                        results.notEverythingIncluded();
+                        results.add( FILES_EXCLUDED, name );
+                    }
+                }
+                else
+                {
+                    results.notEverythingIncluded();
+                    results.add( FILES_NOT_INCLUDED, name );
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the entries found by {@link #scandir(PseudoFileSystem, PseudoFile, String, boolean, Results)}.
+     */
+    private interface Results
+    {
+        /**
+         * Records an entry.
+         *
+         * @param kind the collection the entry belongs in, one of {@link #FILES_INCLUDED} to
+         *             {@link #DIRS_DESELECTED}.
+         * @param name the path of the entry relative to the base directory.
+         */
+        void add( int kind, String name );
+
+        void notEverythingIncluded();
+
+        void descend( PseudoFile dir, String vpath );
+    }
+
+    /**
+     * Adds entries straight to the scanner's collections and scans subdirectories on the calling thread.
+     */
+    private final class DirectResults
+        implements Results
+    {
+        private final PseudoFileSystem fs;
+
+        private final boolean fast;
+
+        DirectResults( PseudoFileSystem fs, boolean fast )
+        {
+            this.fs = fs;
+            this.fast = fast;
+        }
+
+        public void add( int kind, String name )
+        {
+            collection( kind ).add( name );
+        }
+
+        public void notEverythingIncluded()
+        {
+            everythingIncluded = false;
+        }
+
+        public void descend( PseudoFile dir, String vpath )
+        {
+            scandir( fs, dir, vpath, fast, this );
+        }
+    }
+
+    /**
+     * Returns the collection that entries of a kind are placed in.
+     */
+    private List<String> collection( int kind )
+    {
+        switch ( kind )
+        {
+            case FILES_INCLUDED:
+                return filesIncluded;
+            case FILES_NOT_INCLUDED:
+                return filesNotIncluded;
+            case FILES_EXCLUDED:
+                return filesExcluded;
+            case FILES_DESELECTED:
+                return filesDeselected;
+            case DIRS_INCLUDED:
+                return dirsIncluded;
+            case DIRS_NOT_INCLUDED:
+                return dirsNotIncluded;
+            case DIRS_EXCLUDED:
+                return dirsExcluded;
+            default:
+                return dirsDeselected;
+        }
+    }
+
+    /**
+     * The results of one directory while it is being scanned. Buffers hold no reference to the scanner, so that they
+     * can be kept in a {@link ScanCache} once the scan is complete.
+     */
+    private static final class Buffer
+        extends ScanCache.Directory
+    {
+        /** Fills this buffer, <code>null</code> once it has been waited for. */
+        private FutureTask<Void> task;
+
+        Buffer( String path, String vpath )
+        {
+            super( path, vpath );
+        }
+    }
+
+    /**
+     * Scans a directory tree one {@link Buffer} per directory, so that no two threads ever share a collection.
+     * With more than one thread every directory is scanned as soon as it is found, otherwise only when its buffer is
+     * needed. Reading the buffers back depth first gives exactly the order of a single threaded scan.
+     * <p>
+     * Given the buffers of an earlier scan with the same patterns, a directory whose layers report the same
+     * {@link PseudoFileSystem#getListingTokens(String) listing tokens} as last time is not listed again: its
+     * entries are copied over and only its subdirectories are checked in turn.
+     */
+    private final class BufferedScan
+    {
+        private final PseudoFileSystem fs;
+
+        private final boolean fast;
+
+        /** Whether every entry is recorded, or only the included files. */
+        private final boolean all;
+
+        /** Where the results are kept between scans, or <code>null</code> if they are not kept. */
+        private final ScanCache cache;
+
+        /** The key of the results in {@link #cache}. */
+        private final String key;
+
+        /** The pool that scans directories, or <code>null</code> to scan them on the reading thread. */
+        private final ThreadPoolExecutor executor;
+
+        BufferedScan( PseudoFileSystem fs, boolean fast, boolean all, ScanCache cache, String key )
+        {
+            this.fs = fs;
+            this.fast = fast;
+            this.all = all;
+            this.cache = key == null ? null : cache;
+            this.key = key;
+            // idle workers time out, so an iteration that is abandoned half way does not leave threads behind.
+            // Directories found while every worker is busy are scanned by the thread that found them.
+            this.executor = threads > 1
+                ? new ThreadPoolExecutor( 0, threads, 1, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                                          new ThreadPoolExecutor.CallerRunsPolicy() )
+                : null;
+        }
+
+        /**
+         * Scans the directory and adds everything found to the scanner's collections.
+         */
+        void scan( PseudoFile dir, String vpath )
+        {
+            final Buffer root = root( dir, vpath );
+            try
+            {
+                replay( root );
+            }
+            finally
+            {
+                shutdown();
+            }
+            if ( cache != null )
+            {
+                cache.put( key, root );
+            }
+        }
+
+        /**
+         * Returns the included files below the directory, scanning as the iteration proceeds.
+         */
+        Iterator<String> iterator( PseudoFile dir, String vpath )
+        {
+            final Buffer root = root( dir, vpath );
+            final LinkedList<Iterator<Object>> stack = new LinkedList<Iterator<Object>>();
+            stack.add( root.entries.iterator() );
+            return new Iterator<String>()
+            {
+                private String next;
+
+                public boolean hasNext()
+                {
+                    while ( next == null && !stack.isEmpty() )
+                    {
+                        final Iterator<Object> entries = stack.getLast();
+                        if ( !entries.hasNext() )
+                        {
+                            stack.removeLast();
+                            if ( stack.isEmpty() )
+                            {
+                                shutdown();
+                                if ( cache != null )
+                                {
+                                    cache.put( key, root );
+                                }
+                            }
+                            continue;
+                        }
+                        final Object entry = entries.next();
+                        if ( entry instanceof Buffer )
+                        {
+                            final Buffer buffer = (Buffer) entry;
+                            await( buffer );
+                            stack.addLast( buffer.entries.iterator() );
                         }
                         else
                         {
-                            everythingIncluded = false;
-                            filesDeselected.addElement( name );
+                            final String name = (String) entries.next();
+                            if ( (Integer) entry == FILES_INCLUDED )
+                            {
+                                next = name;
+                            }
                         }
                     }
+                    return next != null;
+                }
+
+                public String next()
+                {
+                    if ( !hasNext() )
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    final String result = next;
+                    next = null;
+                    return result;
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        private Buffer root( PseudoFile dir, String vpath )
+        {
+            final ScanCache.Directory previous = cache == null ? null : cache.get( key );
+            final Buffer root = new Buffer( null, null );
+            descend( root, dir, dir.getAbsolutePath(), vpath, previous == null ? null : previous.child( vpath ) );
+            return root;
+        }
+
+        private void descend( Buffer parent, final PseudoFile dir, String path, String vpath,
+                              final ScanCache.Directory previous )
+        {
+            final Buffer buffer = new Buffer( path, vpath );
+            buffer.task = new FutureTask<Void>( new Runnable()
+            {
+                public void run()
+                {
+                    fill( buffer, dir, previous );
+                }
+            }, null );
+            parent.entries.add( buffer );
+            if ( executor != null )
+            {
+                executor.execute( buffer.task );
+            }
+        }
+
+        /**
+         * Fills a buffer, from the buffer of the same directory in an earlier scan if it is still current.
+         *
+         * @param buffer   the buffer to fill.
+         * @param dir      the directory, <code>null</code> to look it up if it needs to be listed.
+         * @param previous the buffer of the same directory in an earlier scan, or <code>null</code>.
+         */
+        private void fill( final Buffer buffer, PseudoFile dir, final ScanCache.Directory previous )
+        {
+            buffer.tokens = cache == null ? null : fs.getListingTokens( buffer.path );
+            if ( previous != null && buffer.tokens != null && buffer.tokens.equals( previous.tokens ) )
+            {
+                cache.reused();
+                buffer.everythingIncluded = previous.everythingIncluded;
+                for ( Object entry : previous.entries )
+                {
+                    if ( entry instanceof ScanCache.Directory )
+                    {
+                        final ScanCache.Directory child = (ScanCache.Directory) entry;
+                        descend( buffer, null, child.path, child.vpath, child );
+                    }
                     else
                     {
-                        everythingIncluded = false;
-                        filesExcluded.addElement( name );
+                        buffer.entries.add( entry );
+                    }
+                }
+                return;
+            }
+            if ( cache != null )
+            {
+                cache.scanned();
+            }
+            scandir( fs, dir == null ? fs.getPseudoFile( buffer.path ) : dir, buffer.vpath, fast, new Results()
+            {
+                public void add( int kind, String name )
+                {
+                    if ( all || kind == FILES_INCLUDED )
+                    {
+                        buffer.entries.add( kind );
+                        buffer.entries.add( name );
                     }
                 }
+
+                public void notEverythingIncluded()
+                {
+                    buffer.everythingIncluded = false;
+                }
+
+                public void descend( PseudoFile dir, String vpath )
+                {
+                    BufferedScan.this.descend( buffer, dir, dir.getAbsolutePath(), vpath,
+                                               previous == null ? null : previous.child( vpath ) );
+                }
+            } );
+        }
+
+        /**
+         * Waits until a buffer has been filled, filling it on the calling thread if nobody else will.
+         */
+        private void await( Buffer buffer )
+        {
+            final FutureTask<Void> task = buffer.task;
+            if ( executor == null )
+            {
+                // a no-op if the task has already run
+                task.run();
+            }
+            try
+            {
+                task.get();
+            }
+            catch ( ExecutionException e )
+            {
+                final Throwable cause = e.getCause();
+                if ( cause instanceof RuntimeException )
+                {
+                    throw (RuntimeException) cause;
+                }
+                if ( cause instanceof Error )
+                {
+                    throw (Error) cause;
+                }
+                IllegalStateException ise = new IllegalStateException( cause.getMessage() );
+                ise.initCause( cause );
+                throw ise;
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                IllegalStateException ise = new IllegalStateException( "Interrupted while scanning " + basedir );
+                ise.initCause( e );
+                throw ise;
+            }
+            // the task holds on to the earlier scan, which must not be kept alive by the results of this one
+            buffer.task = null;
+        }
+
+        private void replay( Buffer buffer )
+        {
+            if ( !buffer.everythingIncluded )
+            {
+                everythingIncluded = false;
+            }
+            for ( int i = 0; i < buffer.entries.size(); i++ )
+            {
+                final Object entry = buffer.entries.get( i );
+                if ( entry instanceof Buffer )
+                {
+                    await( (Buffer) entry );
+                    replay( (Buffer) entry );
+                }
                 else
                 {
-                    everythingIncluded = false;
-                    filesNotIncluded.addElement( name );
+                    collection( (Integer) entry ).add( (String) buffer.entries.get( ++i ) );
                 }
             }
         }
+
+        private void shutdown()
+        {
+            if ( executor != null )
+            {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Works out the key of the results of a scan of the base directory in the {@link ScanCache}.
+     *
+     * @param all whether the scan records every entry or only the included files.
+     * @return the key or <code>null</code> if the results are not worth keeping.
+     */
+    private String cacheKey( PseudoFileSystem fs, boolean all )
+    {
+        if ( scanCache == null )
+        {
+            return null;
+        }
+        final String path = basedir.getAbsolutePath();
+        final StringBuilder key = new StringBuilder( path );
+        for ( PseudoFileSystem.Layer layer : fs.getLayers() )
+        {
+            if ( layer.covers( path ) )
+            {
+                key.append( '\n' ).append( layer.getIdentity() );
+            }
+        }
+        key.append( '\n' ).append( all ).append( ',' ).append( isCaseSensitive ).append( ',' ).append( followSymlinks );
+        for ( String include : includes )
+        {
+            key.append( "\n+" ).append( include );
+        }
+        for ( String exclude : excludes )
+        {
+            key.append( "\n-" ).append( exclude );
+        }
+        return key.toString();
     }
 
     /**
@@ -545,8 +1091,7 @@ public class PseudoDirectoryScanner
      */
     public String[] getIncludedFiles()
     {
-        String[] files = new String[filesIncluded.size()];
-        filesIncluded.copyInto( files );
+        String[] files = filesIncluded.toArray( new String[filesIncluded.size()] );
         return files;
     }
 
@@ -563,8 +1108,7 @@ public class PseudoDirectoryScanner
     public String[] getNotIncludedFiles()
     {
         slowScan();
-        String[] files = new String[filesNotIncluded.size()];
-        filesNotIncluded.copyInto( files );
+        String[] files = filesNotIncluded.toArray( new String[filesNotIncluded.size()] );
         return files;
     }
 
@@ -582,8 +1126,7 @@ public class PseudoDirectoryScanner
     public String[] getExcludedFiles()
     {
         slowScan();
-        String[] files = new String[filesExcluded.size()];
-        filesExcluded.copyInto( files );
+        String[] files = filesExcluded.toArray( new String[filesExcluded.size()] );
         return files;
     }
 
@@ -601,8 +1144,7 @@ public class PseudoDirectoryScanner
     public String[] getDeselectedFiles()
     {
         slowScan();
-        String[] files = new String[filesDeselected.size()];
-        filesDeselected.copyInto( files );
+        String[] files = filesDeselected.toArray( new String[filesDeselected.size()] );
         return files;
     }
 
@@ -616,8 +1158,7 @@ public class PseudoDirectoryScanner
      */
     public String[] getIncludedDirectories()
     {
-        String[] directories = new String[dirsIncluded.size()];
-        dirsIncluded.copyInto( directories );
+        String[] directories = dirsIncluded.toArray( new String[dirsIncluded.size()] );
         return directories;
     }
 
@@ -634,8 +1175,7 @@ public class PseudoDirectoryScanner
     public String[] getNotIncludedDirectories()
     {
         slowScan();
-        String[] directories = new String[dirsNotIncluded.size()];
-        dirsNotIncluded.copyInto( directories );
+        String[] directories = dirsNotIncluded.toArray( new String[dirsNotIncluded.size()] );
         return directories;
     }
 
@@ -653,8 +1193,7 @@ public class PseudoDirectoryScanner
     public String[] getExcludedDirectories()
     {
         slowScan();
-        String[] directories = new String[dirsExcluded.size()];
-        dirsExcluded.copyInto( directories );
+        String[] directories = dirsExcluded.toArray( new String[dirsExcluded.size()] );
         return directories;
     }
 
@@ -672,8 +1211,7 @@ public class PseudoDirectoryScanner
     public String[] getDeselectedDirectories()
     {
         slowScan();
-        String[] directories = new String[dirsDeselected.size()];
-        dirsDeselected.copyInto( directories );
+        String[] directories = dirsDeselected.toArray( new String[dirsDeselected.size()] );
         return directories;
     }
 
@@ -703,6 +1241,12 @@ public class PseudoDirectoryScanner
     /** The patterns for the files to be excluded. */
     protected String[] excludes;
 
+    /** The compiled form of {@link #includes}. */
+    private PathPatterns includePatterns;
+
+    /** The compiled form of {@link #excludes}. */
+    private PathPatterns excludePatterns;
+
     /**
      * Whether or not the file system should be treated as a case sensitive
      * one.
@@ -718,6 +1262,7 @@ public class PseudoDirectoryScanner
     public void setCaseSensitive( boolean isCaseSensitive )
     {
         this.isCaseSensitive = isCaseSensitive;
+        compilePatterns();
     }
 
     /**
@@ -870,6 +1415,7 @@ public class PseudoDirectoryScanner
                 this.includes[i] = normalizePattern( includes[i] );
             }
         }
+        compilePatterns();
     }
 
     /**
@@ -898,6 +1444,7 @@ public class PseudoDirectoryScanner
                 this.excludes[i] = normalizePattern( excludes[i] );
             }
         }
+        compilePatterns();
     }
 
     /**
@@ -944,14 +1491,7 @@ public class PseudoDirectoryScanner
      */
     protected boolean isIncluded( String name )
     {
-        for ( int i = 0; i < includes.length; i++ )
-        {
-            if ( matchPath( includes[i], name, isCaseSensitive ) )
-            {
-                return true;
-            }
-        }
-        return false;
+        return includePatterns().matches( name );
     }
 
     /**
@@ -964,14 +1504,7 @@ public class PseudoDirectoryScanner
      */
     protected boolean couldHoldIncluded( String name )
     {
-        for ( int i = 0; i < includes.length; i++ )
-        {
-            if ( matchPatternStart( includes[i], name, isCaseSensitive ) )
-            {
-                return true;
-            }
-        }
-        return false;
+        return includePatterns().couldMatchBelow( name );
     }
 
     /**
@@ -984,14 +1517,42 @@ public class PseudoDirectoryScanner
      */
     protected boolean isExcluded( String name )
     {
-        for ( int i = 0; i < excludes.length; i++ )
+        return excludePatterns().matches( name );
+    }
+
+    /**
+     * Compiles the include and exclude patterns, so that matching does not need to parse them for every path.
+     */
+    private void compilePatterns()
+    {
+        includePatterns =
+            includes == null ? null : PathPatterns.compile( includes, File.separator, isCaseSensitive );
+        excludePatterns =
+            excludes == null ? null : PathPatterns.compile( excludes, File.separator, isCaseSensitive );
+    }
+
+    /**
+     * Returns the compiled include patterns, recompiling them if {@link #includes} has been replaced directly.
+     */
+    private PathPatterns includePatterns()
+    {
+        if ( includePatterns == null || !includePatterns.isCompiledFrom( includes, isCaseSensitive ) )
         {
-            if ( matchPath( excludes[i], name, isCaseSensitive ) )
-            {
-                return true;
-            }
+            compilePatterns();
         }
-        return false;
+        return includePatterns;
+    }
+
+    /**
+     * Returns the compiled exclude patterns, recompiling them if {@link #excludes} has been replaced directly.
+     */
+    private PathPatterns excludePatterns()
+    {
+        if ( excludePatterns == null || !excludePatterns.isCompiledFrom( excludes, isCaseSensitive ) )
+        {
+            compilePatterns();
+        }
+        return excludePatterns;
     }
 
     /**
@@ -1011,6 +1572,7 @@ public class PseudoDirectoryScanner
             newExcludes[i + excludesLength] = DEFAULTEXCLUDES[i].replace( '/', File.separatorChar );
         }
         excludes = newExcludes;
+        compilePatterns();
     }
 
     protected void setupDefaultFilters()
@@ -1025,5 +1587,6 @@ public class PseudoDirectoryScanner
         {
             excludes = new String[0];
         }
+        compilePatterns();
     }
 }
@@ -16,8 +16,10 @@
 
 package org.jszip.pseudo.io;
 
+import org.codehaus.plexus.util.IOUtil;
 import org.sonatype.aether.util.StringUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FilenameFilter;
@@ -28,8 +30,40 @@ import java.io.OutputStream;
 public abstract class PseudoFile {
     private final PseudoFile parent;
 
+    /**
+     * The filesystem this file belongs to, inherited from the parent and set on the root by the filesystem itself.
+     */
+    PseudoFileSystem fileSystem;
+
+    /**
+     * The absolute path, lazily computed. Names never change so neither does the path.
+     */
+    private volatile String absolutePath;
+
+    private int hashCode;
+
     public PseudoFile(PseudoFile parent) {
         this.parent = parent;
+        this.fileSystem = parent == null ? null : parent.fileSystem;
+    }
+
+    /**
+     * Returns the filesystem that this file belongs to.
+     *
+     * @return the filesystem or {@code null} if this file is not attached to a filesystem's tree.
+     */
+    public final PseudoFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    /**
+     * Returns the filesystem that this file belongs to, falling back to the one installed in the current script
+     * context for files that are not attached to a filesystem's tree.
+     *
+     * @return the filesystem.
+     */
+    final PseudoFileSystem fileSystem() {
+        return fileSystem != null ? fileSystem : PseudoFileSystem.current();
     }
 
     public final int compareTo(PseudoFile pathname) {
@@ -37,25 +71,30 @@ public abstract class PseudoFile {
     }
 
     public final String getAbsolutePath() {
-        return getAbsolutePath(PseudoFileSystem.current());
+        return getAbsolutePath(null);
     }
 
     public final String getAbsolutePath(PseudoFileSystem fs) {
-        StringBuilder result = new StringBuilder();
-        final String pathSeparator = fs.getPathSeparator();
-        if (parent != null) {
-            String parentPath = parent.getAbsolutePath(fs);
-            if (!StringUtils.isEmpty(parentPath)) {
-                result.append(parentPath);
-                if (!parentPath.equals(pathSeparator)) {
-                    result.append(pathSeparator);
+        String absolutePath = this.absolutePath;
+        if (absolutePath == null) {
+            StringBuilder result = new StringBuilder();
+            final String pathSeparator = PseudoFileSystem.PATH_SEPARATOR;
+            if (parent != null) {
+                String parentPath = parent.getAbsolutePath(fs);
+                if (!StringUtils.isEmpty(parentPath)) {
+                    result.append(parentPath);
+                    if (!parentPath.equals(pathSeparator)) {
+                        result.append(pathSeparator);
+                    }
                 }
+            } else {
+                result.append(pathSeparator);
             }
-        } else {
-            result.append(pathSeparator);
+            result.append(getName());
+            absolutePath = result.toString();
+            this.absolutePath = absolutePath;
         }
-        result.append(getName());
-        return result.toString();
+        return absolutePath;
     }
 
     public final PseudoFile getAbsoluteFile() {
@@ -87,7 +126,7 @@ public abstract class PseudoFile {
     }
 
     public final String[] list() {
-        PseudoFile[] children = PseudoFileSystem.current().listChildren(this, PseudoFileFilter.FILTER_NONE);
+        PseudoFile[] children = fileSystem().listChildren(this, PseudoFileFilter.FILTER_NONE);
         String[] result = new String[children.length];
         for (int i = 0; i < children.length; i++) {
             result[i] = children[i].getName();
@@ -96,7 +135,7 @@ public abstract class PseudoFile {
     }
 
     public final String[] list(final FilenameFilter filter) {
-        PseudoFile[] children = PseudoFileSystem.current().listChildren(this, new PseudoFileFilter() {
+        PseudoFile[] children = fileSystem().listChildren(this, new PseudoFileFilter() {
             final File fakeDir = new File(getAbsolutePath());
 
             public boolean accept(String name) {
@@ -111,11 +150,11 @@ public abstract class PseudoFile {
     }
 
     public final PseudoFile[] listFiles() {
-        return PseudoFileSystem.current().listChildren(this, PseudoFileFilter.FILTER_NONE);
+        return fileSystem().listChildren(this, PseudoFileFilter.FILTER_NONE);
     }
 
     public final PseudoFile[] listFiles(final FilenameFilter filter) {
-        return PseudoFileSystem.current().listChildren(this, new PseudoFileFilter() {
+        return fileSystem().listChildren(this, new PseudoFileFilter() {
             final File fakeDir = new File(getAbsolutePath());
 
             public boolean accept(String name) {
@@ -126,7 +165,7 @@ public abstract class PseudoFile {
 
     public final PseudoFile[] listFiles(final FileFilter filter) {
         final String fakeDir = getAbsolutePath();
-        return PseudoFileSystem.current().listChildren(this, new PseudoFileFilter() {
+        return fileSystem().listChildren(this, new PseudoFileFilter() {
             public boolean accept(String name) {
                 return filter.accept(new File(fakeDir + "/" + name));
             }
@@ -144,27 +183,17 @@ public abstract class PseudoFile {
 
         PseudoFile that = (PseudoFile) o;
 
-        final PseudoFile thisParentFile = getParentFile();
-        final PseudoFile thatParentFile = that.getParentFile();
-        if (thisParentFile != null ? !thisParentFile.equals(thatParentFile) : thatParentFile != null) {
-            return false;
-        }
-
-        final String thisName = getName();
-        final String thatName = that.getName();
-        if (thisName != null ? !thisName.equals(thatName) : thatName != null) {
-            return false;
-        }
-
-        return true;
+        return hashCode() == that.hashCode() && getAbsolutePath().equals(that.getAbsolutePath());
     }
 
     @Override
     public final int hashCode() {
-        int result = parent != null ? parent.hashCode() : 0;
-        final String name = getName();
-        result = 31 * result + (name != null ? name.hashCode() : 0);
-        return result;
+        int hashCode = this.hashCode;
+        if (hashCode == 0) {
+            hashCode = getAbsolutePath().hashCode();
+            this.hashCode = hashCode;
+        }
+        return hashCode;
     }
 
     @Override
@@ -206,6 +235,25 @@ public abstract class PseudoFile {
 
     abstract InputStream $newInputStream() throws IOException;
 
+    /**
+     * Opens the file for reading with a stream that supports {@link InputStream#mark(int)} and
+     * {@link InputStream#reset()}. Streams that do not support marking are copied into memory.
+     *
+     * @return a stream that supports mark and reset.
+     * @throws IOException if the file could not be read.
+     */
+    InputStream $newMarkableInputStream() throws IOException {
+        final InputStream inputStream = $newInputStream();
+        if (inputStream.markSupported()) {
+            return inputStream;
+        }
+        try {
+            return new ByteArrayInputStream(IOUtil.toByteArray(inputStream));
+        } finally {
+            IOUtil.close(inputStream);
+        }
+    }
+
     abstract OutputStream $newOutputStream() throws IOException;
 
     abstract OutputStream $newOutputStream(boolean append) throws IOException;
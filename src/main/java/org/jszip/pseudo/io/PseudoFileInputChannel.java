@@ -16,27 +16,87 @@
 
 package org.jszip.pseudo.io;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
-public abstract class PseudoFileInputChannel implements Closeable {
+/**
+ * A channel that reads a {@link PseudoFile}, see {@link PseudoFileInputStream#getChannel()}.
+ */
+public abstract class PseudoFileInputChannel implements ReadableByteChannel {
+
+    /**
+     * The size of the buffer used when bytes have to be copied through the heap.
+     */
+    static final int BUFFER_SIZE = 65536;
 
     public abstract long size() throws IOException;
 
     public abstract int read(ByteBuffer dst) throws IOException;
 
-    public long transferTo(long position, long count, PseudoFileOutputChannel target) throws IOException {
-        if (position != 0 || count != size()) {
-            throw new UnsupportedOperationException();
-        }
-        ByteBuffer buf = ByteBuffer.allocate(8192);
-        while (read(buf) != -1) {
-            buf.flip();
-            target.write(buf);
+    /**
+     * Returns the number of bytes of the file that have been read or skipped.
+     *
+     * @return the position of the channel.
+     * @throws IOException if the position could not be determined.
+     */
+    public abstract long position() throws IOException;
+
+    /**
+     * Moves to a position, going back to the start of the file first if the channel has already been read beyond the
+     * position.
+     *
+     * @param position the position.
+     * @throws IOException if the file could not be read.
+     */
+    protected abstract void skipTo(long position) throws IOException;
+
+    /**
+     * Transfers bytes from the file to a channel. Unlike {@link java.nio.channels.FileChannel#transferTo}, the
+     * transferred bytes are consumed, so the position of this channel ends up after the last byte transferred. Bytes
+     * before the position of this channel can still be transferred, but may have to be read again.
+     *
+     * @param position the position of the first byte to transfer.
+     * @param count    the maximum number of bytes to transfer.
+     * @param target   the channel to transfer to.
+     * @return the number of bytes transferred, which is less than {@code count} only at the end of the file.
+     * @throws IOException if the file could not be read or the target could not be written.
+     */
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        skipTo(position);
+        final ByteBuffer buf = ByteBuffer.allocate((int) Math.max(1, Math.min(count, BUFFER_SIZE)));
+        long transferred = 0;
+        while (transferred < count) {
             buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), count - transferred));
+            final int read = read(buf);
+            if (read == -1) {
+                break;
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                target.write(buf);
+            }
+            transferred += read;
         }
-        return count;
+        return transferred;
+    }
+
+    public long transferTo(long position, long count, PseudoFileOutputChannel target) throws IOException {
+        return transferTo(position, count, (WritableByteChannel) target);
     }
 
+    /**
+     * Finds the stream at the bottom of a stack of {@link StreamWrapper}s.
+     *
+     * @param stream the stream.
+     * @return the innermost stream.
+     */
+    static Object unwrap(Object stream) {
+        while (stream instanceof StreamWrapper) {
+            stream = ((StreamWrapper) stream).getWrapped();
+        }
+        return stream;
+    }
 }
@@ -16,21 +16,50 @@
 
 package org.jszip.pseudo.io;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 public class PseudoFileInputStream extends InputStream {
-    private final InputStream delegate;
+    private InputStream delegate;
     private final PseudoFile file;
+    private final boolean markable;
+    /**
+     * The number of bytes read or skipped so far.
+     */
+    private long position;
+    private long markPosition;
 
     public PseudoFileInputStream(PseudoFile file) throws IOException {
         this.file = file;
+        this.markable = false;
         this.delegate = file.$newInputStream();
     }
 
+    /**
+     * Opens a file for reading.
+     *
+     * @param file           the file.
+     * @param markSupported  {@code true} if the caller needs {@link #mark(int)} and {@link #reset()}, which may
+     *                       require the file contents to be buffered in memory.
+     * @throws IOException if the file could not be opened.
+     */
+    public PseudoFileInputStream(PseudoFile file, boolean markSupported) throws IOException {
+        this.file = file;
+        this.markable = markSupported;
+        this.delegate = markSupported ? file.$newMarkableInputStream() : file.$newInputStream();
+    }
+
     public PseudoFileInputStream(String filename) throws IOException {
-        this.file = PseudoFileSystem.current().getPseudoFile(filename);
+        this(PseudoFileSystem.current(), filename);
+    }
+
+    public PseudoFileInputStream(PseudoFileSystem fs, String filename) throws IOException {
+        this.file = fs.getPseudoFile(filename);
+        this.markable = false;
         this.delegate = file.$newInputStream();
     }
 
@@ -47,6 +76,7 @@ public class PseudoFileInputStream extends InputStream {
     @Override
     public void mark(int readlimit) {
         delegate.mark(readlimit);
+        markPosition = position;
     }
 
     @Override
@@ -56,51 +86,162 @@ public class PseudoFileInputStream extends InputStream {
 
     @Override
     public int read() throws IOException {
-        return delegate.read();
+        final int b = delegate.read();
+        if (b != -1) {
+            position++;
+        }
+        return b;
     }
 
     @Override
     public int read(byte[] b) throws IOException {
-        return delegate.read(b);
+        return read(b, 0, b.length);
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        return delegate.read(b, off, len);
+        final int read = delegate.read(b, off, len);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
     }
 
     @Override
     public void reset() throws IOException {
         delegate.reset();
+        position = markPosition;
     }
 
     @Override
     public long skip(long n) throws IOException {
-        return delegate.skip(n);
+        final long skipped = delegate.skip(n);
+        if (skipped > 0) {
+            position += skipped;
+        }
+        return skipped;
+    }
+
+    /**
+     * Opens the file again, so that bytes that have already been read can be read again.
+     *
+     * @throws IOException if the file could not be opened.
+     */
+    private void reopen() throws IOException {
+        final InputStream reopened = markable ? file.$newMarkableInputStream() : file.$newInputStream();
+        delegate.close();
+        delegate = reopened;
+        position = 0;
+        markPosition = 0;
     }
 
+    /**
+     * Returns a channel that reads from this stream, and so shares its position. When the file is on disk or held
+     * in a buffer, {@link PseudoFileInputChannel#transferTo(long, long, WritableByteChannel)} moves the bytes
+     * without copying them through the heap.
+     *
+     * @return the channel.
+     */
     public PseudoFileInputChannel getChannel() {
-        return new PseudoFileInputChannel() {
-            @Override
-            public long size() throws IOException {
-                return file.length();
-            }
+        return new Channel();
+    }
+
+    private class Channel extends PseudoFileInputChannel {
+        private boolean open = true;
+
+        @Override
+        public long size() throws IOException {
+            return file.length();
+        }
 
-            @Override
-            public int read(ByteBuffer dst) throws IOException {
-                int pos = dst.arrayOffset();
-                int len = dst.remaining();
-                int read = delegate.read(dst.array(), pos, len);
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            if (dst.hasArray()) {
+                final int read = PseudoFileInputStream.this.read(dst.array(), dst.arrayOffset() + dst.position(),
+                        dst.remaining());
                 if (read > 0) {
                     dst.position(dst.position() + read);
                 }
                 return read;
             }
+            final byte[] bytes = new byte[Math.min(dst.remaining(), BUFFER_SIZE)];
+            final int read = PseudoFileInputStream.this.read(bytes, 0, bytes.length);
+            if (read > 0) {
+                dst.put(bytes, 0, read);
+            }
+            return read;
+        }
 
-            public void close() throws IOException {
-                PseudoFileInputStream.this.close();
+        @Override
+        protected void skipTo(long target) throws IOException {
+            if (target < position) {
+                reopen();
             }
-        };
-    }
+            while (position < target) {
+                if (skip(target - position) <= 0 && PseudoFileInputStream.this.read() == -1) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public long transferTo(long start, long count, WritableByteChannel target) throws IOException {
+            final Object source = unwrap(delegate);
+            if (source instanceof ByteBufferInputStream) {
+                // write the bytes straight from the buffer, which for stored archive entries is the mapped archive
+                skipTo(start);
+                // going back opens a new buffer
+                final ByteBuffer buffer = ((ByteBufferInputStream) unwrap(delegate)).getBuffer();
+                final ByteBuffer slice = buffer.duplicate();
+                slice.limit(slice.position() + (int) Math.min(count, slice.remaining()));
+                final int from = slice.position();
+                try {
+                    while (slice.hasRemaining()) {
+                        PseudoFileOutputChannel.unwrap(target).write(slice);
+                    }
+                } finally {
+                    buffer.position(slice.position());
+                    position += slice.position() - from;
+                }
+                return slice.position() - from;
+            }
+            if (source instanceof FileInputStream) {
+                // leave the copy to the operating system, which reads from any position
+                final FileChannel channel = ((FileInputStream) source).getChannel();
+                final WritableByteChannel out = PseudoFileOutputChannel.unwrap(target);
+                long transferred = 0;
+                try {
+                    while (transferred < count) {
+                        final long n = channel.transferTo(start + transferred, count - transferred, out);
+                        if (n <= 0) {
+                            break;
+                        }
+                        transferred += n;
+                    }
+                } finally {
+                    channel.position(start + transferred);
+                    position = start + transferred;
+                }
+                return transferred;
+            }
+            return super.transferTo(start, count, target);
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
 
-}
\ No newline at end of file
+        public void close() throws IOException {
+            open = false;
+            PseudoFileInputStream.this.close();
+        }
+    }
+}
@@ -16,24 +16,54 @@
 
 package org.jszip.pseudo.io;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
-public abstract class PseudoFileOutputChannel implements Closeable {
+/**
+ * A channel that writes a {@link PseudoFile}, see {@link PseudoFileOutputStream#getChannel()}.
+ */
+public abstract class PseudoFileOutputChannel implements WritableByteChannel {
     public abstract int write(ByteBuffer src) throws IOException;
 
+    /**
+     * Transfers bytes from a file to this channel, see
+     * {@link PseudoFileInputChannel#transferTo(long, long, WritableByteChannel)}.
+     *
+     * @param src      the channel to transfer from.
+     * @param position the position of the first byte to transfer.
+     * @param count    the maximum number of bytes to transfer.
+     * @return the number of bytes transferred.
+     * @throws IOException if the source could not be read or the file could not be written.
+     */
     public long transferFrom(PseudoFileInputChannel src, long position, long count) throws IOException {
-        if (position != 0 || count != src.size()) {
-            throw new UnsupportedOperationException();
-        }
-        ByteBuffer buf = ByteBuffer.allocate(8192);
-        while (src.read(buf) != -1) {
-            buf.flip();
-            write(buf);
-            buf.clear();
-        }
-        return count;
+        return src.transferTo(position, count, this);
     }
 
+    /**
+     * Returns the channel of the file on disk that this channel writes straight to, if any, so that transfers from
+     * other files can be left to the operating system.
+     *
+     * @return the file channel or {@code null} if the bytes go elsewhere first.
+     */
+    FileChannel getFileChannel() {
+        return null;
+    }
+
+    /**
+     * Returns the channel that bytes for a target are best written to.
+     *
+     * @param target the target.
+     * @return the file channel behind the target or the target itself.
+     */
+    static WritableByteChannel unwrap(WritableByteChannel target) {
+        if (target instanceof PseudoFileOutputChannel) {
+            final FileChannel channel = ((PseudoFileOutputChannel) target).getFileChannel();
+            if (channel != null) {
+                return channel;
+            }
+        }
+        return target;
+    }
 }
@@ -16,9 +16,11 @@
 
 package org.jszip.pseudo.io;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class PseudoFileOutputStream extends OutputStream {
     private final OutputStream delegate;
@@ -28,7 +30,11 @@ public class PseudoFileOutputStream extends OutputStream {
     }
 
     public PseudoFileOutputStream(String filename) throws IOException {
-        this.delegate = PseudoFileSystem.current().getPseudoFile(filename).$newOutputStream();
+        this(PseudoFileSystem.current(), filename);
+    }
+
+    public PseudoFileOutputStream(PseudoFileSystem fs, String filename) throws IOException {
+        this.delegate = fs.getPseudoFile(filename).$newOutputStream();
     }
 
     public PseudoFileOutputStream(PseudoFile file, boolean append) throws IOException {
@@ -36,7 +42,11 @@ public class PseudoFileOutputStream extends OutputStream {
     }
 
     public PseudoFileOutputStream(String filename, boolean append) throws IOException {
-        this.delegate = PseudoFileSystem.current().getPseudoFile(filename).$newOutputStream(append);
+        this(PseudoFileSystem.current(), filename, append);
+    }
+
+    public PseudoFileOutputStream(PseudoFileSystem fs, String filename, boolean append) throws IOException {
+        this.delegate = fs.getPseudoFile(filename).$newOutputStream(append);
     }
 
     @Override
@@ -64,19 +74,53 @@ public class PseudoFileOutputStream extends OutputStream {
         delegate.write(b);
     }
 
+    /**
+     * Returns a channel that writes to this stream. When the file is written straight to disk, bytes transferred to
+     * the channel from another file on disk do not pass through the heap.
+     *
+     * @return the channel.
+     */
     public PseudoFileOutputChannel getChannel() {
-        return new PseudoFileOutputChannel() {
-            @Override
-            public int write(ByteBuffer src) throws IOException {
-                final int remaining = src.remaining();
-                delegate.write(src.array(), src.arrayOffset(), remaining);
+        return new Channel();
+    }
+
+    private class Channel extends PseudoFileOutputChannel {
+        private boolean open = true;
+
+        @Override
+        FileChannel getFileChannel() {
+            final Object target = PseudoFileInputChannel.unwrap(delegate);
+            return target instanceof FileOutputStream ? ((FileOutputStream) target).getChannel() : null;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            final FileChannel channel = getFileChannel();
+            if (channel != null) {
+                return channel.write(src);
+            }
+            final int remaining = src.remaining();
+            if (src.hasArray()) {
+                delegate.write(src.array(), src.arrayOffset() + src.position(), remaining);
                 src.position(src.position() + remaining);
                 return remaining;
             }
-
-            public void close() throws IOException {
-                PseudoFileOutputStream.this.close();
+            final byte[] bytes = new byte[Math.min(remaining, PseudoFileInputChannel.BUFFER_SIZE)];
+            while (src.hasRemaining()) {
+                final int count = Math.min(bytes.length, src.remaining());
+                src.get(bytes, 0, count);
+                delegate.write(bytes, 0, count);
             }
-        };
+            return remaining;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        public void close() throws IOException {
+            open = false;
+            PseudoFileOutputStream.this.close();
+        }
     }
 }
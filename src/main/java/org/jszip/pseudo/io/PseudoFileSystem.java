@@ -17,21 +17,35 @@
 package org.jszip.pseudo.io;
 
 import org.apache.commons.lang3.StringUtils;
-import org.codehaus.plexus.archiver.zip.ZipEntry;
-import org.codehaus.plexus.archiver.zip.ZipFile;
+import org.codehaus.plexus.util.IOUtil;
 import org.mozilla.javascript.Context;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Enumeration;
-import java.util.LinkedHashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class PseudoFileSystem {
     /**
@@ -39,34 +53,166 @@ public class PseudoFileSystem {
      */
     private static final Object KEY = new Object();
 
+    static final String PATH_SEPARATOR = "/";
+
+    /**
+     * The default time for which a path that was not found in a directory backed layer is assumed to still not exist.
+     */
+    public static final long DEFAULT_NEGATIVE_LOOKUP_TTL = 1000L;
+
     private final PseudoFile root = new VirtualDirectoryPseudoFile(null, "");
 
     private final Layer[] layers;
 
+    /**
+     * The indices of the layers that are not {@link Layer#isImmutable()}, in order.
+     */
+    private final int[] dynamicLayers;
+
+    /**
+     * Routes lookups to the immutable layers, lazily built.
+     */
+    private volatile Index index;
+
+    /**
+     * Counts changes made through this filesystem that may change how paths resolve.
+     */
+    private final AtomicLong modifications = new AtomicLong();
+
+    /**
+     * The canonical nodes resolved so far, valid for as long as the change stamp they were resolved at.
+     */
+    private volatile NodeCache nodes = new NodeCache(0);
+
+    private volatile long negativeLookupTtl = DEFAULT_NEGATIVE_LOOKUP_TTL;
+
+    private volatile ContentCache contentCache = ContentCache.getDefault();
+
     public PseudoFileSystem(Layer... layers) {
         this.layers = layers;
+        int count = 0;
+        int[] dynamicLayers = new int[layers.length];
+        for (int i = 0; i < layers.length; i++) {
+            if (!layers[i].isImmutable()) {
+                dynamicLayers[count++] = i;
+            }
+        }
+        this.dynamicLayers = Arrays.copyOf(dynamicLayers, count);
+        this.root.fileSystem = this;
     }
 
     public PseudoFileSystem(List<Layer> layers) {
         this(layers.toArray(new Layer[layers.size()]));
     }
 
+    /**
+     * Returns the cache that file content is read through.
+     *
+     * @return the cache or {@code null} if content is always read from the layers.
+     */
+    public ContentCache getContentCache() {
+        return contentCache;
+    }
+
+    public void setContentCache(ContentCache contentCache) {
+        this.contentCache = contentCache;
+    }
+
+    public long getNegativeLookupTtl() {
+        return negativeLookupTtl;
+    }
+
+    /**
+     * Sets how long a path that does not exist is remembered as missing when a dynamic layer could provide it.
+     * Missing paths that only immutable layers could provide are remembered until the filesystem changes.
+     *
+     * @param negativeLookupTtl the time in milliseconds, {@code 0} to always re-check dynamic layers.
+     */
+    public void setNegativeLookupTtl(long negativeLookupTtl) {
+        this.negativeLookupTtl = negativeLookupTtl;
+    }
+
+    public List<Layer> getLayers() {
+        return Collections.unmodifiableList(Arrays.asList(layers));
+    }
+
     public String getPathSeparator() {
-        return "/";
+        return PATH_SEPARATOR;
+    }
+
+    /**
+     * Returns a value that changes whenever the contents of the filesystem may have changed in a way that alters how
+     * paths resolve.
+     *
+     * @return the change stamp.
+     */
+    public long getChangeStamp() {
+        long stamp = modifications.get();
+        for (int i : dynamicLayers) {
+            stamp += layers[i].getChangeStamp();
+        }
+        return stamp;
+    }
+
+    /**
+     * Returns what each layer that provides a directory can tell about how it lists the directory without listing
+     * it, see {@link Layer#getListingToken(String)}.
+     *
+     * @param path the absolute path of the directory.
+     * @return the values of the layers, in order, or {@code null} if some layer can only tell by listing the
+     *         directory.
+     */
+    public List<Object> getListingTokens(String path) {
+        final List<Object> tokens = new ArrayList<Object>(layers.length);
+        for (Layer layer : layers) {
+            if (layer.covers(path)) {
+                final Object token = layer.getListingToken(path);
+                if (token == null) {
+                    return null;
+                }
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Discards everything cached about how paths resolve. Changes made through this filesystem do this automatically,
+     * this need only be called when the directories behind the layers have been changed by other means.
+     */
+    public void invalidate() {
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * Discards everything cached about how a path and the paths beneath it resolve. Called when a file or directory
+     * is created, deleted or renamed through this filesystem.
+     *
+     * @param path the absolute path.
+     */
+    public void invalidate(String path) {
+        nodes.invalidate(StringUtils.removeEnd(path, PATH_SEPARATOR));
     }
 
     public PseudoFile[] listChildren(PseudoFile dir, PseudoFileFilter filter) {
-        TreeMap<String, Layer> names = new TreeMap<String, Layer>();
+        // name -> index of the first layer providing it
+        TreeMap<String, Integer> names = new TreeMap<String, Integer>();
         final String path = dir.getAbsolutePath(this);
-        for (int i = layers.length - 1; i >= 0; i--) {
-            for (String name : layers[i].listChildren(path)) {
-                names.put(name, layers[i]);
+        index().listChildren(path, names);
+        for (int i : dynamicLayers) {
+            if (layers[i].covers(path)) {
+                for (String name : layers[i].listChildren(path)) {
+                    final Integer owner = names.get(name);
+                    if (owner == null || owner > i) {
+                        names.put(name, i);
+                    }
+                }
             }
         }
         List<PseudoFile> result = new ArrayList<PseudoFile>(names.size());
-        for (Map.Entry<String, Layer> entry : names.entrySet()) {
+        for (Map.Entry<String, Integer> entry : names.entrySet()) {
             if (filter.accept(entry.getKey())) {
-                result.add(entry.getValue().makeChild(this, dir, entry.getKey()));
+                result.add(layers[entry.getValue()].makeChild(this, dir, entry.getKey()));
             }
         }
         return result.toArray(new PseudoFile[result.size()]);
@@ -81,11 +227,31 @@ public class PseudoFileSystem {
         if (filename.isEmpty()) {
             return root();
         }
-        int index = filename.lastIndexOf(getPathSeparator());
-        if (index != -1) {
-            return getPseudoFile(getPseudoFile(filename.substring(0, index)), filename.substring(index + 1));
+        final long stamp = getChangeStamp();
+        NodeCache nodes = this.nodes;
+        if (nodes.stamp != stamp) {
+            nodes = new NodeCache(stamp);
+            this.nodes = nodes;
         }
-        return getPseudoFile(root(), filename);
+        PseudoFile result = nodes.get(filename);
+        if (result == null) {
+            int index = filename.lastIndexOf(getPathSeparator());
+            if (index != -1) {
+                result = getPseudoFile(getPseudoFile(filename.substring(0, index)), filename.substring(index + 1));
+            } else {
+                result = getPseudoFile(root(), filename);
+            }
+            final String path = result.getAbsolutePath(this);
+            // only cache normalized paths so that invalidating a path finds every entry for it
+            if (path.equals(filename)) {
+                if (result instanceof NotExistingPseudoFile || !result.exists()) {
+                    nodes.putMissing(path, result, getMissingExpiry(path));
+                } else {
+                    nodes.put(path, result);
+                }
+            }
+        }
+        return result;
     }
 
     public PseudoFile getPseudoFile(PseudoFile parent, String name) {
@@ -95,29 +261,86 @@ public class PseudoFileSystem {
         if (name.equals("..")) {
             return parent.getParentFile();
         }
-        String parentPath = parent.getAbsolutePath(this);
-        for (Layer layer : layers) {
-            if (layer.listChildren(parentPath).contains(name)) {
-                return layer.makeChild(this, parent, name);
+        final String path = childPath(parent.getAbsolutePath(this), name);
+        final Integer owner = index().getOwner(path);
+        // only dynamic layers in front of the immutable layer that provides the path can shadow it
+        final int limit = owner == null ? layers.length : owner;
+        for (int i : dynamicLayers) {
+            if (i >= limit) {
+                break;
+            }
+            if (layers[i].covers(path) && layers[i].exists(path)) {
+                return layers[i].makeChild(this, parent, name);
             }
         }
+        if (owner != null) {
+            return layers[owner].makeChild(this, parent, name);
+        }
         if (layers.length == 0) {
             return new VirtualDirectoryPseudoFile(parent, name);
         }
         return layers[0].makeChild(this, parent, name);
     }
 
-    public synchronized void installInContext() {
+    /**
+     * Works out how long a missing path can be assumed to remain missing without re-checking the layers.
+     *
+     * @param path the missing path.
+     * @return the time at which the path must be re-checked.
+     */
+    private long getMissingExpiry(String path) {
+        for (int i : dynamicLayers) {
+            if (layers[i].covers(path)) {
+                final long ttl = negativeLookupTtl;
+                return ttl <= 0 ? Long.MIN_VALUE : System.currentTimeMillis() + ttl;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static String childPath(String parentPath, String name) {
+        return parentPath.endsWith("/") ? parentPath + name : parentPath + "/" + name;
+    }
+
+    private Index index() {
+        Index index = this.index;
+        if (index == null) {
+            synchronized (this) {
+                index = this.index;
+                if (index == null) {
+                    index = new Index(layers);
+                    this.index = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Makes this filesystem the one that scripts running in the current Rhino context see. Java code does not need
+     * this, as every {@link PseudoFile} knows the filesystem it belongs to.
+     */
+    public void installInContext() {
         Context.getCurrentContext().putThreadLocal(KEY, this);
     }
 
-    public synchronized void removeFromContext() {
+    public void removeFromContext() {
         final Context context = Context.getCurrentContext();
         if (context != null) {
             context.putThreadLocal(KEY, null);
         }
     }
 
+    /**
+     * Releases any resources held by the layers of this filesystem, such as open archives. The layers remain usable
+     * and will re-acquire resources on demand.
+     */
+    public void close() {
+        for (Layer layer : layers) {
+            layer.close();
+        }
+    }
+
     public static PseudoFileSystem current() {
         final Context currentContext = Context.getCurrentContext();
         return currentContext != null ? (PseudoFileSystem) currentContext.getThreadLocal(KEY) : null;
@@ -125,28 +348,193 @@ public class PseudoFileSystem {
 
     public abstract static class Layer {
 
+        /**
+         * Normalizes a layer prefix to the form {@code /a/b/}, or {@code /} for the root.
+         *
+         * @param prefix the prefix.
+         * @return the normalized prefix.
+         */
+        protected static String normalizePrefix(String prefix) {
+            prefix = StringUtils.removeEnd(StringUtils.removeStart(StringUtils.defaultString(prefix), "/"), "/");
+            return prefix.isEmpty() ? "/" : "/" + prefix + "/";
+        }
+
+        /**
+         * Returns the path that this layer is mounted at. Only paths within, or leading to, the prefix are routed to
+         * this layer.
+         *
+         * @return the normalized prefix, ending with {@code /}.
+         */
+        public String getPrefix() {
+            return "/";
+        }
+
+        /**
+         * Returns what identifies this layer across instances: its kind, its prefix and where it takes its contents
+         * from. Unlike {@link #toString()} the value does not change as the contents of the layer do.
+         *
+         * @return the identity of the layer.
+         */
+        public String getIdentity() {
+            return getClass().getName() + ":" + getPrefix();
+        }
+
+        /**
+         * Returns {@code true} if the contents of this layer never change, in which case the layer is merged into the
+         * filesystem's index once and never asked to list or probe paths again.
+         *
+         * @return {@code true} if the contents of this layer never change.
+         */
+        public boolean isImmutable() {
+            return false;
+        }
+
+        /**
+         * Returns {@code true} if this layer provides the path, that is if the path is within or leads to the prefix.
+         *
+         * @param path the absolute path.
+         * @return {@code true} if the path may be provided by this layer.
+         */
+        public final boolean covers(String path) {
+            final String prefix = getPrefix();
+            path = path.endsWith("/") ? path : path + "/";
+            return path.startsWith(prefix) || prefix.startsWith(path);
+        }
+
+        /**
+         * Checks if this layer provides a file or directory.
+         *
+         * @param path the absolute path.
+         * @return {@code true} if this layer provides the path.
+         */
+        public boolean exists(String path) {
+            path = StringUtils.removeEnd(path, "/");
+            final int index = path.lastIndexOf('/');
+            return index != -1 && listChildren(index == 0 ? "/" : path.substring(0, index))
+                    .contains(path.substring(index + 1));
+        }
+
+        /**
+         * Returns a value that changes whenever files or directories are added to or removed from this layer.
+         *
+         * @return the change stamp, constant for layers that do not track changes.
+         */
+        public long getChangeStamp() {
+            return 0;
+        }
+
+        /**
+         * Returns a value that describes how this layer lists a directory, which is cheap to work out compared with
+         * listing the directory. Equal values, even from different instances of the layer, mean that the directory
+         * lists the same names and that each name is still a file or directory as before. Used to re-use the results
+         * of earlier scans.
+         *
+         * @param path the absolute path of the directory.
+         * @return the value or {@code null} if the only way to tell is to list the directory.
+         */
+        public Object getListingToken(String path) {
+            return null;
+        }
+
         public abstract List<String> listChildren(String relativePath);
 
         public PseudoFile makeChild(PseudoFile parent, String name) {
-            return makeChild(PseudoFileSystem.current(), parent, name);
+            return makeChild(parent.fileSystem(), parent, name);
         }
 
         public abstract PseudoFile makeChild(PseudoFileSystem fs, PseudoFile parent, String name);
 
+        /**
+         * Starts getting ready to answer lookups within the prefix without waiting, as lookups are about to follow.
+         * Called on every layer mounted at the same prefix before the first lookup waits for any of them, so that
+         * layers which take time to get ready do so concurrently.
+         */
+        public void prepare() {
+        }
+
+        /**
+         * Releases any resources held by this layer.
+         */
+        public void close() {
+        }
+
     }
 
     public static class FileLayer extends Layer {
         private final String prefix;
         private final File root;
+        /**
+         * The in-memory copy of the directory tree, or {@code null} if every lookup goes to disk.
+         */
+        private final DirectoryMirror mirror;
 
         public FileLayer(File root) {
             this("", root);
         }
 
         public FileLayer(String prefix, File root) {
-            this.prefix = StringUtils.isEmpty(prefix) ? "/" : "/" + StringUtils.removeEnd(
-                    StringUtils.removeStart(prefix, "/"), "/") + "/";
+            this(prefix, root, 0);
+        }
+
+        /**
+         * Constructs a layer that serves listings and file metadata from an in-memory copy of the directory tree,
+         * which is suited to long-lived filesystems that see many lookups of the same files.
+         *
+         * @param prefix          the path to mount the directory at.
+         * @param root            the directory.
+         * @param refreshInterval the time in milliseconds after which a directory is re-scanned to pick up changes
+         *                        made by other processes, {@code 0} to go to disk for every lookup.
+         */
+        public FileLayer(String prefix, File root, long refreshInterval) {
+            this.prefix = normalizePrefix(prefix);
             this.root = root;
+            this.mirror = refreshInterval > 0 ? new DirectoryMirror(root, refreshInterval) : null;
+        }
+
+        @Override
+        public String getPrefix() {
+            return prefix;
+        }
+
+        @Override
+        public String getIdentity() {
+            return super.getIdentity() + "=" + root.getAbsolutePath();
+        }
+
+        @Override
+        public long getChangeStamp() {
+            return mirror == null ? 0 : mirror.getChangeStamp();
+        }
+
+        @Override
+        public boolean exists(String path) {
+            path = StringUtils.removeEnd(path, "/") + "/";
+            if (path.startsWith(prefix) && !path.equals(prefix)) {
+                final String relative = path.substring(prefix.length());
+                return mirror != null
+                        ? mirror.stat(StringUtils.removeEnd(relative, "/")) != null
+                        : new File(root, relative).exists();
+            }
+            return prefix.startsWith(path);
+        }
+
+        /**
+         * {@inheritDoc} Adding or removing entries changes the modification time of a directory, so that is what
+         * tells: as it was when the in-memory copy was made, if there is one, otherwise as it is on disk.
+         */
+        @Override
+        public Object getListingToken(String path) {
+            path = StringUtils.removeEnd(path, "/") + "/";
+            if (path.startsWith(prefix)) {
+                final String relative = StringUtils.removeEnd(path.substring(prefix.length()), "/");
+                final File dir = new File(root, relative);
+                long modified = mirror == null ? -1 : mirror.getListedModified(relative);
+                if (modified == -1) {
+                    modified = DirectoryMirror.getTrustedModified(dir, System.currentTimeMillis());
+                }
+                return modified == 0 ? null : dir.getAbsolutePath() + "@" + modified;
+            }
+            return prefix;
         }
 
         @Override
@@ -154,7 +542,9 @@ public class PseudoFileSystem {
             relativePath = StringUtils.removeEnd(relativePath, "/") + "/";
             if (relativePath.startsWith(prefix)) {
                 final String pathFragment = relativePath.substring(prefix.length());
-                final String[] list = new File(root, pathFragment).list();
+                final String[] list = mirror != null
+                        ? mirror.list(StringUtils.removeEnd(pathFragment, "/"))
+                        : new File(root, pathFragment).list();
                 return list == null ? Collections.<String>emptyList() : Arrays.asList(list);
             }
             if (prefix.startsWith(relativePath)) {
@@ -170,7 +560,9 @@ public class PseudoFileSystem {
         public PseudoFile makeChild(PseudoFileSystem fs, PseudoFile parent, String name) {
             String relativePath = StringUtils.removeEnd(parent.getAbsolutePath(fs), "/") + "/" + name;
             if (relativePath.startsWith(prefix)) {
-                return new FilePseudoFile(parent, new File(root, relativePath.substring(prefix.length())));
+                final String path = relativePath.substring(prefix.length());
+                return new FilePseudoFile(parent, new File(root, path), fs == null ? null : fs.getContentCache(),
+                        mirror, path);
             }
             if (prefix.equals(relativePath + "/")) {
                 int lastIndex = prefix.lastIndexOf('/');
@@ -194,44 +586,499 @@ public class PseudoFileSystem {
         }
     }
 
+    /**
+     * A write-back layer over a directory. Files written through this layer are held in memory, so that later stages
+     * of the build can read them back without touching the disk, until {@link #flush()} writes them out. Once more
+     * than the spill threshold is held in memory, further writes go straight to disk. Anything not held in memory is
+     * read from the directory.
+     */
+    public static class MemoryLayer extends Layer {
+        /**
+         * The default number of bytes to hold in memory before writing straight to disk.
+         */
+        public static final long DEFAULT_SPILL_THRESHOLD = 64L * 1024 * 1024;
+
+        private final String prefix;
+        private final File root;
+        private final long spillThreshold;
+        /**
+         * The files held in memory, keyed by their path relative to {@link #root}.
+         */
+        private final ConcurrentHashMap<String, Content> files = new ConcurrentHashMap<String, Content>();
+        /**
+         * The directories created through this layer, keyed by their path relative to {@link #root}.
+         */
+        private final ConcurrentHashMap<String, Boolean> directories = new ConcurrentHashMap<String, Boolean>();
+        private final AtomicLong bytes = new AtomicLong();
+        private ExecutorService flusher;
+
+        public MemoryLayer(String prefix, File root) {
+            this(prefix, root, DEFAULT_SPILL_THRESHOLD);
+        }
+
+        public MemoryLayer(String prefix, File root, long spillThreshold) {
+            this.prefix = normalizePrefix(prefix);
+            this.root = root;
+            this.spillThreshold = spillThreshold;
+        }
+
+        @Override
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public File getDirectory() {
+            return root;
+        }
+
+        @Override
+        public String getIdentity() {
+            return super.getIdentity() + "=" + root.getAbsolutePath();
+        }
+
+        /**
+         * {@inheritDoc} Only directories leading to the prefix can tell, as holding files in memory does not change
+         * the modification time of any directory.
+         */
+        @Override
+        public Object getListingToken(String path) {
+            path = StringUtils.removeEnd(path, "/") + "/";
+            return path.startsWith(prefix) ? null : prefix;
+        }
+
+        /**
+         * Returns the number of bytes currently held in memory.
+         *
+         * @return the number of bytes currently held in memory.
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        @Override
+        public boolean exists(String path) {
+            path = StringUtils.removeEnd(path, "/") + "/";
+            if (path.startsWith(prefix)) {
+                final String relative = StringUtils.removeEnd(path.substring(prefix.length()), "/");
+                return relative.isEmpty() || isFile(relative) || isDirectory(relative)
+                        || new File(root, relative).exists();
+            }
+            return prefix.startsWith(path);
+        }
+
+        @Override
+        public List<String> listChildren(String relativePath) {
+            relativePath = StringUtils.removeEnd(relativePath, "/") + "/";
+            if (relativePath.startsWith(prefix)) {
+                final String pathFragment = relativePath.substring(prefix.length());
+                final TreeSet<String> names = new TreeSet<String>();
+                final String[] list = new File(root, pathFragment).list();
+                if (list != null) {
+                    names.addAll(Arrays.asList(list));
+                }
+                addChildren(names, files.keySet(), pathFragment);
+                addChildren(names, directories.keySet(), pathFragment);
+                return new ArrayList<String>(names);
+            }
+            if (prefix.startsWith(relativePath)) {
+                int index = prefix.indexOf('/', relativePath.length());
+                if (index != -1) {
+                    return Collections.singletonList(prefix.substring(relativePath.length(), index));
+                }
+            }
+            return Collections.emptyList();
+        }
+
+        private static void addChildren(Set<String> names, Set<String> paths, String pathFragment) {
+            for (String path : paths) {
+                if (path.length() > pathFragment.length() && path.startsWith(pathFragment)
+                        && path.indexOf('/', pathFragment.length()) == -1) {
+                    names.add(path.substring(pathFragment.length()));
+                }
+            }
+        }
+
+        @Override
+        public PseudoFile makeChild(PseudoFileSystem fs, PseudoFile parent, String name) {
+            String relativePath = StringUtils.removeEnd(parent.getAbsolutePath(fs), "/") + "/" + name + "/";
+            if (relativePath.startsWith(prefix)) {
+                return new MemoryPseudoFile(parent, this,
+                        StringUtils.removeEnd(relativePath.substring(prefix.length()), "/"), name);
+            }
+            if (prefix.startsWith(relativePath)) {
+                return new VirtualDirectoryPseudoFile(parent, name);
+            }
+            return new NotExistingPseudoFile(parent, name);
+        }
+
+        boolean isFile(String path) {
+            return files.containsKey(path);
+        }
+
+        boolean isDirectory(String path) {
+            return directories.containsKey(path);
+        }
+
+        byte[] getContent(String path) {
+            final Content content = files.get(path);
+            return content == null ? null : content.bytes;
+        }
+
+        long lastModified(String path) {
+            final Content content = files.get(path);
+            return content == null ? -1 : content.lastModified;
+        }
+
+        boolean setLastModified(String path, long time) {
+            final Content content = files.get(path);
+            return content != null && files.replace(path, content, new Content(content.bytes, time));
+        }
+
+        boolean mkdir(String path) {
+            return directories.putIfAbsent(path, Boolean.TRUE) == null;
+        }
+
+        void store(String path, byte[] content, long lastModified) throws IOException {
+            final Content current = files.get(path);
+            if (bytes.get() - (current == null ? 0 : current.bytes.length) + content.length > spillThreshold) {
+                write(new File(root, path), content, lastModified);
+                // the file on disk replaces what was held in memory
+                if (current != null && files.remove(path, current)) {
+                    bytes.addAndGet(-current.bytes.length);
+                }
+                return;
+            }
+            final Content previous = files.put(path, new Content(content, lastModified));
+            bytes.addAndGet(content.length - (previous == null ? 0 : previous.bytes.length));
+        }
+
+        boolean delete(String path) {
+            boolean deleted = false;
+            final Content content = files.remove(path);
+            if (content != null) {
+                bytes.addAndGet(-content.bytes.length);
+                deleted = true;
+            }
+            deleted |= directories.remove(path) != null;
+            final File file = new File(root, path);
+            return file.exists() ? file.delete() || deleted : deleted;
+        }
+
+        /**
+         * Writes the files and directories that have changed since the last flush to disk, in parallel. The content
+         * remains in memory for subsequent reads.
+         *
+         * @return the number of files written.
+         * @throws IOException if a file could not be written.
+         */
+        public int flush() throws IOException {
+            for (String path : directories.keySet()) {
+                final File dir = new File(root, path);
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Could not create directory " + dir);
+                }
+            }
+            final List<Map.Entry<String, Content>> dirty = new ArrayList<Map.Entry<String, Content>>();
+            for (Map.Entry<String, Content> entry : files.entrySet()) {
+                if (!entry.getValue().flushed) {
+                    dirty.add(entry);
+                }
+            }
+            if (dirty.isEmpty()) {
+                return 0;
+            }
+            final ExecutorService executor = getFlusher();
+            final List<Future<?>> results = new ArrayList<Future<?>>(dirty.size());
+            for (final Map.Entry<String, Content> entry : dirty) {
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        final Content content = entry.getValue();
+                        write(new File(root, entry.getKey()), content.bytes, content.lastModified);
+                        content.flushed = true;
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    IOException ioe = new IOException(cause.getMessage());
+                    ioe.initCause(cause);
+                    throw ioe;
+                } catch (InterruptedException e) {
+                    IOException ioe = new IOException("Interrupted while flushing " + root);
+                    ioe.initCause(e);
+                    throw ioe;
+                }
+            }
+            return dirty.size();
+        }
+
+        /**
+         * Returns the threads that write files out, starting them if needed. They are shared by every flush until the
+         * layer is closed.
+         */
+        private synchronized ExecutorService getFlusher() {
+            if (flusher == null) {
+                flusher = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "jszip-flush " + root.getName());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return flusher;
+        }
+
+        /**
+         * Stops the threads that write files out. Files held in memory are kept and a later flush starts new threads.
+         */
+        @Override
+        public synchronized void close() {
+            if (flusher != null) {
+                flusher.shutdown();
+                flusher = null;
+            }
+        }
+
+        private static void write(File file, byte[] content, long lastModified) throws IOException {
+            final File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create directory " + parent);
+            }
+            OutputStream os = null;
+            try {
+                os = new FileOutputStream(file);
+                os.write(content);
+            } finally {
+                IOUtil.close(os);
+            }
+            file.setLastModified(lastModified);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("MemoryLayer");
+            sb.append("{prefix='").append(prefix).append('\'');
+            sb.append(", root=").append(root);
+            sb.append(", bytes=").append(bytes);
+            sb.append('}');
+            return sb.toString();
+        }
+
+        /**
+         * The content of a file held in memory.
+         */
+        private static final class Content {
+            private final byte[] bytes;
+            private final long lastModified;
+            private volatile boolean flushed;
+
+            private Content(byte[] bytes, long lastModified) {
+                this.bytes = bytes;
+                this.lastModified = lastModified;
+            }
+        }
+    }
+
     public static class ZipLayer extends PseudoFileSystem.Layer {
         private final String prefix;
         private final File zipFile;
-        private final Map<String, ZipEntry> contents;
+        private final ZipFilePool pool;
+        /**
+         * The directory tree of the archive contents, which is mounted at {@link #prefix}, so that listings and
+         * lookups cost O(depth) rather than a scan of every entry in the archive. Set once {@link #pending} is done.
+         */
+        private volatile ZipIndex index;
+        /**
+         * Identifies the archive contents, see {@link #getListingToken(String)}. Set along with {@link #index}.
+         */
+        private volatile String listingToken;
+        /**
+         * Builds {@link #index}, or {@code null} if the index was given up front.
+         */
+        private final FutureTask<ZipIndex> pending;
+        /**
+         * Where {@link #prepare()} starts {@link #pending}, or {@code null} to leave it to the first lookup.
+         */
+        private final Executor executor;
+        private boolean closed;
 
         public ZipLayer(String prefix, File zipFile) throws IOException {
-            this.prefix = StringUtils.isEmpty(prefix) ? "/" : "/" + StringUtils.removeEnd(
-                    StringUtils.removeStart(prefix, "/"), "/") + "/";
+            this(prefix, zipFile, ZipFilePool.getDefault());
+        }
+
+        public ZipLayer(String prefix, File zipFile, ZipFilePool pool) throws IOException {
+            this(prefix, zipFile, pool, null);
+        }
+
+        /**
+         * Constructs a layer that takes the directory of the archive from a snapshot, if the snapshot holds a copy
+         * for the archive as it is now, and otherwise reads the archive and records a copy in the snapshot.
+         *
+         * @param prefix   the path to mount the archive at.
+         * @param zipFile  the archive.
+         * @param pool     the pool to read the archive through.
+         * @param snapshot the snapshot or {@code null} to always read the archive.
+         * @throws IOException if the archive could not be read.
+         */
+        public ZipLayer(String prefix, File zipFile, ZipFilePool pool, IndexSnapshot snapshot) throws IOException {
+            this(prefix, ZipIndex.build(zipFile, pool, snapshot), pool);
+        }
+
+        /**
+         * Constructs a layer that mounts an existing index, which may be shared with other layers.
+         *
+         * @param prefix the path to mount the archive at.
+         * @param index  the index of the archive.
+         * @param pool   the pool to read the archive through.
+         */
+        public ZipLayer(String prefix, ZipIndex index, ZipFilePool pool) {
+            this.pool = pool;
+            this.prefix = normalizePrefix(prefix);
+            this.zipFile = index.getZipFile();
+            this.index = index;
+            this.listingToken = this.prefix + "=" + index.getToken();
+            this.pending = null;
+            this.executor = null;
+            pool.addUser(zipFile);
+        }
+
+        /**
+         * Constructs a layer whose index is still being built, typically by an executor. Until a path within the
+         * prefix is looked up the layer does not wait for the index, and when one is looked up before the executor
+         * gets to the task, the task is run by the caller. The archive does not change once the layer is created, so
+         * the layer is {@link #isImmutable()} all the same: the filesystem routes lookups to it by prefix, and the
+         * first lookup within the prefix waits for the index.
+         *
+         * @param prefix  the path to mount the archive at.
+         * @param zipFile the archive.
+         * @param pending the task building the index of the archive, see {@link ZipIndexRegistry#submit}.
+         * @param pool    the pool to read the archive through.
+         */
+        public ZipLayer(String prefix, File zipFile, FutureTask<ZipIndex> pending, ZipFilePool pool) {
+            this(prefix, zipFile, pending, null, pool);
+        }
+
+        /**
+         * Constructs a layer whose index is only built once a path within the prefix is about to be looked up, when
+         * the task building it is started on an executor along with those of the other layers at the prefix.
+         *
+         * @param prefix   the path to mount the archive at.
+         * @param zipFile  the archive.
+         * @param pending  the task building the index of the archive, see {@link ZipIndexRegistry#submit}.
+         * @param executor the executor to build the index on.
+         * @param pool     the pool to read the archive through.
+         */
+        public ZipLayer(String prefix, File zipFile, FutureTask<ZipIndex> pending, Executor executor,
+                        ZipFilePool pool) {
+            this.pool = pool;
+            this.prefix = normalizePrefix(prefix);
             this.zipFile = zipFile;
-            ZipFile file = new ZipFile(zipFile);
-            Map<String, ZipEntry> contents = new TreeMap<String, ZipEntry>();
-            Enumeration<ZipEntry> entries = file.getEntries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                contents.put(this.prefix + StringUtils.removeStart(entry.getName(), "/"), entry);
+            this.pending = pending;
+            this.executor = executor;
+            pool.addUser(zipFile);
+        }
+
+        @Override
+        public void prepare() {
+            if (index == null && executor != null && !pending.isDone()) {
+                try {
+                    // a no-op if the task has been started already
+                    executor.execute(pending);
+                } catch (RejectedExecutionException e) {
+                    // the first lookup runs the task instead
+                }
             }
+        }
+
+        private ZipIndex index() {
+            ZipIndex index = this.index;
+            if (index == null) {
+                // a no-op if the task has been started already
+                pending.run();
+                try {
+                    index = ZipIndexRegistry.await(zipFile, pending);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not index " + zipFile + ": " + e.getMessage(), e);
+                }
+                this.listingToken = prefix + "=" + index.getToken();
+                this.index = index;
+            }
+            return index;
+        }
 
-            this.contents = contents;
+        @Override
+        public String getPrefix() {
+            return prefix;
+        }
+
+        @Override
+        public String getIdentity() {
+            return super.getIdentity() + "=" + zipFile.getAbsolutePath();
+        }
+
+        @Override
+        public boolean isImmutable() {
+            return true;
+        }
+
+        /**
+         * {@inheritDoc} The archive never changes while the layer is open, so every directory within the prefix has
+         * the same value: the location, modification time and size of the archive and a hash of its entry names.
+         * Directories leading to the prefix only depend on the prefix.
+         */
+        @Override
+        public Object getListingToken(String path) {
+            path = StringUtils.removeEnd(path, "/") + "/";
+            if (path.startsWith(prefix)) {
+                index();
+                return listingToken;
+            }
+            return prefix;
+        }
+
+        /**
+         * Works out where the part of a path that is relative to the prefix starts.
+         *
+         * @param path the absolute path.
+         * @return the offset or {@code -1} if the path is not within the prefix.
+         */
+        private int relativeStart(String path) {
+            if (path.startsWith(prefix)) {
+                return prefix.length();
+            }
+            if (path.length() == prefix.length() - 1 && prefix.startsWith(path)) {
+                return path.length();
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean exists(String path) {
+            final int start = relativeStart(path);
+            if (start != -1) {
+                return index().find(path, start) != -1;
+            }
+            return prefix.startsWith(StringUtils.removeEnd(path, "/") + "/");
         }
 
         @Override
         public List<String> listChildren(String relativePath) {
-            relativePath = StringUtils.removeEnd(relativePath, "/") + "/";
-            if (relativePath.startsWith(prefix) || prefix.equals(relativePath + "/")) {
-                final String pathFragment = StringUtils.removeEnd(relativePath, "/") + "/";
-                Set<String> result = new LinkedHashSet<String>();
-                for (String path : contents.keySet()) {
-                    if (path.startsWith(pathFragment)) {
-                        int index = path.indexOf('/', pathFragment.length());
-                        if (index == -1) {
-                            result.add(path.substring(pathFragment.length()));
-                        } else {
-                            result.add(path.substring(pathFragment.length(), index));
-                        }
-                    }
-                }
-                return new ArrayList<String>(result);
+            final int start = relativeStart(relativePath);
+            if (start != -1) {
+                final ZipIndex index = index();
+                final int slot = index.find(relativePath, start);
+                return slot == -1 ? Collections.<String>emptyList() : index.getChildren(slot);
             }
+            relativePath = StringUtils.removeEnd(relativePath, "/") + "/";
             if (prefix.startsWith(relativePath)) {
                 int index = prefix.indexOf('/', relativePath.length());
                 if (index != -1) {
@@ -244,24 +1091,33 @@ public class PseudoFileSystem {
         @Override
         public PseudoFile makeChild(PseudoFileSystem fs, PseudoFile parent, String name) {
             String relativePath = StringUtils.removeEnd(parent.getAbsolutePath(fs), "/") + "/" + name;
-            final ZipEntry entry = contents.get(relativePath);
-            if (entry != null) {
-                return new ZipPseudoFile(parent, zipFile, entry);
+            if (relativePath.startsWith(prefix)) {
+                final ZipIndex index = index();
+                final int slot = index.find(relativePath, prefix.length());
+                if (slot != -1) {
+                    return index.isFile(slot)
+                            ? new ZipPseudoFile(parent, pool, fs == null ? null : fs.getContentCache(), index, slot)
+                            : new VirtualDirectoryPseudoFile(parent, name);
+                }
             }
-            if (prefix.equals(relativePath + "/")) {
+            if (prefix.startsWith(relativePath + "/")) {
                 return new VirtualDirectoryPseudoFile(parent, name);
             }
-            if (!StringUtils.isEmpty(prefix) && prefix.startsWith(relativePath)) {
-                return new VirtualDirectoryPseudoFile(parent, name);
-            }
-            for (String childPath : contents.keySet()) {
-                if (!StringUtils.isEmpty(childPath) && childPath.startsWith(relativePath)) {
-                    return new VirtualDirectoryPseudoFile(parent, name);
-                }
-            }
             return new NotExistingPseudoFile(parent, name);
         }
 
+        /**
+         * {@inheritDoc} The archive is closed once no other open layer reads it, so that closing one filesystem does
+         * not make the others open the archive again.
+         */
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                pool.removeUser(zipFile);
+            }
+        }
+
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder();
@@ -273,4 +1129,230 @@ public class PseudoFileSystem {
         }
     }
 
+    /**
+     * Routes lookups to the immutable layers by prefix. The paths provided by the layers mounted at a prefix are merged
+     * into one table the first time a path within the prefix is looked up, so a lookup is a hash probe per prefix
+     * covering the path and the layers at prefixes that are never visited are not indexed.
+     */
+    private static final class Index {
+        private final Layer[] layers;
+        /**
+         * The distinct prefixes of the immutable layers.
+         */
+        private final String[] prefixes;
+        /**
+         * The indices of the immutable layers mounted at each of {@link #prefixes}, in order.
+         */
+        private final int[][] mounted;
+        /**
+         * The index of the first immutable layer mounted at or beneath each directory that leads to a prefix. Such
+         * directories are provided by the layer without consulting its contents.
+         */
+        private final Map<String, Integer> leading = new HashMap<String, Integer>();
+        /**
+         * The paths provided by the immutable layers mounted at each of {@link #prefixes}, each with the index of the
+         * first layer providing it, or {@code null} until a path within the prefix is first looked up.
+         */
+        private final AtomicReferenceArray<Map<String, Integer>> owners;
+
+        private Index(Layer[] layers) {
+            this.layers = layers;
+            final Map<String, List<Integer>> byPrefix = new LinkedHashMap<String, List<Integer>>();
+            for (int i = 0; i < layers.length; i++) {
+                if (!layers[i].isImmutable()) {
+                    continue;
+                }
+                final String prefix = layers[i].getPrefix();
+                List<Integer> group = byPrefix.get(prefix);
+                if (group == null) {
+                    group = new ArrayList<Integer>();
+                    byPrefix.put(prefix, group);
+                }
+                group.add(i);
+                for (int end = prefix.indexOf('/', 1); end != -1; end = prefix.indexOf('/', end + 1)) {
+                    final String dir = prefix.substring(0, end);
+                    if (!leading.containsKey(dir)) {
+                        leading.put(dir, i);
+                    }
+                }
+            }
+            prefixes = byPrefix.keySet().toArray(new String[byPrefix.size()]);
+            mounted = new int[prefixes.length][];
+            for (int p = 0; p < prefixes.length; p++) {
+                final List<Integer> group = byPrefix.get(prefixes[p]);
+                mounted[p] = new int[group.size()];
+                for (int j = 0; j < mounted[p].length; j++) {
+                    mounted[p][j] = group.get(j);
+                }
+            }
+            owners = new AtomicReferenceArray<Map<String, Integer>>(prefixes.length);
+        }
+
+        /**
+         * Finds the first immutable layer that provides a path.
+         *
+         * @param path the absolute path, not ending with {@code /}.
+         * @return the index of the layer or {@code null} if no immutable layer provides the path.
+         */
+        private Integer getOwner(String path) {
+            Integer owner = leading.get(path);
+            for (int p = 0; p < prefixes.length; p++) {
+                if (!path.startsWith(prefixes[p])) {
+                    continue;
+                }
+                final Integer i = getOwners(p).get(path);
+                if (i != null && (owner == null || i < owner)) {
+                    owner = i;
+                }
+            }
+            return owner;
+        }
+
+        /**
+         * Returns the merged table of the paths provided by the layers mounted at a prefix, building it if needed.
+         *
+         * @param p the index of the prefix.
+         * @return the paths, each with the index of the first layer providing it.
+         */
+        private Map<String, Integer> getOwners(int p) {
+            Map<String, Integer> table = owners.get(p);
+            if (table == null) {
+                for (int i : mounted[p]) {
+                    layers[i].prepare();
+                }
+                table = new HashMap<String, Integer>();
+                // the later layers go in first so that the earlier layers replace them
+                for (int j = mounted[p].length - 1; j >= 0; j--) {
+                    addPaths(mounted[p][j], prefixes[p], table);
+                }
+                // a table built concurrently holds the same paths, so whichever is published first is kept
+                owners.compareAndSet(p, null, table);
+                table = owners.get(p);
+            }
+            return table;
+        }
+
+        private void addPaths(int i, String dir, Map<String, Integer> table) {
+            for (String name : layers[i].listChildren(dir)) {
+                final String path = dir + name;
+                table.put(path, i);
+                addPaths(i, path + PATH_SEPARATOR, table);
+            }
+        }
+
+        /**
+         * Adds the children of a directory that the immutable layers provide.
+         *
+         * @param path  the absolute path of the directory.
+         * @param names the names found so far, each with the index of the first layer providing it.
+         */
+        private void listChildren(String path, Map<String, Integer> names) {
+            for (int p = 0; p < prefixes.length; p++) {
+                final Layer first = layers[mounted[p][0]];
+                if (!first.covers(path)) {
+                    continue;
+                }
+                if ((StringUtils.removeEnd(path, PATH_SEPARATOR) + PATH_SEPARATOR).startsWith(prefixes[p])) {
+                    for (int i : mounted[p]) {
+                        layers[i].prepare();
+                    }
+                }
+                for (int i : mounted[p]) {
+                    for (String name : layers[i].listChildren(path)) {
+                        final Integer owner = names.get(name);
+                        if (owner == null || owner > i) {
+                            names.put(name, i);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The canonical nodes for paths resolved at a specific change stamp, and the paths found to be missing.
+     */
+    private static final class NodeCache {
+        private final long stamp;
+        private final ConcurrentHashMap<String, PseudoFile> nodes = new ConcurrentHashMap<String, PseudoFile>();
+        private final ConcurrentHashMap<String, Missing> missing = new ConcurrentHashMap<String, Missing>();
+        /**
+         * The paths cached directly beneath each directory.
+         */
+        private final ConcurrentHashMap<String, Set<String>> children = new ConcurrentHashMap<String, Set<String>>();
+
+        private NodeCache(long stamp) {
+            this.stamp = stamp;
+        }
+
+        private PseudoFile get(String path) {
+            final PseudoFile node = nodes.get(path);
+            if (node != null) {
+                return node;
+            }
+            final Missing miss = missing.get(path);
+            if (miss == null) {
+                return null;
+            }
+            if (miss.expires != Long.MAX_VALUE && miss.expires < System.currentTimeMillis()) {
+                missing.remove(path, miss);
+                return null;
+            }
+            return miss.node;
+        }
+
+        private void put(String path, PseudoFile node) {
+            nodes.put(path, node);
+            track(path);
+        }
+
+        /**
+         * Records a cached path under its parent directory, so that invalidating a directory only visits the paths
+         * cached beneath it.
+         */
+        private void track(String path) {
+            final String parent = path.substring(0, Math.max(path.lastIndexOf('/'), 0));
+            Set<String> siblings = children.get(parent);
+            if (siblings == null) {
+                final Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                siblings = children.putIfAbsent(parent, created);
+                if (siblings == null) {
+                    siblings = created;
+                }
+            }
+            siblings.add(path);
+        }
+
+        private void invalidate(String path) {
+            nodes.remove(path);
+            missing.remove(path);
+            final Set<String> below = children.remove(path);
+            if (below != null) {
+                for (String child : below) {
+                    invalidate(child);
+                }
+            }
+        }
+
+        private void putMissing(String path, PseudoFile node, long expires) {
+            if (expires != Long.MIN_VALUE) {
+                missing.put(path, new Missing(node, expires));
+                track(path);
+            }
+        }
+    }
+
+    /**
+     * A path that was not found.
+     */
+    private static final class Missing {
+        private final PseudoFile node;
+        private final long expires;
+
+        private Missing(PseudoFile node, long expires) {
+            this.node = node;
+            this.expires = expires;
+        }
+    }
+
 }
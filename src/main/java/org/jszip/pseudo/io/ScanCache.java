@@ -0,0 +1,408 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo.io;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the results of {@link PseudoDirectoryScanner} scans between builds, so that a later scan of the same
+ * directory with the same patterns only lists the directories that may have changed. Whether a directory may have
+ * changed is decided by {@link PseudoFileSystem#getListingTokens(String)}, so results are re-used across filesystem
+ * instances but never served stale. When the cache is full the least recently used results are evicted.
+ * <p/>
+ * A cache loaded from a file with {@link #load(File, int)} can be written back with {@link #save()}, so that the
+ * results are also re-used by later builds. The file holds, in big endian order:
+ * <pre>
+ *   int magic, int version, int scans
+ *   scans * (utf key, results)
+ * </pre>
+ * where the results are written by {@link Directory#write(DataOutputStream)}.
+ */
+public class ScanCache {
+
+    private static final int MAGIC = 0x4a535a53;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The longest key that is written to the file, as {@link DataOutputStream#writeUTF(String)} takes at most 65535
+     * bytes and a character takes at most three.
+     */
+    private static final int MAX_KEY_LENGTH = 0xffff / 3;
+
+    /**
+     * The default number of scans to keep.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+
+    /**
+     * The cache shared by all scanners that are not given a cache explicitly.
+     */
+    private static final ScanCache DEFAULT = new ScanCache(DEFAULT_MAX_ENTRIES);
+
+    private final LinkedHashMap<String, Directory> entries = new LinkedHashMap<String, Directory>(16, 0.75f, true);
+
+    private final AtomicLong directoriesReused = new AtomicLong();
+
+    private final AtomicLong directoriesScanned = new AtomicLong();
+
+    private int maxEntries;
+
+    /**
+     * The file the cache is kept in, or {@code null} if it is only kept in memory.
+     */
+    private final File file;
+
+    private boolean dirty;
+
+    public ScanCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    private ScanCache(int maxEntries, File file) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.file = file;
+    }
+
+    public static ScanCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Loads a cache kept in a file. A missing, unreadable or corrupt file gives an empty cache, which just means that
+     * the next scans list every directory.
+     *
+     * @param file       the file.
+     * @param maxEntries the number of scans to keep.
+     * @return the cache.
+     */
+    public static ScanCache load(File file, int maxEntries) {
+        final ScanCache cache = new ScanCache(maxEntries, file);
+        if (!file.isFile()) {
+            return cache;
+        }
+        final Map<String, Directory> entries = new LinkedHashMap<String, Directory>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return cache;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                entries.put(key, Directory.read(in));
+            }
+        } catch (EOFException e) {
+            // truncated, start again
+            return cache;
+        } catch (IOException e) {
+            // unreadable or corrupt, start again
+            return cache;
+        } finally {
+            IOUtil.close(in);
+        }
+        synchronized (cache) {
+            cache.entries.putAll(entries);
+            cache.evict();
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the file the cache is kept in.
+     *
+     * @return the file or {@code null} if the cache is only kept in memory.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the cache back to its file, if scans have been kept since it was loaded.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    public void save() throws IOException {
+        final List<Map.Entry<String, Directory>> entries;
+        synchronized (this) {
+            if (file == null || !dirty) {
+                return;
+            }
+            dirty = false;
+            entries = new ArrayList<Map.Entry<String, Directory>>(this.entries.entrySet());
+        }
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        final File temp = new File(parent, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            int count = 0;
+            for (Map.Entry<String, Directory> entry : entries) {
+                if (entry.getKey().length() <= MAX_KEY_LENGTH) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+            for (Map.Entry<String, Directory> entry : entries) {
+                if (entry.getKey().length() <= MAX_KEY_LENGTH) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+            }
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            markDirty();
+            throw e;
+        } finally {
+            IOUtil.close(out);
+        }
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            temp.delete();
+            markDirty();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private synchronized void markDirty() {
+        dirty = true;
+    }
+
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Changes the number of scans to keep, evicting results if the cache is now over its limit.
+     *
+     * @param maxEntries the number of scans, {@code 0} disables caching.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+        evict();
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of directories whose results were re-used rather than listed.
+     *
+     * @return the number of directories whose results were re-used.
+     */
+    public long getDirectoriesReused() {
+        return directoriesReused.get();
+    }
+
+    /**
+     * Returns the number of directories that had to be listed.
+     *
+     * @return the number of directories that had to be listed.
+     */
+    public long getDirectoriesScanned() {
+        return directoriesScanned.get();
+    }
+
+    /**
+     * Discards all kept results.
+     */
+    public synchronized void clear() {
+        dirty |= !entries.isEmpty();
+        entries.clear();
+    }
+
+    synchronized Directory get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized void put(String key, Directory results) {
+        entries.put(key, results);
+        dirty = true;
+        evict();
+    }
+
+    void reused() {
+        directoriesReused.incrementAndGet();
+    }
+
+    void scanned() {
+        directoriesScanned.incrementAndGet();
+    }
+
+    private void evict() {
+        while (entries.size() > maxEntries) {
+            final Map.Entry<String, Directory> eldest = entries.entrySet().iterator().next();
+            entries.remove(eldest.getKey());
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("ScanCache");
+        sb.append("{file=").append(file);
+        sb.append(", count=").append(getCount());
+        sb.append(", maxEntries=").append(getMaxEntries());
+        sb.append(", directoriesReused=").append(directoriesReused);
+        sb.append(", directoriesScanned=").append(directoriesScanned);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * The results of a scan of one directory: the entries found, in the order they were found, with the results of
+     * each subdirectory in the place where a single threaded scan would have descended into it. The entries are pairs
+     * of kind, one of {@link PseudoDirectoryScanner#FILES_INCLUDED} to {@link PseudoDirectoryScanner#DIRS_DESELECTED},
+     * and name.
+     */
+    static class Directory {
+        /**
+         * The absolute path of the directory, {@code null} for the root which only holds the base directory.
+         */
+        final String path;
+
+        final String vpath;
+
+        final List<Object> entries = new ArrayList<Object>();
+
+        boolean everythingIncluded = true;
+
+        /**
+         * What the layers could tell about the listing of the directory when it was scanned.
+         */
+        List<Object> tokens;
+
+        /**
+         * The results of the subdirectories by their relative path, built when first needed.
+         */
+        private Map<String, Directory> children;
+
+        Directory(String path, String vpath) {
+            this.path = path;
+            this.vpath = vpath;
+        }
+
+        synchronized Directory child(String vpath) {
+            if (children == null) {
+                children = new HashMap<String, Directory>();
+                for (Object entry : entries) {
+                    if (entry instanceof Directory) {
+                        children.put(((Directory) entry).vpath, (Directory) entry);
+                    }
+                }
+            }
+            return children.get(vpath);
+        }
+
+        /**
+         * Writes these results so that they can be re-used by later builds. Listing tokens that are not strings cannot
+         * be written, so the directories they describe are listed again.
+         *
+         * @param out where to write the results.
+         * @throws IOException if the results could not be written.
+         */
+        void write(DataOutputStream out) throws IOException {
+            out.writeBoolean(path != null);
+            if (path != null) {
+                out.writeUTF(path);
+                out.writeUTF(vpath);
+            }
+            out.writeBoolean(everythingIncluded);
+            boolean writable = tokens != null;
+            for (int i = 0; writable && i < tokens.size(); i++) {
+                writable = tokens.get(i) instanceof String;
+            }
+            out.writeInt(writable ? tokens.size() : -1);
+            for (int i = 0; writable && i < tokens.size(); i++) {
+                out.writeUTF((String) tokens.get(i));
+            }
+            out.writeInt(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                final Object entry = entries.get(i);
+                if (entry instanceof Directory) {
+                    out.writeByte(-1);
+                    ((Directory) entry).write(out);
+                } else {
+                    out.writeByte((Integer) entry);
+                    out.writeUTF((String) entries.get(++i));
+                }
+            }
+        }
+
+        /**
+         * Reads results written by {@link #write(DataOutputStream)}.
+         *
+         * @param in where to read the results from.
+         * @return the results.
+         * @throws IOException if the results could not be read or are corrupt.
+         */
+        static Directory read(DataInputStream in) throws IOException {
+            final Directory directory = in.readBoolean()
+                    ? new Directory(in.readUTF(), in.readUTF())
+                    : new Directory(null, null);
+            directory.everythingIncluded = in.readBoolean();
+            final int tokens = in.readInt();
+            if (tokens >= 0) {
+                directory.tokens = new ArrayList<Object>(tokens);
+                for (int i = 0; i < tokens; i++) {
+                    directory.tokens.add(in.readUTF());
+                }
+            }
+            final int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("Corrupt scan results");
+            }
+            for (int i = 0; i < size; i++) {
+                final int kind = in.readByte();
+                if (kind == -1) {
+                    directory.entries.add(read(in));
+                } else if (kind >= PseudoDirectoryScanner.FILES_INCLUDED
+                        && kind <= PseudoDirectoryScanner.DIRS_DESELECTED && i + 1 < size) {
+                    directory.entries.add(kind);
+                    directory.entries.add(in.readUTF());
+                    i++;
+                } else {
+                    throw new IOException("Corrupt scan results");
+                }
+            }
+            return directory;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo.io;
+
+/**
+ * Implemented by streams that add behaviour on top of another stream, so that channels can reach the file or buffer
+ * underneath and move data without going through the streams.
+ */
+interface StreamWrapper {
+
+    /**
+     * Returns the stream that this stream wraps.
+     *
+     * @return the wrapped stream.
+     */
+    Object getWrapped();
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps one long-lived {@link MappedZipFile} per archive so that reads do not have to re-map the archive and re-parse
+ * its central directory every time. The number of open archives is capped; when the cap is exceeded the least recently
+ * used archives that are not currently being read from are closed.
+ * <p/>
+ * An archive that has been rebuilt since it was opened, as seen by its size or modification time, is opened again.
+ * Readers of the old archive keep the old handle until they release it.
+ * <p/>
+ * Archives are mapped or read through file handles as {@link MappedZipFile#MAP_BY_DEFAULT} says, unless the pool is
+ * told otherwise. Only file handles are released when an archive is closed, a mapping goes once garbage collected.
+ */
+public class ZipFilePool {
+
+    /**
+     * The default maximum number of archives to keep open.
+     */
+    public static final int DEFAULT_MAX_OPEN = 32;
+
+    /**
+     * The pool shared by all layers that are not given a pool explicitly.
+     */
+    private static final ZipFilePool DEFAULT = new ZipFilePool(DEFAULT_MAX_OPEN);
+
+    /**
+     * The maximum number of idle archives to keep open.
+     */
+    private final int maxOpen;
+
+    /**
+     * Whether archives are mapped rather than read through file handles.
+     */
+    private final boolean map;
+
+    /**
+     * The open handles in least recently used order.
+     */
+    private final LinkedHashMap<File, Handle> handles = new LinkedHashMap<File, Handle>(16, 0.75f, true);
+
+    /**
+     * The number of users of each archive, see {@link #addUser(File)}.
+     */
+    private final Map<File, Integer> users = new HashMap<File, Integer>();
+
+    public ZipFilePool(int maxOpen) {
+        this(maxOpen, MappedZipFile.MAP_BY_DEFAULT);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxOpen the maximum number of idle archives to keep open.
+     * @param map     {@code true} to map archives, {@code false} to read them through file handles.
+     */
+    public ZipFilePool(int maxOpen, boolean map) {
+        this.maxOpen = Math.max(1, maxOpen);
+        this.map = map;
+    }
+
+    public static ZipFilePool getDefault() {
+        return DEFAULT;
+    }
+
+    public int getMaxOpen() {
+        return maxOpen;
+    }
+
+    public boolean isMapped() {
+        return map;
+    }
+
+    /**
+     * Returns the number of archives that are currently open.
+     *
+     * @return the number of archives that are currently open.
+     */
+    public synchronized int getOpenCount() {
+        return handles.size();
+    }
+
+    /**
+     * Acquires the shared handle for an archive, opening the archive if necessary. Each call must be paired with a
+     * call to {@link #release(Handle)}.
+     *
+     * @param file the archive.
+     * @return the handle.
+     * @throws IOException if the archive could not be opened.
+     */
+    public Handle acquire(File file) throws IOException {
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        synchronized (this) {
+            Handle handle = handles.get(file);
+            if (handle != null) {
+                if (handle.matches(length, lastModified)) {
+                    handle.references++;
+                    return handle;
+                }
+                // rebuilt since it was opened
+                handles.remove(file);
+                evict(handle);
+            }
+        }
+        // map the archive outside the lock so that other archives can be read meanwhile
+        final MappedZipFile zipFile = new MappedZipFile(file, map);
+        synchronized (this) {
+            Handle handle = handles.get(file);
+            if (handle == null || !handle.matches(zipFile.getLength(), zipFile.getLastModified())) {
+                evict(handle);
+                handle = new Handle(file, zipFile);
+                handles.put(file, handle);
+            }
+            handle.references++;
+            evictIdle();
+            return handle;
+        }
+    }
+
+    /**
+     * Releases a handle previously obtained from {@link #acquire(File)}.
+     *
+     * @param handle the handle.
+     */
+    public synchronized void release(Handle handle) {
+        handle.references--;
+        if (handle.references == 0) {
+            if (handle.evicted) {
+                handle.close();
+            } else {
+                evictIdle();
+            }
+        }
+    }
+
+    /**
+     * Records that something, typically a layer, reads an archive until it calls {@link #removeUser(File)}. This does
+     * not keep the archive open, it lets the pool close the archive as soon as its last user is done with it.
+     *
+     * @param file the archive.
+     */
+    public synchronized void addUser(File file) {
+        final Integer count = users.get(file);
+        users.put(file, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Records that a user of an archive is done with it. When the last user is done the archive is closed, or once
+     * the last reader releases it if it is currently being read from.
+     *
+     * @param file the archive.
+     */
+    public synchronized void removeUser(File file) {
+        final Integer count = users.get(file);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            users.put(file, count - 1);
+        } else {
+            users.remove(file);
+            evict(handles.remove(file));
+        }
+    }
+
+    /**
+     * Closes the archive. If the archive is currently being read from it will be closed once the last reader
+     * releases it. A subsequent {@link #acquire(File)} will re-open the archive.
+     *
+     * @param file the archive.
+     */
+    public synchronized void close(File file) {
+        evict(handles.remove(file));
+    }
+
+    /**
+     * Closes all the archives in this pool.
+     */
+    public synchronized void close() {
+        List<Handle> handles = new ArrayList<Handle>(this.handles.values());
+        this.handles.clear();
+        for (Handle handle : handles) {
+            evict(handle);
+        }
+    }
+
+    private void evict(Handle handle) {
+        if (handle != null) {
+            handle.evicted = true;
+            if (handle.references == 0) {
+                handle.close();
+            }
+        }
+    }
+
+    private void evictIdle() {
+        Iterator<Handle> iterator = handles.values().iterator();
+        while (handles.size() > maxOpen && iterator.hasNext()) {
+            Handle handle = iterator.next();
+            if (handle.references == 0) {
+                iterator.remove();
+                evict(handle);
+            }
+        }
+    }
+
+    /**
+     * A shared reference to an open archive.
+     */
+    public static final class Handle {
+        private final File file;
+        private MappedZipFile zipFile;
+        /**
+         * The size of the archive when it was opened.
+         */
+        private final long length;
+        /**
+         * The modification time of the archive when it was opened.
+         */
+        private final long lastModified;
+        private int references;
+        private boolean evicted;
+
+        private Handle(File file, MappedZipFile zipFile) {
+            this.file = file;
+            this.zipFile = zipFile;
+            this.length = zipFile.getLength();
+            this.lastModified = zipFile.getLastModified();
+        }
+
+        private boolean matches(long length, long lastModified) {
+            return this.length == length && this.lastModified == lastModified;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public MappedZipFile getZipFile() {
+            return zipFile;
+        }
+
+        /**
+         * Closes the file handle of the archive, if it has one, and drops the reference to the archive. A mapping
+         * cannot be explicitly unmapped, it is released once garbage collected.
+         */
+        private void close() {
+            try {
+                zipFile.close();
+            } catch (IOException e) {
+                // the archive was only read from, so nothing is lost
+            } finally {
+                zipFile = null;
+            }
+        }
+    }
+}
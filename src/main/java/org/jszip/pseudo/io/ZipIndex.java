@@ -0,0 +1,518 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo.io;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The directory tree of an archive's contents. The tree is relative to the root of the archive and is never modified
+ * once built, so one index can back any number of {@link PseudoFileSystem.ZipLayer}s, each mounting the archive at
+ * its own prefix.
+ * <p/>
+ * The tree is held in flat arrays rather than as objects so that large archives stay cheap to keep in memory. Each
+ * file or directory is a slot, numbered breadth first from the root at slot {@code 0}, so the children of a slot are
+ * consecutive slots sorted by name. Each distinct name is held once in a table of path segments.
+ */
+public final class ZipIndex {
+    private final File zipFile;
+    private final long size;
+    private final long lastModified;
+    /**
+     * Identifies the archive contents, see {@link PseudoFileSystem.ZipLayer#getListingToken(String)}.
+     */
+    private final String token;
+    /**
+     * The distinct path segments of the archive.
+     */
+    private final String[] segments;
+    /**
+     * The segment naming each slot, {@code -1} for the root.
+     */
+    private final int[] names;
+    /**
+     * The parent of each slot, {@code -1} for the root.
+     */
+    private final int[] parents;
+    /**
+     * The first child of each slot. The children of slot {@code i} are the slots from {@code firstChild[i]} up to
+     * but excluding {@code firstChild[i + 1]}.
+     */
+    private final int[] firstChild;
+    /**
+     * The entry backing each slot or {@code -1} if the slot is a directory.
+     */
+    private final int[] entries;
+    /**
+     * The slot of each entry, or its complement for directory entries.
+     */
+    private final int[] entrySlots;
+    /**
+     * The uncompressed size of each entry.
+     */
+    private final long[] entrySizes;
+    /**
+     * The modification time of each entry.
+     */
+    private final long[] entryTimes;
+
+    private ZipIndex(File zipFile, long size, long lastModified, String token, String[] segments, int slots,
+                     int entryCount) {
+        this.zipFile = zipFile;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.token = token;
+        this.segments = segments;
+        this.names = new int[slots];
+        this.parents = new int[slots];
+        this.firstChild = new int[slots + 1];
+        this.entries = new int[slots];
+        this.entrySlots = new int[entryCount];
+        this.entrySizes = new long[entryCount];
+        this.entryTimes = new long[entryCount];
+    }
+
+    /**
+     * Builds the index of an archive, taking it from a snapshot if the snapshot holds a copy for the archive as it is
+     * now, and otherwise reading the archive and recording a copy in the snapshot.
+     *
+     * @param zipFile  the archive.
+     * @param pool     the pool to read the archive through.
+     * @param snapshot the snapshot or {@code null} to always read the archive.
+     * @return the index.
+     * @throws IOException if the archive could not be read.
+     */
+    public static ZipIndex build(File zipFile, ZipFilePool pool, IndexSnapshot snapshot) throws IOException {
+        ZipIndex index = snapshot == null ? null : snapshot.get(zipFile);
+        if (index != null) {
+            return index;
+        }
+        final long size;
+        final long lastModified;
+        final String[] entryNames;
+        final long[] entrySizes;
+        final long[] entryTimes;
+        final ZipFilePool.Handle handle = pool.acquire(zipFile);
+        try {
+            final MappedZipFile file = handle.getZipFile();
+            // the archive as the entries are read from it, which may have changed since
+            size = file.getLength();
+            lastModified = file.getLastModified();
+            entryNames = new String[file.size()];
+            entrySizes = new long[entryNames.length];
+            entryTimes = new long[entryNames.length];
+            for (int i = 0; i < entryNames.length; i++) {
+                entryNames[i] = file.getName(i);
+                entrySizes[i] = file.getSize(i);
+                entryTimes[i] = file.getTime(i);
+            }
+        } finally {
+            pool.release(handle);
+        }
+        index = build(zipFile, size, lastModified, entryNames, entrySizes, entryTimes);
+        if (snapshot != null) {
+            snapshot.put(index);
+        }
+        return index;
+    }
+
+    private static ZipIndex build(File zipFile, long size, long lastModified, String[] entryNames, long[] entrySizes,
+                                  long[] entryTimes) {
+        // build the tree as objects first, then lay it out breadth first
+        final Builder root = new Builder(null, null);
+        final Builder[] entryNodes = new Builder[entryNames.length];
+        int hash = 0;
+        for (int i = 0; i < entryNames.length; i++) {
+            hash = 31 * hash + entryNames[i].hashCode();
+            Builder node = root;
+            for (String segment : StringUtils.split(entryNames[i], '/')) {
+                node = node.getOrCreateChild(segment);
+            }
+            entryNodes[i] = node;
+            if (node != root && !entryNames[i].endsWith("/")) {
+                node.entry = i;
+            }
+        }
+        final List<Builder> order = new ArrayList<Builder>();
+        final Map<String, Integer> segmentIds = new HashMap<String, Integer>();
+        order.add(root);
+        for (int i = 0; i < order.size(); i++) {
+            final Builder node = order.get(i);
+            node.slot = i;
+            if (node.name != null && !segmentIds.containsKey(node.name)) {
+                segmentIds.put(node.name, segmentIds.size());
+            }
+            if (node.children != null) {
+                order.addAll(node.children.values());
+            }
+        }
+        final String[] segments = new String[segmentIds.size()];
+        for (Map.Entry<String, Integer> segment : segmentIds.entrySet()) {
+            segments[segment.getValue()] = segment.getKey();
+        }
+        final String token = zipFile.getAbsolutePath() + "@" + lastModified + ":" + size + "#"
+                + Integer.toHexString(hash);
+        final ZipIndex index = new ZipIndex(zipFile, size, lastModified, token, segments, order.size(),
+                entryNames.length);
+        int next = 1;
+        for (int i = 0; i < order.size(); i++) {
+            final Builder node = order.get(i);
+            index.names[i] = node.name == null ? -1 : segmentIds.get(node.name);
+            index.parents[i] = node.parent == null ? -1 : node.parent.slot;
+            index.entries[i] = node.entry;
+            index.firstChild[i] = next;
+            next += node.children == null ? 0 : node.children.size();
+        }
+        index.firstChild[order.size()] = next;
+        for (int i = 0; i < entryNames.length; i++) {
+            final int slot = entryNodes[i].slot;
+            index.entrySlots[i] = entryNames[i].endsWith("/") ? ~slot : slot;
+            index.entrySizes[i] = entrySizes[i];
+            index.entryTimes[i] = entryTimes[i];
+        }
+        return index;
+    }
+
+    /**
+     * Writes the index in the layout read by {@link #read(File, long, long, ByteBuffer, int)}, in big endian order:
+     * <pre>
+     *   string token, int segments, segments * string
+     *   int slots, slots * (int name, int parent, int entry, int firstChild), int firstChild
+     *   int entries, entries * (int slot, long size, long time)
+     * </pre>
+     * where a string is an int byte count followed by UTF-8 bytes.
+     *
+     * @param out where to write the index.
+     * @throws IOException if the index could not be written.
+     */
+    void write(DataOutputStream out) throws IOException {
+        IndexSnapshot.writeString(out, token);
+        out.writeInt(segments.length);
+        for (String segment : segments) {
+            IndexSnapshot.writeString(out, segment);
+        }
+        out.writeInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            out.writeInt(names[i]);
+            out.writeInt(parents[i]);
+            out.writeInt(entries[i]);
+            out.writeInt(firstChild[i]);
+        }
+        out.writeInt(firstChild[names.length]);
+        out.writeInt(entrySlots.length);
+        for (int i = 0; i < entrySlots.length; i++) {
+            out.writeInt(entrySlots[i]);
+            out.writeLong(entrySizes[i]);
+            out.writeLong(entryTimes[i]);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #write(DataOutputStream)}, checking that every slot and entry refers to one
+     * that exists so that a corrupt copy cannot send lookups astray.
+     *
+     * @param zipFile      the archive.
+     * @param size         the size of the archive when it was indexed.
+     * @param lastModified the modification time of the archive when it was indexed.
+     * @param buffer       the buffer holding the index.
+     * @param offset       where the index starts in the buffer.
+     * @return the index.
+     * @throws IndexOutOfBoundsException if the copy is corrupt.
+     */
+    static ZipIndex read(File zipFile, long size, long lastModified, ByteBuffer buffer, int offset) {
+        final String token = IndexSnapshot.readString(buffer, offset);
+        int position = offset + 4 + buffer.getInt(offset);
+        final String[] segments = new String[count(buffer, position, 4)];
+        position += 4;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = IndexSnapshot.readString(buffer, position);
+            position += 4 + buffer.getInt(position);
+        }
+        final int slots = count(buffer, position, 16);
+        final int entryCount = count(buffer, position + 4 + slots * 16 + 4, 20);
+        final ZipIndex index = new ZipIndex(zipFile, size, lastModified, token, segments, slots, entryCount);
+        position += 4;
+        for (int i = 0; i < slots; i++) {
+            index.names[i] = check(buffer.getInt(position), i == 0 ? -1 : 0, i == 0 ? -1 : segments.length - 1);
+            index.parents[i] = check(buffer.getInt(position + 4), i == 0 ? -1 : 0, i == 0 ? -1 : i - 1);
+            index.entries[i] = check(buffer.getInt(position + 8), -1, entryCount - 1);
+            index.firstChild[i] = check(buffer.getInt(position + 12), i == 0 ? 1 : index.firstChild[i - 1], slots);
+            position += 16;
+        }
+        index.firstChild[slots] = check(buffer.getInt(position), slots, slots);
+        position += 8;
+        for (int i = 0; i < entryCount; i++) {
+            final int slot = buffer.getInt(position);
+            check(slot < 0 ? ~slot : slot, 0, slots - 1);
+            index.entrySlots[i] = slot;
+            index.entrySizes[i] = buffer.getLong(position + 4);
+            index.entryTimes[i] = buffer.getLong(position + 12);
+            position += 20;
+        }
+        return index;
+    }
+
+    /**
+     * Reads the number of records that follow, checking that they fit in the buffer.
+     */
+    private static int count(ByteBuffer buffer, int position, int recordLength) {
+        final int count = buffer.getInt(position);
+        if (count < 0 || (long) count * recordLength > buffer.limit() - position - 4) {
+            throw new IndexOutOfBoundsException("Corrupt count at " + position);
+        }
+        return count;
+    }
+
+    private static int check(int value, int min, int max) {
+        if (value < min || value > max) {
+            throw new IndexOutOfBoundsException("Corrupt index value " + value);
+        }
+        return value;
+    }
+
+    public File getZipFile() {
+        return zipFile;
+    }
+
+    /**
+     * Returns the number of files and directories in the archive, including the root.
+     *
+     * @return the number of slots.
+     */
+    public int getSlotCount() {
+        return names.length;
+    }
+
+    long getArchiveSize() {
+        return size;
+    }
+
+    long getArchiveLastModified() {
+        return lastModified;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * Checks that a mapping is of the archive as it was indexed, so that the entries of the index are those of the
+     * mapping.
+     *
+     * @param file the mapping.
+     * @return {@code true} if the mapping is of the archive as it was indexed.
+     */
+    boolean matches(MappedZipFile file) {
+        return matches(file.getLength(), file.getLastModified());
+    }
+
+    /**
+     * Checks that the archive had a given size and modification time when it was indexed.
+     *
+     * @param size         the size.
+     * @param lastModified the modification time.
+     * @return {@code true} if the index is of the archive with that size and modification time.
+     */
+    boolean matches(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    /**
+     * Walks down the tree.
+     *
+     * @param path the {@code /} separated path relative to the root of the archive.
+     * @return the slot or {@code -1} if there is no such file or directory.
+     */
+    int find(String path) {
+        return find(path, 0);
+    }
+
+    /**
+     * Walks down the tree, reading the path in place so that lookups do not copy it.
+     *
+     * @param path the path.
+     * @param from where the {@code /} separated part of the path relative to the root of the archive starts.
+     * @return the slot or {@code -1} if there is no such file or directory.
+     */
+    int find(String path, int from) {
+        int slot = 0;
+        final int length = path.length();
+        for (int start = from; start < length; ) {
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = length;
+            }
+            if (end > start) {
+                slot = findChild(slot, path, start, end);
+                if (slot == -1) {
+                    return -1;
+                }
+            }
+            start = end + 1;
+        }
+        return slot;
+    }
+
+    private int findChild(int slot, String path, int start, int end) {
+        int low = firstChild[slot];
+        int high = firstChild[slot + 1] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compare(segments[names[mid]], path, start, end);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares a segment with part of a path as {@link String#compareTo(String)} would.
+     */
+    private static int compare(String segment, String path, int start, int end) {
+        final int length = end - start;
+        final int common = Math.min(segment.length(), length);
+        for (int i = 0; i < common; i++) {
+            final char a = segment.charAt(i);
+            final char b = path.charAt(start + i);
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return segment.length() - length;
+    }
+
+    /**
+     * Returns the names of the children of a slot.
+     *
+     * @param slot the slot.
+     * @return a read-only view of the names of the children, sorted.
+     */
+    List<String> getChildren(int slot) {
+        final int first = firstChild[slot];
+        final int end = firstChild[slot + 1];
+        if (first == end) {
+            return Collections.emptyList();
+        }
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index < 0 || first + index >= end) {
+                    throw new IndexOutOfBoundsException(Integer.toString(index));
+                }
+                return segments[names[first + index]];
+            }
+
+            @Override
+            public int size() {
+                return end - first;
+            }
+        };
+    }
+
+    private String getPath(int slot) {
+        if (slot == 0) {
+            return "";
+        }
+        final String name = segments[names[slot]];
+        return parents[slot] == 0 ? name : getPath(parents[slot]) + "/" + name;
+    }
+
+    String getName(int slot) {
+        return slot == 0 ? "" : segments[names[slot]];
+    }
+
+    boolean isFile(int slot) {
+        return entries[slot] != -1;
+    }
+
+    /**
+     * Returns the entry backing a file.
+     *
+     * @param slot the slot of the file.
+     * @return the index of the entry in the archive's central directory.
+     */
+    int getEntry(int slot) {
+        return entries[slot];
+    }
+
+    long getSize(int slot) {
+        return entrySizes[entries[slot]];
+    }
+
+    long getLastModified(int slot) {
+        return entryTimes[entries[slot]];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("ZipIndex");
+        sb.append("{zipFile=").append(zipFile);
+        sb.append(", size=").append(size);
+        sb.append(", lastModified=").append(lastModified);
+        sb.append(", slots=").append(names.length);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * A file or directory while the tree is being built.
+     */
+    private static final class Builder {
+        private final Builder parent;
+        private final String name;
+        private int entry = -1;
+        private int slot;
+        /**
+         * The children of this node, sorted by name, or {@code null} if this node has no children.
+         */
+        private Map<String, Builder> children;
+
+        private Builder(Builder parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        private Builder getOrCreateChild(String name) {
+            if (children == null) {
+                children = new TreeMap<String, Builder>();
+            }
+            Builder child = children.get(name);
+            if (child == null) {
+                child = new Builder(this, name);
+                children.put(name, child);
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out one shared {@link ZipIndex} per archive, so that the modules of a build which depend on the same archive
+ * only index it once. Indexes are keyed by the location of the archive and are only handed out while the size and
+ * modification time of the archive still match, so an archive that is rebuilt part way through the build is indexed
+ * again and its new index replaces the old one. Concurrent requests for the same archive wait for a single indexing.
+ */
+public class ZipIndexRegistry {
+
+    private final ConcurrentMap<String, Indexing> indexes = new ConcurrentHashMap<String, Indexing>();
+
+    private final AtomicLong shared = new AtomicLong();
+
+    private final AtomicLong built = new AtomicLong();
+
+    /**
+     * Returns the index of an archive as it is now.
+     *
+     * @param zipFile  the archive.
+     * @param pool     the pool to read the archive through if it has not been indexed yet.
+     * @param snapshot the snapshot to take the directory of the archive from, or {@code null}.
+     * @return the index.
+     * @throws IOException if the archive could not be read.
+     */
+    public ZipIndex get(File zipFile, ZipFilePool pool, IndexSnapshot snapshot) throws IOException {
+        final FutureTask<ZipIndex> task = submit(zipFile, pool, snapshot, null);
+        task.run();
+        final ZipIndex index = await(zipFile, task);
+        if (snapshot != null) {
+            // the index may have been built for another module, whose snapshot is not this one
+            snapshot.put(index);
+        }
+        return index;
+    }
+
+    /**
+     * Starts indexing an archive as it is now, unless it has been or is being indexed already. The returned task
+     * can also be run by the caller, which is a no-op if the task has already been started.
+     *
+     * @param zipFile  the archive.
+     * @param pool     the pool to read the archive through if it has not been indexed yet.
+     * @param snapshot the snapshot to take the directory of the archive from, or {@code null}.
+     * @param executor the executor to index the archive on, or {@code null} to leave it to the caller.
+     * @return the task building the index.
+     */
+    public FutureTask<ZipIndex> submit(final File zipFile, final ZipFilePool pool, final IndexSnapshot snapshot,
+                                       Executor executor) {
+        final String path = zipFile.getAbsolutePath();
+        final long size = zipFile.length();
+        final long lastModified = zipFile.lastModified();
+        while (true) {
+            final Indexing current = indexes.get(path);
+            if (current != null && current.size == size && current.lastModified == lastModified) {
+                shared.incrementAndGet();
+                return current.task;
+            }
+            final Indexing created = new Indexing(size, lastModified);
+            created.task = new FutureTask<ZipIndex>(new Callable<ZipIndex>() {
+                public ZipIndex call() throws IOException {
+                    return ZipIndex.build(zipFile, pool, snapshot);
+                }
+            }) {
+                @Override
+                protected void done() {
+                    try {
+                        get();
+                    } catch (ExecutionException e) {
+                        // do not remember failures, the archive may be readable next time
+                        indexes.remove(path, created);
+                    } catch (InterruptedException e) {
+                        // cannot happen, the task is done
+                    } catch (CancellationException e) {
+                        indexes.remove(path, created);
+                    }
+                }
+            };
+            final boolean added = current == null
+                    ? indexes.putIfAbsent(path, created) == null
+                    : indexes.replace(path, current, created);
+            if (added) {
+                built.incrementAndGet();
+                if (executor != null) {
+                    executor.execute(created.task);
+                }
+                return created.task;
+            }
+        }
+    }
+
+    /**
+     * Waits for a task from {@link #submit(File, ZipFilePool, IndexSnapshot, Executor)} to finish.
+     *
+     * @param zipFile the archive.
+     * @param task    the task.
+     * @return the index.
+     * @throws IOException if the archive could not be read.
+     */
+    public static ZipIndex await(File zipFile, FutureTask<ZipIndex> task) throws IOException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            IOException ioe = new IOException("Interrupted while indexing " + zipFile);
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Records the index built by a task from {@link #submit(File, ZipFilePool, IndexSnapshot, Executor)} in a
+     * snapshot, waiting for the task to finish.
+     *
+     * @param zipFile  the archive.
+     * @param task     the task.
+     * @param snapshot the snapshot.
+     * @throws IOException if the archive could not be read.
+     */
+    public static void record(File zipFile, FutureTask<ZipIndex> task, IndexSnapshot snapshot) throws IOException {
+        snapshot.put(await(zipFile, task));
+    }
+
+    /**
+     * Returns the number of archives that have been indexed.
+     *
+     * @return the number of archives that have been indexed.
+     */
+    public long getIndexesBuilt() {
+        return built.get();
+    }
+
+    /**
+     * Returns the number of times an existing index was handed out.
+     *
+     * @return the number of times an existing index was handed out.
+     */
+    public long getIndexesShared() {
+        return shared.get();
+    }
+
+    /**
+     * Discards all indexes.
+     */
+    public void clear() {
+        indexes.clear();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("ZipIndexRegistry");
+        sb.append("{count=").append(indexes.size());
+        sb.append(", indexesBuilt=").append(built);
+        sb.append(", indexesShared=").append(shared);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * The indexing of an archive with a given size and modification time.
+     */
+    private static final class Indexing {
+        private final long size;
+        private final long lastModified;
+        private FutureTask<ZipIndex> task;
+
+        private Indexing(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
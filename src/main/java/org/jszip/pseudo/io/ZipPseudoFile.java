@@ -16,25 +16,43 @@
 
 package org.jszip.pseudo.io;
 
-import org.codehaus.plexus.archiver.zip.ZipEntry;
-import org.codehaus.plexus.archiver.zip.ZipFile;
-import org.codehaus.plexus.util.IOUtil;
-
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 public class ZipPseudoFile extends PseudoFile {
 
-    private final File zipFile;
-    private final ZipEntry entry;
+    private final ZipFilePool pool;
+    private final ZipIndex index;
+    private final int slot;
+    private final ContentCache cache;
+
+    public ZipPseudoFile(PseudoFile parent, ZipIndex index, int slot) {
+        this(parent, ZipFilePool.getDefault(), index, slot);
+    }
+
+    public ZipPseudoFile(PseudoFile parent, ZipFilePool pool, ZipIndex index, int slot) {
+        this(parent, pool, null, index, slot);
+    }
 
-    public ZipPseudoFile(PseudoFile parent, File zipFile, ZipEntry entry) {
+    /**
+     * Constructs a file backed by an archive entry. The file is a view of its slot in the archive's index, the
+     * details of the entry are looked up in the index when needed.
+     *
+     * @param parent the parent directory.
+     * @param pool   the pool to read the archive through.
+     * @param cache  the cache to hold inflated content or {@code null} to inflate on every read.
+     * @param index  the index of the archive.
+     * @param slot   the slot of the file in the index.
+     */
+    public ZipPseudoFile(PseudoFile parent, ZipFilePool pool, ContentCache cache, ZipIndex index, int slot) {
         super(parent);
-        this.zipFile = zipFile;
-        this.entry = entry;
+        this.pool = pool;
+        this.cache = cache;
+        this.index = index;
+        this.slot = slot;
     }
 
     /**
@@ -82,26 +100,21 @@ public class ZipPseudoFile extends PseudoFile {
      * {@inheritDoc}
      */
     public String getName() {
-        final String name = entry.getName();
-        int index = name.lastIndexOf('/');
-        if (index == -1) {
-            return name;
-        }
-        return name.substring(index + 1);
+        return index.getName(slot);
     }
 
     /**
      * {@inheritDoc}
      */
     public boolean isDirectory() {
-        return entry.isDirectory();
+        return false;
     }
 
     /**
      * {@inheritDoc}
      */
     public boolean isFile() {
-        return !entry.isDirectory();
+        return true;
     }
 
     /**
@@ -115,14 +128,14 @@ public class ZipPseudoFile extends PseudoFile {
      * {@inheritDoc}
      */
     public long lastModified() {
-        return entry.getTime();
+        return index.getLastModified(slot);
     }
 
     /**
      * {@inheritDoc}
      */
     public long length() {
-        return entry.getSize();
+        return index.getSize(slot);
     }
 
     /**
@@ -158,22 +171,34 @@ public class ZipPseudoFile extends PseudoFile {
      * {@inheritDoc}
      */
     InputStream $newInputStream() throws IOException {
-        InputStream inputStream = null;
-        ZipFile zipFile = null;
+        final File zipFile = index.getZipFile();
+        final int entry = index.getEntry(slot);
+        final ZipFilePool.Handle handle = pool.acquire(zipFile);
+        boolean streaming = false;
         try {
-            zipFile = new ZipFile(this.zipFile);
-            inputStream = zipFile.getInputStream(zipFile.getEntry(entry.getName()));
-            byte[] contents = IOUtil.toByteArray(inputStream);
-            return new ByteArrayInputStream(contents);
-        } finally {
-            if (zipFile != null) {
-                try {
-                    zipFile.close();
-                } catch (IOException e) {
-                    // ignore
+            final MappedZipFile file = handle.getZipFile();
+            if (!index.matches(file)) {
+                throw new IOException(zipFile + " has changed since it was indexed");
+            }
+            if (cache != null && (file.getMethod(entry) != MappedZipFile.STORED || !file.isMapped())) {
+                // stored entries are served straight from a mapping, only content that is copied is worth caching
+                final ContentCache.Key key = new ContentCache.Key(zipFile, Integer.toString(entry),
+                        index.getLastModified(slot), index.getSize(slot));
+                InputStream cached = cache.get(key);
+                if (cached == null) {
+                    cached = cache.put(key, file.getInputStream(entry));
                 }
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            final InputStream inputStream = file.getInputStream(entry);
+            streaming = true;
+            return new HandleInputStream(inputStream, pool, handle);
+        } finally {
+            if (!streaming) {
+                pool.release(handle);
             }
-            IOUtil.close(inputStream);
         }
     }
 
@@ -190,4 +215,40 @@ public class ZipPseudoFile extends PseudoFile {
     OutputStream $newOutputStream(boolean append) throws IOException {
         throw new IOException(getPath() + " is read-only");
     }
+
+    /**
+     * Streams an entry directly from the pooled archive, releasing the archive back to the pool when closed.
+     */
+    private static class HandleInputStream extends FilterInputStream implements StreamWrapper {
+        private final ZipFilePool pool;
+        private ZipFilePool.Handle handle;
+
+        private HandleInputStream(InputStream in, ZipFilePool pool, ZipFilePool.Handle handle) {
+            super(in);
+            this.pool = pool;
+            this.handle = handle;
+        }
+
+        public Object getWrapped() {
+            return in;
+        }
+
+        @Override
+        public boolean markSupported() {
+            // stored entries are read straight from the mapping and so can be re-read cheaply
+            return in.markSupported();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (handle != null) {
+                    pool.release(handle);
+                    handle = null;
+                }
+            }
+        }
+    }
 }
@@ -21,6 +21,7 @@ import org.mozilla.javascript.tools.shell.Global;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Set;
 
 /**
  * @author stephenc
@@ -158,6 +159,10 @@ public class GlobalFunctions {
         }
 
         final PseudoFile file = PseudoFileSystem.current().getPseudoFile(path);
+        final ReadRecorder recorder = (ReadRecorder) cx.getThreadLocal(ReadRecorder.class);
+        if (recorder != null) {
+            recorder.paths.add(file.getAbsolutePath());
+        }
         InputStream inputStream = null;
         try {
             inputStream = new PseudoFileInputStream(file);
@@ -167,6 +172,28 @@ public class GlobalFunctions {
         }
     }
 
+    /**
+     * The fileStamp returns a string that changes whenever the modification time or the length of the given file
+     * does, or {@code null} if there is no such file, so that scripts can tell whether a file they have read is
+     * unchanged without reading it again. The file counts as read for any {@link #setReadRecorder(Set)}.
+     * <p>
+     * Usage:
+     * <pre>
+     * fileStamp(filePath)
+     * </pre>
+     */
+    public static Object fileStamp(Context cx, Scriptable thisObj, Object[] args, Function funObj) {
+        if (args.length == 0) {
+            throw Context.reportRuntimeError("Bad arguments supplied to fileStamp()");
+        }
+        final PseudoFile file = PseudoFileSystem.current().getPseudoFile(ScriptRuntime.toString(args[0]));
+        final ReadRecorder recorder = (ReadRecorder) cx.getThreadLocal(ReadRecorder.class);
+        if (recorder != null) {
+            recorder.paths.add(file.getAbsolutePath());
+        }
+        return file.isFile() ? file.lastModified() + ":" + file.length() : null;
+    }
+
 
     public static void setExitCode(int exitCode) {
         Context.getCurrentContext().putThreadLocal(ExitCodeHolder.class, new ExitCodeHolder(exitCode));
@@ -182,6 +209,16 @@ public class GlobalFunctions {
         return null;
     }
 
+    /**
+     * Records the path of every file that {@code readFile} is asked for on the current context, including files that
+     * do not exist, as a file that appears later could change the outcome.
+     *
+     * @param paths the set to add the absolute paths to, or {@code null} to stop recording.
+     */
+    public static void setReadRecorder(Set<String> paths) {
+        Context.getCurrentContext().putThreadLocal(ReadRecorder.class, paths == null ? null : new ReadRecorder(paths));
+    }
+
     public static Scriptable createPseudoFileSystemScope(Global global, Context context) {
         Scriptable scope = context.newObject(global);
         scope.setPrototype(global);
@@ -220,6 +257,14 @@ public class GlobalFunctions {
         return cur;
     }
 
+    private static class ReadRecorder {
+        private final Set<String> paths;
+
+        private ReadRecorder(Set<String> paths) {
+            this.paths = paths;
+        }
+    }
+
     private static class ExitCodeHolder {
         private final int exitCode;
 
@@ -46,22 +46,26 @@ public class OptimizeContextAction extends ScriptableObject implements ContextAc
     private final File profileJs;
     private final String source;
     private final int lineNo;
-    private final PseudoFileSystem.Layer[] layers;
+    private final PseudoFileSystem fileSystem;
     private final Log log;
 
     public OptimizeContextAction(Log log, Global global, File profileJs, String source, int lineNo,
                                  PseudoFileSystem.Layer... layers) {
+        this(log, global, profileJs, source, lineNo, new PseudoFileSystem(layers));
+    }
+
+    public OptimizeContextAction(Log log, Global global, File profileJs, String source, int lineNo,
+                                 PseudoFileSystem fileSystem) {
         this.log = log;
         this.global = global;
         this.profileJs = profileJs;
         this.source = source;
         this.lineNo = lineNo;
-        this.layers = layers;
+        this.fileSystem = fileSystem;
     }
 
     public Object run(Context context) {
         context.setErrorReporter(new MavenLogErrorReporter(log));
-        PseudoFileSystem fileSystem = new PseudoFileSystem(layers);
         context.putThreadLocal(Log.class, log);
         fileSystem.installInContext();
         try {
@@ -141,6 +145,7 @@ public class OptimizeContextAction extends ScriptableObject implements ContextAc
             return GlobalFunctions.getExitCode();
         } finally {
             fileSystem.removeFromContext();
+            fileSystem.close();
             context.putThreadLocal(OptimizeContextAction.class, null);
         }
     }
@@ -4,7 +4,6 @@ import org.codehaus.plexus.util.IOUtil;
 import org.jszip.pseudo.io.PseudoFile;
 import org.jszip.pseudo.io.PseudoFileInputStream;
 import org.jszip.pseudo.io.PseudoFileSystem;
-import org.mozilla.javascript.Context;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -58,24 +57,17 @@ public class PseudoFileSystemImporter {
      * @return the contents of the uri.
      */
     public String find(String uri) throws IOException {
-        Context.enter();
-        try {
-            fs.installInContext();
-            final PseudoFile file = fs.getPseudoFile(uri);
-            if (file.isFile()) {
-                InputStream is = null;
-                try {
-                    is = new PseudoFileInputStream(file);
-                    return IOUtil.toString(is, encoding);
-                } finally {
-                    IOUtil.close(is);
-                }
+        final PseudoFile file = fs.getPseudoFile(uri);
+        if (file.isFile()) {
+            InputStream is = null;
+            try {
+                is = new PseudoFileInputStream(file);
+                return IOUtil.toString(is, encoding);
+            } finally {
+                IOUtil.close(is);
             }
-            return null;
-        } finally {
-            fs.removeFromContext();
-            Context.exit();
         }
+        return null;
     }
 
     /**
@@ -89,18 +81,11 @@ public class PseudoFileSystemImporter {
      * @return [Time, nil]
      */
     public Date mtime(String uri) {
-        Context.enter();
-        try {
-            fs.installInContext();
-            final PseudoFile file = fs.getPseudoFile(uri);
-            if (file.isFile()) {
-                return new Date(file.lastModified());
-            }
-            return null;
-        } finally {
-            fs.removeFromContext();
-            Context.exit();
+        final PseudoFile file = fs.getPseudoFile(uri);
+        if (file.isFile()) {
+            return new Date(file.lastModified());
         }
+        return null;
     }
 
 }
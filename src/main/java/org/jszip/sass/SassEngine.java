@@ -8,9 +8,11 @@ import org.jruby.exceptions.RaiseException;
 import org.jruby.javasupport.JavaEmbedUtils;
 import org.jszip.css.CssCompilationError;
 import org.jszip.css.CssEngine;
+import org.jszip.css.CssOutput;
 import org.jszip.pseudo.io.PseudoFileSystem;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * @author stephenc
@@ -45,6 +47,10 @@ public class SassEngine implements CssEngine {
         return proxy.toCSS(fileSystemImporter, name);
     }
 
+    public void toCSS(String name, OutputStream out) throws IOException {
+        CssOutput.write(toCSS(name), out);
+    }
+
     public static interface RubyProxy {
         String toCSS(PseudoFileSystemImporter importer, String name);
     }
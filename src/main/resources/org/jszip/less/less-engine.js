@@ -24,6 +24,88 @@ function error(e, filename) {
     }
 }
 
+// Parsed imports, keyed by path. Each entry holds the parse tree and the stamp of every file that went into it,
+// including nested imports, and is only used while none of those stamps has changed.
+var importCache = {};
+var importCacheHits = 0;
+var importCacheMisses = 0;
+// the dependency lists of the imports being parsed, innermost last
+var importCollectors = [];
+var uncachedImporter = less.Parser.importer;
+
+function noteImports(deps) {
+    for (var i = 0; i < importCollectors.length; i++) {
+        importCollectors[i].push.apply(importCollectors[i], deps);
+    }
+}
+
+function readOnDemand(contents, path) {
+    // error extracts and line numbers are taken from here, so the file is only read again if one is reported
+    contents.__defineGetter__(path, function () {
+        delete contents[path];
+        return contents[path] = readFile(path);
+    });
+}
+
+function isCurrent(entry, env) {
+    for (var i = 0; i < entry.deps.length; i++) {
+        if (fileStamp(entry.deps[i].path) != entry.deps[i].stamp) {
+            return false;
+        }
+    }
+    for (var i = 0; i < entry.deps.length; i++) {
+        readOnDemand(env.contents, entry.deps[i].path);
+    }
+    return true;
+}
+
+function isCacheable(deps) {
+    for (var i = 0; i < deps.length; i++) {
+        if (deps[i].importOnce) {
+            return false;
+        }
+    }
+    return true;
+}
+
+less.Parser.importer = function (path, paths, callback, env) {
+    var fullPath = (!/^([a-z-]+:)?\//.test(path) && paths.length > 0) ? paths[0] + path : path;
+    var entry = importCache[fullPath];
+    if (entry && isCurrent(entry, env)) {
+        importCacheHits++;
+        noteImports(entry.deps);
+        callback.call(null, null, entry.root, fullPath);
+        return;
+    }
+    importCacheMisses++;
+    delete importCache[fullPath];
+    var deps = [], stamp = fileStamp(fullPath);
+    if (stamp == null) {
+        // let less report the missing file
+        uncachedImporter(path, paths, callback, env);
+        return;
+    }
+    // an @import-once is skipped or not depending on what else has been imported, so cannot be re-used
+    deps.push({path: fullPath, stamp: stamp, importOnce: /@import-once/.test(readFile(fullPath))});
+    var collecting = true;
+    importCollectors.push(deps);
+    try {
+        uncachedImporter(path, paths, function (e, root, importedPath) {
+            importCollectors.pop();
+            collecting = false;
+            noteImports(deps);
+            if (!e && root && isCacheable(deps)) {
+                importCache[fullPath] = {root: root, deps: deps};
+            }
+            callback.call(null, e, root, importedPath);
+        }, env);
+    } finally {
+        if (collecting) {
+            importCollectors.pop();
+        }
+    }
+};
+
 function engine(inputName, encoding, compress) {
     path = inputName.split("/");
     path.pop();
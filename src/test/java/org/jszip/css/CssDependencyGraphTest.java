@@ -0,0 +1,67 @@
+package org.jszip.css;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.jszip.pseudo.io.PseudoFileSystem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link CssDependencyGraph}.
+ */
+public class CssDependencyGraphTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void importsChangingMakeStylesheetsStale() throws Exception {
+        final File webapp = folder.newFolder("webapp");
+        final File variables = new File(webapp, "variables.less");
+        FileUtils.fileWrite(new File(webapp, "site.less"), "US-ASCII", "@import \"variables\";");
+        FileUtils.fileWrite(new File(webapp, "other.less"), "US-ASCII", "a { color: red; }");
+        FileUtils.fileWrite(variables, "US-ASCII", "@margin: 16px;");
+        final File file = new File(folder.getRoot(), "target/dependencies.bin");
+
+        PseudoFileSystem fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer("/virtual", webapp));
+        CssDependencyGraph graph = CssDependencyGraph.load(file);
+        assertThat(graph.isUpToDate(fs, "/virtual/site.less"), is(false));
+        graph.record(fs, "/virtual/site.less",
+                Arrays.asList("/virtual/site.less", "/virtual/variables.less", "/virtual/variables"));
+        graph.record(fs, "/virtual/other.less", Arrays.asList("/virtual/other.less"));
+        graph.save();
+        assertThat(file.isFile(), is(true));
+
+        // touching an import without changing it does not make the stylesheet stale
+        assertThat(variables.setLastModified(variables.lastModified() - 10000L), is(true));
+        fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer("/virtual", webapp));
+        graph = CssDependencyGraph.load(file);
+        assertThat(graph.getCount(), is(2));
+        assertThat(graph.isUpToDate(fs, "/virtual/site.less"), is(true));
+
+        // changing an import does, but only for the stylesheets that import it
+        FileUtils.fileWrite(variables, "US-ASCII", "@margin: 32px;");
+        assertThat(variables.setLastModified(variables.lastModified() + 10000L), is(true));
+        fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer("/virtual", webapp));
+        graph = CssDependencyGraph.load(file);
+        assertThat(graph.isUpToDate(fs, "/virtual/site.less"), is(false));
+        assertThat(graph.isUpToDate(fs, "/virtual/other.less"), is(true));
+        graph.record(fs, "/virtual/site.less",
+                Arrays.asList("/virtual/site.less", "/virtual/variables.less", "/virtual/variables"));
+        assertThat(graph.isUpToDate(fs, "/virtual/site.less"), is(true));
+
+        // as does a file appearing where an import was looked for
+        FileUtils.fileWrite(new File(webapp, "variables"), "US-ASCII", "@margin: 8px;");
+        fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer("/virtual", webapp));
+        graph = CssDependencyGraph.load(file);
+        graph.remove("/virtual/other.less");
+        assertThat(graph.isUpToDate(fs, "/virtual/site.less"), is(false));
+        assertThat(graph.isUpToDate(fs, "/virtual/other.less"), is(false));
+    }
+}
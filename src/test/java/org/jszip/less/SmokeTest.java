@@ -16,11 +16,19 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -51,4 +59,60 @@ public class SmokeTest {
         assertThat(engine.toCSS("/foo.less"), containsString("8px"));
     }
 
+    @Test
+    public void streamedOutputMatches() throws IOException, CssCompilationError {
+        final PseudoFileSystem fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer(folder.getRoot()));
+        FileUtils.fileWrite(new File(folder.getRoot(), "foo.less"), "utf-8", loadResource("foo.less"));
+        FileUtils.fileWrite(new File(folder.getRoot(), "bar.less"), "utf-8", loadResource("bar.less"));
+        LessEngine engine = new LessEngine(fs, "utf-8", new DefaultLog(new ConsoleLogger()), false, null, false);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        engine.toCSS("/foo.less", out);
+        assertThat(out.toString("UTF-8"), is(engine.toCSS("/foo.less")));
+    }
+
+    @Test
+    public void sharedImportsAreParsedOnce() throws Exception {
+        final PseudoFileSystem fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer(folder.getRoot()));
+        FileUtils.fileWrite(new File(folder.getRoot(), "foo.less"), "utf-8", loadResource("foo.less"));
+        FileUtils.fileWrite(new File(folder.getRoot(), "other.less"), "utf-8", loadResource("foo.less"));
+        FileUtils.fileWrite(new File(folder.getRoot(), "bar.less"), "utf-8", loadResource("bar.less"));
+        LessEngine engine = new LessEngine(fs, "utf-8", new DefaultLog(new ConsoleLogger()), false, null, false);
+        assertThat(engine.toCSS("/foo.less"), containsString("8px"));
+        assertThat(engine.toCSS("/other.less"), containsString("8px"));
+        assertThat(engine.getImportCacheMisses(), is(1L));
+        assertThat(engine.getImportCacheHits(), is(1L));
+
+        // a changed import is parsed again
+        FileUtils.fileWrite(new File(folder.getRoot(), "bar.less"), "utf-8", "@margin: 32px;");
+        assertThat(engine.toCSS("/foo.less"), containsString("16px"));
+        assertThat(engine.getImportCacheMisses(), is(2L));
+        assertThat(engine.getImportCacheHits(), is(1L));
+    }
+
+    @Test
+    public void pool() throws Exception {
+        final PseudoFileSystem fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer(folder.getRoot()));
+        FileUtils.fileWrite(new File(folder.getRoot(), "foo.less"), "utf-8", loadResource("foo.less"));
+        FileUtils.fileWrite(new File(folder.getRoot(), "bar.less"), "utf-8", loadResource("bar.less"));
+        final LessEnginePool pool =
+                new LessEnginePool(fs, "utf-8", new DefaultLog(new ConsoleLogger()), false, null, false, 2);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return pool.toCSS("/foo.less");
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertThat(result.get(), containsString("8px"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(pool.getEnginesCreated() <= 2, is(true));
+    }
+
 }
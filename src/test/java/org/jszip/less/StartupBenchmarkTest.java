@@ -0,0 +1,100 @@
+package org.jszip.less;
+
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.jszip.pseudo.io.PseudoFileSystem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that the bundled scripts are precompiled and behave as when compiled from source. With
+ * {@code -Djszip.benchmark=true} also compares the start up time of a {@link LessEngine} using the precompiled
+ * scripts with one that compiles {@code less-rhino.js} from source, as happens with a custom LESS script.
+ */
+public class StartupBenchmarkTest {
+
+    private static final int ROUNDS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PseudoFileSystem fs;
+
+    private String loadResource(String name) throws IOException {
+        InputStream stream = null;
+        try {
+            stream = getClass().getResourceAsStream(name);
+            return IOUtil.toString(stream, "UTF-8");
+        } finally {
+            IOUtil.close(stream);
+        }
+    }
+
+    @Test
+    public void precompiledScriptsAreBundled() throws Exception {
+        assertThat(Class.forName(LessEngine.PRECOMPILED_PACKAGE + ".less_rhino"), notNullValue());
+        assertThat(Class.forName(LessEngine.PRECOMPILED_PACKAGE + ".less_engine"), notNullValue());
+        assertThat(Class.forName(LessEngine.PRECOMPILED_PACKAGE + ".less_env"), notNullValue());
+    }
+
+    @Test
+    public void precompiledAgainstSource() throws Exception {
+        final File source = writeSources();
+        final Log log = new DefaultLog(new ConsoleLogger(Logger.LEVEL_INFO, "benchmark"));
+
+        final String precompiled = new LessEngine(fs, "utf-8", log, false, null, false).toCSS("/foo.less");
+        final String compiled = new LessEngine(fs, "utf-8", log, false, source, false).toCSS("/foo.less");
+        assertThat(compiled, is(precompiled));
+    }
+
+    /**
+     * Only run with {@code -Djszip.benchmark=true}, as timing the engines adds a few seconds to every build.
+     */
+    @Test
+    public void startUpTime() throws Exception {
+        assumeTrue(Boolean.getBoolean("jszip.benchmark"));
+        final File source = writeSources();
+        final Log log = new DefaultLog(new ConsoleLogger(Logger.LEVEL_INFO, "benchmark"));
+
+        // the first engine of each kind also pays for loading Rhino's classes, so it is not timed
+        new LessEngine(fs, "utf-8", log, false, null, false);
+        new LessEngine(fs, "utf-8", log, false, source, false);
+
+        long precompiledNanos = 0;
+        long compiledNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            new LessEngine(fs, "utf-8", log, false, null, false);
+            precompiledNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            new LessEngine(fs, "utf-8", log, false, source, false);
+            compiledNanos += System.nanoTime() - start;
+        }
+        log.info("LessEngine start up: precompiled " + precompiledNanos / ROUNDS / 1000000L + "ms, from source "
+                + compiledNanos / ROUNDS / 1000000L + "ms");
+    }
+
+    private File writeSources() throws IOException {
+        fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer(folder.getRoot()));
+        FileUtils.fileWrite(new File(folder.getRoot(), "foo.less"), "utf-8", loadResource("foo.less"));
+        FileUtils.fileWrite(new File(folder.getRoot(), "bar.less"), "utf-8", loadResource("bar.less"));
+        final File source = folder.newFile("less-rhino.js");
+        FileUtils.fileWrite(source, "UTF-8", loadResource("/org/jszip/less/less-rhino.js"));
+        return source;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.maven;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.IOUtil;
+import org.jszip.pseudo.io.IndexSnapshot;
+import org.jszip.pseudo.io.PseudoFile;
+import org.jszip.pseudo.io.PseudoFileSystem;
+import org.jszip.pseudo.io.ZipIndexRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link ZipLayerLoader}.
+ */
+public class ZipLayerLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void deferredLayersAreIndexed() throws Exception {
+        final File target = folder.newFolder("target");
+        final File snapshotFile = new File(folder.getRoot(), "jszip-index.bin");
+        final File libZip = createZip("lib.zip", "css/site.css", "app.js");
+        final File themeZip = createZip("theme.zip", "theme.css");
+        final File otherZip = createZip("other.zip", "other.js");
+        ZipLayerLoader loader = new ZipLayerLoader(new ZipIndexRegistry(), IndexSnapshot.load(snapshotFile),
+                new SystemStreamLog());
+        final PseudoFileSystem.Layer lib = loader.load("/virtual", libZip);
+        final PseudoFileSystem.Layer theme = loader.load("/virtual/theme", themeZip);
+        final PseudoFileSystem.Layer other = loader.load("/other", otherZip);
+        assertThat(lib.isImmutable(), is(true));
+        assertThat(theme.isImmutable(), is(true));
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.FileLayer("/target", target), lib, theme, other);
+        // missing paths that only the archives can provide are remembered however short the time to live
+        fs.setNegativeLookupTtl(0L);
+
+        assertThat(fs.getPseudoFile("/virtual/css/site.css").isFile(), is(true));
+        assertThat(fs.getPseudoFile("/virtual/theme/theme.css").isFile(), is(true));
+        assertThat(Arrays.asList(fs.getPseudoFile("/virtual").list()),
+                is(Arrays.asList("app.js", "css", "theme")));
+        final PseudoFile missing = fs.getPseudoFile("/virtual/css/missing.css");
+        assertThat(missing.exists(), is(false));
+        assertThat(fs.getPseudoFile("/virtual/css/missing.css"), sameInstance(missing));
+        fs.close();
+        loader.finish();
+
+        // the archive that was never looked up is not indexed
+        assertThat(snapshotFile.isFile(), is(true));
+        assertThat(IndexSnapshot.load(snapshotFile).toString(), containsString("archives=2"));
+
+        // the next build keeps the copies of the archives it does not look up
+        loader = new ZipLayerLoader(new ZipIndexRegistry(), IndexSnapshot.load(snapshotFile), new SystemStreamLog());
+        final PseudoFileSystem next = new PseudoFileSystem(loader.load("/virtual", libZip),
+                loader.load("/virtual/theme", themeZip), loader.load("/other", otherZip));
+        assertThat(next.getPseudoFile("/other/other.js").isFile(), is(true));
+        next.close();
+        loader.finish();
+        assertThat(IndexSnapshot.load(snapshotFile).toString(), containsString("archives=3"));
+    }
+
+    private File createZip(String name, String... paths) throws IOException {
+        final File file = folder.newFile(name);
+        ZipOutputStream zos = null;
+        try {
+            zos = new ZipOutputStream(new FileOutputStream(file));
+            for (String path : paths) {
+                zos.putNextEntry(new ZipEntry(path));
+                zos.write(path.getBytes("US-ASCII"));
+                zos.closeEntry();
+            }
+        } finally {
+            IOUtil.close(zos);
+        }
+        return file;
+    }
+}
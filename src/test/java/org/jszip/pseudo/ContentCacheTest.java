@@ -0,0 +1,100 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.jszip.pseudo.io.ContentCache;
+import org.jszip.pseudo.io.PseudoFile;
+import org.jszip.pseudo.io.PseudoFileInputStream;
+import org.jszip.pseudo.io.PseudoFileOutputStream;
+import org.jszip.pseudo.io.PseudoFileSystem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link ContentCache}.
+ */
+public class ContentCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void repeatedReadsAreServedFromTheCache() throws Exception {
+        final File dir = folder.newFolder("webapp");
+        FileUtils.fileWrite(new File(dir, "a.less"), "US-ASCII", "@a: 1;");
+        FileUtils.fileWrite(new File(dir, "b.less"), "US-ASCII", "@b: 2;");
+        final ContentCache cache = new ContentCache(10);
+        final PseudoFileSystem fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer("/virtual", dir));
+        fs.setContentCache(cache);
+
+        assertThat(read(fs.getPseudoFile("/virtual/a.less")), is("@a: 1;"));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(read(fs.getPseudoFile("/virtual/a.less")), is("@a: 1;"));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getBytes(), is(6L));
+
+        // only one file fits in the budget
+        assertThat(read(fs.getPseudoFile("/virtual/b.less")), is("@b: 2;"));
+        assertThat(cache.getEvictions(), is(1L));
+        assertThat(cache.getCount(), is(1));
+        assertThat(read(fs.getPseudoFile("/virtual/b.less")), is("@b: 2;"));
+        assertThat(cache.getHits(), is(2L));
+    }
+
+    @Test
+    public void writesInvalidateTheCache() throws Exception {
+        final File dir = folder.newFolder("webapp");
+        final File file = new File(dir, "a.css");
+        FileUtils.fileWrite(file, "US-ASCII", "before");
+        final PseudoFileSystem fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer("/target", dir));
+        fs.setContentCache(new ContentCache(1024));
+        final PseudoFile pseudoFile = fs.getPseudoFile("/target/a.css");
+        final long lastModified = file.lastModified();
+
+        assertThat(read(pseudoFile), is("before"));
+        // same length and modification time, so only explicit invalidation can detect the change
+        final OutputStream os = new PseudoFileOutputStream(pseudoFile);
+        try {
+            os.write("after!".getBytes("US-ASCII"));
+        } finally {
+            IOUtil.close(os);
+        }
+        file.setLastModified(lastModified);
+        assertThat(read(pseudoFile), is("after!"));
+    }
+
+    private static String read(PseudoFile file) throws IOException {
+        InputStream is = null;
+        try {
+            is = new PseudoFileInputStream(file);
+            return IOUtil.toString(is, "US-ASCII");
+        } finally {
+            IOUtil.close(is);
+        }
+    }
+}
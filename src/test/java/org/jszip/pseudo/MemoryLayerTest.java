@@ -0,0 +1,119 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.jszip.pseudo.io.PseudoFile;
+import org.jszip.pseudo.io.PseudoFileInputStream;
+import org.jszip.pseudo.io.PseudoFileOutputStream;
+import org.jszip.pseudo.io.PseudoFileSystem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link PseudoFileSystem.MemoryLayer}.
+ */
+public class MemoryLayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void outputIsHeldInMemoryUntilFlushed() throws Exception {
+        final File target = folder.newFolder("target");
+        FileUtils.fileWrite(new File(target, "existing.css"), "US-ASCII", "existing");
+        final PseudoFileSystem.MemoryLayer layer = new PseudoFileSystem.MemoryLayer("/target", target);
+        final PseudoFileSystem fs = new PseudoFileSystem(layer);
+
+        final PseudoFile css = fs.getPseudoFile("/target/css/site.css");
+        assertThat(css.exists(), is(false));
+        assertThat(css.getParentFile().mkdirs(), is(true));
+        write(css, "site", false);
+        write(fs.getPseudoFile("/target/existing.css"), "+more", true);
+
+        assertThat(new File(target, "css").exists(), is(false));
+        assertThat(read(fs.getPseudoFile("/target/css/site.css")), is("site"));
+        assertThat(fs.getPseudoFile("/target/css").isDirectory(), is(true));
+        assertThat(fs.getPseudoFile("/target/css/site.css").length(), is(4L));
+        assertThat(fs.getPseudoFile("/target").list().length, is(2));
+        assertThat(read(fs.getPseudoFile("/target/existing.css")), is("existing+more"));
+        assertThat(layer.getBytes(), is(17L));
+
+        assertThat(layer.flush(), is(2));
+        assertThat(FileUtils.fileRead(new File(target, "css/site.css"), "US-ASCII"), is("site"));
+        assertThat(FileUtils.fileRead(new File(target, "existing.css"), "US-ASCII"), is("existing+more"));
+        assertThat(layer.flush(), is(0));
+
+        // a new filesystem over the same layer, as used by the next goal, sees the output
+        final PseudoFileSystem next = new PseudoFileSystem(layer);
+        assertThat(read(next.getPseudoFile("/target/css/site.css")), is("site"));
+        assertThat(next.getPseudoFile("/target/css/site.css").delete(), is(true));
+        assertThat(new File(target, "css/site.css").exists(), is(false));
+    }
+
+    @Test
+    public void outputSpillsToDiskPastTheThreshold() throws Exception {
+        final File target = folder.newFolder("target");
+        final PseudoFileSystem.MemoryLayer layer = new PseudoFileSystem.MemoryLayer("/target", target, 8);
+        final PseudoFileSystem fs = new PseudoFileSystem(layer);
+
+        write(fs.getPseudoFile("/target/small.js"), "small", false);
+        write(fs.getPseudoFile("/target/large.js"), "much too large", false);
+        assertThat(layer.getBytes(), is(5L));
+        assertThat(new File(target, "small.js").exists(), is(false));
+        assertThat(FileUtils.fileRead(new File(target, "large.js"), "US-ASCII"), is("much too large"));
+        assertThat(read(fs.getPseudoFile("/target/large.js")), is("much too large"));
+
+        // rewriting a file held in memory replaces its bytes rather than adding to them
+        write(fs.getPseudoFile("/target/small.js"), "tiny", false);
+        assertThat(layer.getBytes(), is(4L));
+        write(fs.getPseudoFile("/target/small.js"), "now too large", false);
+        assertThat(layer.getBytes(), is(0L));
+        assertThat(read(fs.getPseudoFile("/target/small.js")), is("now too large"));
+        layer.close();
+    }
+
+    private static void write(PseudoFile file, String content, boolean append) throws IOException {
+        OutputStream os = null;
+        try {
+            os = new PseudoFileOutputStream(file, append);
+            os.write(content.getBytes("US-ASCII"));
+        } finally {
+            IOUtil.close(os);
+        }
+    }
+
+    private static String read(PseudoFile file) throws IOException {
+        InputStream is = null;
+        try {
+            is = new PseudoFileInputStream(file);
+            return IOUtil.toString(is, "US-ASCII");
+        } finally {
+            IOUtil.close(is);
+        }
+    }
+}
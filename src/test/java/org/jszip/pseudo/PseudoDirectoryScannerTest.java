@@ -0,0 +1,262 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
+import org.jszip.pseudo.io.PseudoDirectoryScanner;
+import org.jszip.pseudo.io.PseudoFileOutputStream;
+import org.jszip.pseudo.io.PseudoFileSystem;
+import org.jszip.pseudo.io.ScanCache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link PseudoDirectoryScanner}.
+ */
+public class PseudoDirectoryScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesLikeDirectoryScanner() throws Exception {
+        final File webapp = folder.newFolder("webapp");
+        for (String path : new String[]{"index.html", "css/site.less", "css/site.css", "css/Print.LESS",
+                "css/mixins/grid.less", "js/app.js", "js/lib/jquery.js", "js/lib/less/less.js", "test/a.less",
+                "test/abc.less", "test/css/b.less", ".svn/entries"}) {
+            final File file = new File(webapp, path);
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite(file, "US-ASCII", path);
+        }
+        final PseudoFileSystem fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer("/virtual", webapp));
+
+        final String[][][] cases = {
+                {{"**/*.less"}, {}},
+                {{"**/*.less"}, {"test/**"}},
+                {{"css/"}, {"**/mixins/**"}},
+                {{"**/lib/**/*.js", "*.html"}, {}},
+                {{"test/a??.less", "**/css/*"}, {"**/*.css"}},
+                {{"**"}, {"js/*/less"}},
+                {{"%regex[.*\\.js]"}, {}},
+        };
+        for (String[][] c : cases) {
+            for (boolean caseSensitive : new boolean[]{true, false}) {
+                final DirectoryScanner expected = new DirectoryScanner();
+                expected.setBasedir(webapp);
+                expected.setIncludes(c[0]);
+                expected.setExcludes(c[1]);
+                expected.addDefaultExcludes();
+                expected.setCaseSensitive(caseSensitive);
+                expected.scan();
+
+                final PseudoDirectoryScanner actual = new PseudoDirectoryScanner();
+                actual.setFileSystem(fs);
+                actual.setBasedir(fs.getPseudoFile("/virtual"));
+                actual.setIncludes(c[0]);
+                actual.setExcludes(c[1]);
+                actual.addDefaultExcludes();
+                actual.setCaseSensitive(caseSensitive);
+                actual.scan();
+
+                final String label = Arrays.asList(c[0]) + " - " + Arrays.asList(c[1]) + " ";
+                assertThat(label + "included files", set(actual.getIncludedFiles()),
+                        is(set(expected.getIncludedFiles())));
+                assertThat(label + "included directories", set(actual.getIncludedDirectories()),
+                        is(set(expected.getIncludedDirectories())));
+                assertThat(label + "excluded files", set(actual.getExcludedFiles()),
+                        is(set(expected.getExcludedFiles())));
+                assertThat(label + "not included files", set(actual.getNotIncludedFiles()),
+                        is(set(expected.getNotIncludedFiles())));
+            }
+        }
+    }
+
+    @Test
+    public void parallelScanKeepsSerialOrder() throws Exception {
+        final File webapp = folder.newFolder("webapp");
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                for (String name : new String[]{"a.less", "b.js", "c.less"}) {
+                    final File file = new File(webapp, "d" + i + "/s" + j + "/" + name);
+                    file.getParentFile().mkdirs();
+                    FileUtils.fileWrite(file, "US-ASCII", name);
+                }
+            }
+        }
+        final PseudoFileSystem fs = new PseudoFileSystem(new PseudoFileSystem.FileLayer("/virtual", webapp));
+
+        final PseudoDirectoryScanner serial = scanner(fs, 1);
+        final PseudoDirectoryScanner parallel = scanner(fs, 4);
+
+        assertThat(Arrays.asList(parallel.getIncludedFiles()), is(Arrays.asList(serial.getIncludedFiles())));
+        assertThat(Arrays.asList(parallel.getIncludedDirectories()),
+                is(Arrays.asList(serial.getIncludedDirectories())));
+        assertThat(Arrays.asList(parallel.getExcludedDirectories()),
+                is(Arrays.asList(serial.getExcludedDirectories())));
+        assertThat(Arrays.asList(parallel.getNotIncludedFiles()), is(Arrays.asList(serial.getNotIncludedFiles())));
+        assertThat(parallel.isEverythingIncluded(), is(serial.isEverythingIncluded()));
+        assertThat(parallel.getIncludedFiles().length, is(8 * 7 * 2));
+
+        for (int threads : new int[]{1, 4}) {
+            final PseudoDirectoryScanner streaming = scanner(fs, threads);
+            final List<String> files = new ArrayList<String>();
+            for (Iterator<String> i = streaming.scanIncludedFiles(); i.hasNext(); ) {
+                files.add(i.next());
+            }
+            assertThat(files, is(Arrays.asList(serial.getIncludedFiles())));
+        }
+    }
+
+    @Test
+    public void rescansOnlyChangedDirectories() throws Exception {
+        final File webapp = folder.newFolder("webapp");
+        for (String path : new String[]{"a/site.less", "a/b/grid.less", "c/app.js", "c/d/print.less"}) {
+            final File file = new File(webapp, path);
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite(file, "US-ASCII", path);
+        }
+        // directories modified just now are always listed, as their modification time may not change again
+        final long past = System.currentTimeMillis() - 60000L;
+        for (String path : new String[]{"", "a", "a/b", "c", "c/d"}) {
+            new File(webapp, path).setLastModified(past);
+        }
+        final ScanCache cache = new ScanCache(ScanCache.DEFAULT_MAX_ENTRIES);
+
+        final List<String> first = scanIncluded(webapp, cache);
+        assertThat(first, is(Arrays.asList("a/b/grid.less", "a/site.less", "c/d/print.less")));
+        assertThat(cache.getDirectoriesScanned(), is(5L));
+
+        assertThat(scanIncluded(webapp, cache), is(first));
+        assertThat(cache.getDirectoriesScanned(), is(5L));
+        assertThat(cache.getDirectoriesReused(), is(5L));
+
+        FileUtils.fileWrite(new File(webapp, "c/d/extra.less"), "US-ASCII", "extra");
+        assertThat(scanIncluded(webapp, cache),
+                is(Arrays.asList("a/b/grid.less", "a/site.less", "c/d/extra.less", "c/d/print.less")));
+        assertThat(cache.getDirectoriesScanned(), is(6L));
+        assertThat(cache.getDirectoriesReused(), is(9L));
+    }
+
+    @Test
+    public void writesToMemoryLayersKeepEarlierScans() throws Exception {
+        final File webapp = folder.newFolder("webapp");
+        for (String path : new String[]{"a/site.less", "c/d/print.less"}) {
+            final File file = new File(webapp, path);
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite(file, "US-ASCII", path);
+        }
+        final long past = System.currentTimeMillis() - 60000L;
+        for (String path : new String[]{"", "a", "c", "c/d"}) {
+            new File(webapp, path).setLastModified(past);
+        }
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.MemoryLayer("/virtual/out", folder.newFolder("out")),
+                new PseudoFileSystem.FileLayer("/virtual", webapp));
+        final ScanCache cache = new ScanCache(ScanCache.DEFAULT_MAX_ENTRIES);
+
+        final List<String> first = scanIncluded(fs, cache);
+        assertThat(first, is(Arrays.asList("a/site.less", "c/d/print.less")));
+        final long scanned = cache.getDirectoriesScanned();
+
+        final OutputStream os = new PseudoFileOutputStream(fs.getPseudoFile("/virtual/out/site.css"));
+        try {
+            os.write("css".getBytes("US-ASCII"));
+        } finally {
+            os.close();
+        }
+        // only the directory of the memory layer is listed again
+        assertThat(scanIncluded(fs, cache), is(first));
+        assertThat(cache.getDirectoriesScanned(), is(scanned + 1));
+        assertThat(cache.getDirectoriesReused(), is(scanned - 1));
+    }
+
+    @Test
+    public void savedScansAreReusedByLaterBuilds() throws Exception {
+        final File webapp = folder.newFolder("webapp");
+        for (String path : new String[]{"a/site.less", "a/b/grid.less", "c/app.js"}) {
+            final File file = new File(webapp, path);
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite(file, "US-ASCII", path);
+        }
+        final long past = System.currentTimeMillis() - 60000L;
+        for (String path : new String[]{"", "a", "a/b", "c"}) {
+            new File(webapp, path).setLastModified(past);
+        }
+        final File file = new File(folder.getRoot(), "target/jszip-scans.bin");
+        final ScanCache cache = ScanCache.load(file, ScanCache.DEFAULT_MAX_ENTRIES);
+        assertThat(cache.getCount(), is(0));
+        final List<String> first = scanIncluded(webapp, cache);
+        assertThat(first, is(Arrays.asList("a/b/grid.less", "a/site.less")));
+        cache.save();
+
+        final ScanCache loaded = ScanCache.load(file, ScanCache.DEFAULT_MAX_ENTRIES);
+        assertThat(loaded.getCount(), is(cache.getCount()));
+        assertThat(scanIncluded(webapp, loaded), is(first));
+        assertThat(loaded.getDirectoriesScanned(), is(0L));
+        assertThat(loaded.getDirectoriesReused(), is(4L));
+
+        // a corrupt file is as good as no file
+        FileUtils.fileWrite(file, "US-ASCII", "garbage");
+        assertThat(ScanCache.load(file, ScanCache.DEFAULT_MAX_ENTRIES).getCount(), is(0));
+    }
+
+    private static List<String> scanIncluded(File webapp, ScanCache cache) {
+        return scanIncluded(new PseudoFileSystem(new PseudoFileSystem.FileLayer("/virtual", webapp)), cache);
+    }
+
+    private static List<String> scanIncluded(PseudoFileSystem fs, ScanCache cache) {
+        final PseudoDirectoryScanner scanner = new PseudoDirectoryScanner();
+        scanner.setFileSystem(fs);
+        scanner.setBasedir(fs.getPseudoFile("/virtual"));
+        scanner.setIncludes(new String[]{"**/*.less"});
+        scanner.setScanCache(cache);
+        final List<String> files = new ArrayList<String>();
+        for (Iterator<String> i = scanner.scanIncludedFiles(); i.hasNext(); ) {
+            files.add(i.next());
+        }
+        return files;
+    }
+
+    private static PseudoDirectoryScanner scanner(PseudoFileSystem fs, int threads) {
+        final PseudoDirectoryScanner scanner = new PseudoDirectoryScanner();
+        scanner.setFileSystem(fs);
+        scanner.setBasedir(fs.getPseudoFile("/virtual"));
+        scanner.setIncludes(new String[]{"**/*.less"});
+        scanner.setExcludes(new String[]{"d3/**"});
+        scanner.setThreads(threads);
+        scanner.scan();
+        return scanner;
+    }
+
+    private static Set<String> set(String[] values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
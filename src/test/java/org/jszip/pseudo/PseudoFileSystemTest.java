@@ -0,0 +1,349 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.jszip.pseudo.io.PseudoFile;
+import org.jszip.pseudo.io.PseudoFileFilter;
+import org.jszip.pseudo.io.PseudoFileInputChannel;
+import org.jszip.pseudo.io.PseudoFileInputStream;
+import org.jszip.pseudo.io.PseudoFileOutputStream;
+import org.jszip.pseudo.io.PseudoFileSystem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link PseudoFileSystem}.
+ */
+public class PseudoFileSystemTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void earlierLayersShadowLaterLayers() throws Exception {
+        final File webapp = folder.newFolder("webapp");
+        FileUtils.fileWrite(new File(webapp, "app.js"), "US-ASCII", "webapp");
+        final File zip = createZip("lib.zip", "app.js", "lib.js", "css/site.css");
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.ZipLayer("/virtual", createZip("first.zip", "lib.js")),
+                new PseudoFileSystem.FileLayer("/virtual", webapp),
+                new PseudoFileSystem.ZipLayer("/virtual", zip));
+        fs.setContentCache(null);
+
+        // the first zip layer wins over the file layer and the file layer over the last zip layer
+        assertThat(read(fs.getPseudoFile("/virtual/lib.js")), is("first.zip:lib.js"));
+        assertThat(read(fs.getPseudoFile("/virtual/app.js")), is("webapp"));
+        assertThat(read(fs.getPseudoFile("/virtual/css/site.css")), is("lib.zip:css/site.css"));
+        assertThat(fs.getPseudoFile("/virtual/missing.js").exists(), is(false));
+
+        // files added to dynamic layers are seen immediately
+        FileUtils.fileWrite(new File(webapp, "lib.js"), "US-ASCII", "webapp");
+        FileUtils.fileWrite(new File(webapp, "new.js"), "US-ASCII", "webapp");
+        assertThat(read(fs.getPseudoFile("/virtual/lib.js")), is("first.zip:lib.js"));
+        assertThat(read(fs.getPseudoFile("/virtual/new.js")), is("webapp"));
+
+        final PseudoFile[] children = fs.listChildren(fs.getPseudoFile("/virtual"), PseudoFileFilter.FILTER_NONE);
+        assertThat(children.length, is(4));
+        assertThat(children[0].getName(), is("app.js"));
+        assertThat(read(children[0]), is("webapp"));
+        assertThat(children[1].getName(), is("css"));
+        assertThat(children[2].getName(), is("lib.js"));
+        assertThat(read(children[2]), is("first.zip:lib.js"));
+        assertThat(children[3].getName(), is("new.js"));
+    }
+
+    @Test
+    public void nestedPrefixesKeepLayerOrder() throws Exception {
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.ZipLayer("/virtual", createZip("outer.zip", "app.js", "lib/x.js")),
+                new PseudoFileSystem.ZipLayer("/virtual/lib", createZip("inner.zip", "x.js", "y.js")),
+                new PseudoFileSystem.ZipLayer("/virtual/lib/deep", createZip("deep.zip", "z.js")));
+        fs.setContentCache(null);
+
+        assertThat(read(fs.getPseudoFile("/virtual/lib/x.js")), is("outer.zip:lib/x.js"));
+        assertThat(read(fs.getPseudoFile("/virtual/lib/y.js")), is("inner.zip:y.js"));
+        assertThat(read(fs.getPseudoFile("/virtual/lib/deep/z.js")), is("deep.zip:z.js"));
+        assertThat(fs.getPseudoFile("/virtual/lib/deep").isDirectory(), is(true));
+        assertThat(fs.getPseudoFile("/virtual/lib/z.js").exists(), is(false));
+        assertThat(fs.getPseudoFile("/virtual/app.js/x.js").exists(), is(false));
+
+        final PseudoFile[] children = fs.listChildren(fs.getPseudoFile("/virtual/lib"), PseudoFileFilter.FILTER_NONE);
+        assertThat(children.length, is(3));
+        assertThat(children[0].getName(), is("deep"));
+        assertThat(children[1].getName(), is("x.js"));
+        assertThat(read(children[1]), is("outer.zip:lib/x.js"));
+        assertThat(children[2].getName(), is("y.js"));
+        assertThat(fs.listChildren(fs.root(), PseudoFileFilter.FILTER_NONE).length, is(1));
+    }
+
+    @Test
+    public void rootPrefix() throws Exception {
+        final File dir = folder.newFolder("root");
+        FileUtils.fileWrite(new File(dir, "a.js"), "US-ASCII", "a");
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.FileLayer("/", dir),
+                new PseudoFileSystem.ZipLayer("/", createZip("root.zip", "b.js")));
+        fs.setContentCache(null);
+
+        assertThat(read(fs.getPseudoFile("/a.js")), is("a"));
+        assertThat(read(fs.getPseudoFile("/b.js")), is("root.zip:b.js"));
+        assertThat(fs.listChildren(fs.root(), PseudoFileFilter.FILTER_NONE).length, is(2));
+    }
+
+    @Test
+    public void nodesAreCanonical() throws Exception {
+        final File target = folder.newFolder("target");
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.FileLayer("/virtual", target),
+                new PseudoFileSystem.ZipLayer("/virtual", createZip("lib.zip", "css/site.css")));
+        fs.setContentCache(null);
+
+        final PseudoFile site = fs.getPseudoFile("/virtual/css/site.css");
+        assertThat(fs.getPseudoFile("/virtual/css/site.css"), sameInstance(site));
+        assertThat(fs.getPseudoFile("/virtual/css/site.css/"), sameInstance(site));
+        assertThat(site.getFileSystem(), sameInstance(fs));
+        assertThat(site.getAbsolutePath(), is("/virtual/css/site.css"));
+        assertThat(site, is(fs.getPseudoFile(fs.getPseudoFile("/virtual/css"), "site.css")));
+
+        // files changed behind the filesystem's back are seen once the filesystem is told
+        assertThat(new File(target, "css").mkdir(), is(true));
+        FileUtils.fileWrite(new File(target, "css/site.css"), "US-ASCII", "target");
+        fs.invalidate();
+        assertThat(read(fs.getPseudoFile("/virtual/css/site.css")), is("target"));
+        assertThat(fs.getPseudoFile("/virtual/css/site.css"), not(sameInstance(site)));
+    }
+
+    @Test
+    public void missingPathsAreRemembered() throws Exception {
+        final File target = folder.newFolder("target");
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.FileLayer("/target", target),
+                new PseudoFileSystem.ZipLayer("/virtual", createZip("lib.zip", "css/site.css")));
+        fs.setNegativeLookupTtl(60000L);
+
+        // only the archive can provide these, so they are remembered until the filesystem changes
+        final PseudoFile missing = fs.getPseudoFile("/virtual/css/missing.less");
+        assertThat(missing.exists(), is(false));
+        assertThat(fs.getPseudoFile("/virtual/css/missing.less"), sameInstance(missing));
+        assertThat(fs.getPseudoFile("/virtual/nowhere/missing.less").exists(), is(false));
+
+        final PseudoFile output = fs.getPseudoFile("/target/site.css");
+        assertThat(output.exists(), is(false));
+        assertThat(fs.getPseudoFile("/target/site.css"), sameInstance(output));
+        final OutputStream os = new PseudoFileOutputStream(output);
+        try {
+            os.write("target".getBytes("US-ASCII"));
+        } finally {
+            IOUtil.close(os);
+        }
+        final PseudoFile created = fs.getPseudoFile("/target/site.css");
+        assertThat(created, not(sameInstance(output)));
+        assertThat(read(created), is("target"));
+        assertThat(fs.getPseudoFile("/target/site.css"), sameInstance(created));
+
+        fs.setNegativeLookupTtl(0L);
+        final PseudoFile other = fs.getPseudoFile("/target/other.css");
+        assertThat(fs.getPseudoFile("/target/other.css"), not(sameInstance(other)));
+    }
+
+    @Test
+    public void mirroredDirectoriesTrackChanges() throws Exception {
+        final File webapp = folder.newFolder("webapp");
+        FileUtils.fileWrite(new File(webapp, "app.js"), "US-ASCII", "app");
+        final PseudoFileSystem.FileLayer layer = new PseudoFileSystem.FileLayer("/virtual", webapp, 50L);
+        final PseudoFileSystem fs = new PseudoFileSystem(layer);
+        assertThat(read(fs.getPseudoFile("/virtual/app.js")), is("app"));
+        assertThat(fs.getPseudoFile("/virtual/app.js").length(), is(3L));
+
+        // changes made through the filesystem are seen immediately
+        final OutputStream os = new PseudoFileOutputStream(fs.getPseudoFile("/virtual/app.js"));
+        try {
+            os.write("changed".getBytes("US-ASCII"));
+        } finally {
+            IOUtil.close(os);
+        }
+        assertThat(fs.getPseudoFile("/virtual/app.js").length(), is(7L));
+        assertThat(read(fs.getPseudoFile("/virtual/app.js")), is("changed"));
+        assertThat(fs.getPseudoFile("/virtual/css").mkdir(), is(true));
+        assertThat(fs.getPseudoFile("/virtual/css").isDirectory(), is(true));
+
+        // changes made behind its back are seen once the listing is refreshed
+        final long stamp = layer.getChangeStamp();
+        FileUtils.fileWrite(new File(webapp, "lib.js"), "US-ASCII", "lib");
+        Thread.sleep(100L);
+        assertThat(fs.getPseudoFile("/virtual/lib.js").isFile(), is(true));
+        assertThat(layer.getChangeStamp(), not(is(stamp)));
+        assertThat(fs.getPseudoFile("/virtual").list().length, is(3));
+    }
+
+    @Test
+    public void usableFromWorkerThreadsWithoutScriptContext() throws Exception {
+        final File webapp = folder.newFolder("webapp");
+        for (int i = 0; i < 20; i++) {
+            FileUtils.fileWrite(new File(webapp, "file" + i + ".js"), "US-ASCII", "file" + i);
+        }
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.FileLayer("/virtual", webapp),
+                new PseudoFileSystem.ZipLayer("/virtual/lib", createZip("lib.zip", "a.js", "b.js")));
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 16; t++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        int count = 0;
+                        for (PseudoFile file : fs.getPseudoFile("/virtual").listFiles()) {
+                            if (file.isFile()) {
+                                assertThat(read(file), is(file.getName().replace(".js", "")));
+                                count++;
+                            }
+                        }
+                        assertThat(fs.getPseudoFile("/virtual/lib").list().length, is(2));
+                        return count;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertThat(result.get(), is(20));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void channelsTransferBetweenLayers() throws Exception {
+        final File webapp = folder.newFolder("webapp");
+        final File target = folder.newFolder("target");
+        FileUtils.fileWrite(new File(webapp, "app.js"), "US-ASCII", "0123456789");
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.FileLayer("/target", target),
+                new PseudoFileSystem.FileLayer("/virtual", webapp),
+                new PseudoFileSystem.ZipLayer("/virtual/lib", createZip("lib.zip", "a.js")));
+        final PseudoFileSystem memory = new PseudoFileSystem(
+                new PseudoFileSystem.MemoryLayer("/memory", folder.newFolder("spill")));
+
+        // disk to disk, in the way r.js copies files
+        copy(fs.getPseudoFile("/virtual/app.js"), fs.getPseudoFile("/target/app.js"), 0, 10);
+        assertThat(read(fs.getPseudoFile("/target/app.js")), is("0123456789"));
+        copy(fs.getPseudoFile("/virtual/app.js"), fs.getPseudoFile("/target/part.js"), 3, 4);
+        assertThat(read(fs.getPseudoFile("/target/part.js")), is("3456"));
+
+        // archive to disk and disk to memory
+        copy(fs.getPseudoFile("/virtual/lib/a.js"), fs.getPseudoFile("/target/a.js"), 0, 10);
+        assertThat(read(fs.getPseudoFile("/target/a.js")), is("lib.zip:a."));
+        copy(fs.getPseudoFile("/virtual/app.js"), memory.getPseudoFile("/memory/app.js"), 5, 5);
+        assertThat(read(memory.getPseudoFile("/memory/app.js")), is("56789"));
+    }
+
+    @Test
+    public void channelsGoBackToEarlierPositions() throws Exception {
+        final File webapp = folder.newFolder("webapp");
+        final File target = folder.newFolder("target");
+        FileUtils.fileWrite(new File(webapp, "app.js"), "US-ASCII", "0123456789");
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.FileLayer("/target", target),
+                new PseudoFileSystem.FileLayer("/virtual", webapp),
+                new PseudoFileSystem.ZipLayer("/virtual/lib", createZip("lib.zip", "a.js")));
+        final PseudoFileSystem memory = new PseudoFileSystem(
+                new PseudoFileSystem.MemoryLayer("/memory", folder.newFolder("spill")));
+        copy(fs.getPseudoFile("/virtual/app.js"), memory.getPseudoFile("/memory/app.js"), 0, 10);
+
+        for (PseudoFile file : new PseudoFile[]{fs.getPseudoFile("/virtual/app.js"),
+                fs.getPseudoFile("/virtual/lib/a.js"), memory.getPseudoFile("/memory/app.js")}) {
+            final String expected = read(file);
+            final PseudoFileInputStream is = new PseudoFileInputStream(file);
+            try {
+                assertThat(is.skip(6), is(6L));
+                final PseudoFileInputChannel channel = is.getChannel();
+                final PseudoFileOutputStream os = new PseudoFileOutputStream(fs.getPseudoFile("/target/back.js"));
+                try {
+                    assertThat(channel.transferTo(2, 3, os.getChannel()), is(3L));
+                } finally {
+                    IOUtil.close(os);
+                }
+                assertThat(channel.position(), is(5L));
+                assertThat(read(fs.getPseudoFile("/target/back.js")), is(expected.substring(2, 5)));
+                assertThat((char) is.read(), is(expected.charAt(5)));
+            } finally {
+                IOUtil.close(is);
+            }
+        }
+    }
+
+    private static void copy(PseudoFile from, PseudoFile to, long position, long count) throws IOException {
+        final PseudoFileInputStream is = new PseudoFileInputStream(from);
+        try {
+            final PseudoFileOutputStream os = new PseudoFileOutputStream(to);
+            try {
+                assertThat(os.getChannel().transferFrom(is.getChannel(), position, count), is(count));
+            } finally {
+                IOUtil.close(os);
+            }
+        } finally {
+            IOUtil.close(is);
+        }
+    }
+
+    private File createZip(String name, String... entries) throws IOException {
+        File file = folder.newFile(name);
+        ZipOutputStream zos = null;
+        try {
+            zos = new ZipOutputStream(new FileOutputStream(file));
+            for (String entry : entries) {
+                zos.putNextEntry(new ZipEntry(entry));
+                zos.write((name + ":" + entry).getBytes("US-ASCII"));
+                zos.closeEntry();
+            }
+        } finally {
+            IOUtil.close(zos);
+        }
+        return file;
+    }
+
+    private static String read(PseudoFile file) throws IOException {
+        InputStream is = null;
+        try {
+            is = new PseudoFileInputStream(file);
+            return IOUtil.toString(is, "US-ASCII");
+        } finally {
+            IOUtil.close(is);
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2011-2012 Stephen Connolly.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jszip.pseudo;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.jszip.pseudo.io.IndexSnapshot;
+import org.jszip.pseudo.io.MappedZipFile;
+import org.jszip.pseudo.io.PseudoFile;
+import org.jszip.pseudo.io.PseudoFileInputStream;
+import org.jszip.pseudo.io.PseudoFileSystem;
+import org.jszip.pseudo.io.ZipFilePool;
+import org.jszip.pseudo.io.ZipIndex;
+import org.jszip.pseudo.io.ZipIndexRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link PseudoFileSystem.ZipLayer}.
+ */
+public class ZipLayerTest {
+
+    private static final int DIRECTORIES = 50;
+
+    private static final int FILES_PER_DIRECTORY = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createZip(int directories, int filesPerDirectory) throws IOException {
+        return createZip("synthetic.zip", directories, filesPerDirectory);
+    }
+
+    private File createZip(String name, int directories, int filesPerDirectory) throws IOException {
+        File file = folder.newFile(name);
+        ZipOutputStream zos = null;
+        try {
+            zos = new ZipOutputStream(new FileOutputStream(file));
+            zos.putNextEntry(new ZipEntry("icons/"));
+            zos.closeEntry();
+            for (int d = 0; d < directories; d++) {
+                for (int f = 0; f < filesPerDirectory; f++) {
+                    zos.putNextEntry(new ZipEntry("icons/set" + d + "/icon" + f + ".png"));
+                    zos.write(("set" + d + "/icon" + f).getBytes("US-ASCII"));
+                    zos.closeEntry();
+                }
+            }
+            zos.putNextEntry(new ZipEntry("foobar.js"));
+            zos.write("foobar".getBytes("US-ASCII"));
+            zos.closeEntry();
+        } finally {
+            IOUtil.close(zos);
+        }
+        return file;
+    }
+
+    @Test(timeout = 60000)
+    public void largeArchive() throws Exception {
+        final File zip = createZip(DIRECTORIES, FILES_PER_DIRECTORY);
+        final PseudoFileSystem.ZipLayer layer = new PseudoFileSystem.ZipLayer("/virtual", zip);
+        final PseudoFileSystem fs = new PseudoFileSystem(layer);
+
+        assertThat(layer.listChildren("/").size(), is(1));
+        assertThat(layer.listChildren("/virtual").size(), is(2));
+        assertThat(layer.listChildren("/virtual/icons").size(), is(DIRECTORIES));
+        assertThat(layer.listChildren("/virtual/icons/set7/").size(), is(FILES_PER_DIRECTORY));
+        assertThat(layer.listChildren("/virtual/icons/set7/icon3.png").isEmpty(), is(true));
+        assertThat(layer.listChildren("/virtual/missing").isEmpty(), is(true));
+        assertThat(layer.listChildren("/other").isEmpty(), is(true));
+
+        for (int d = 0; d < DIRECTORIES; d++) {
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                final PseudoFile file = fs.getPseudoFile("/virtual/icons/set" + d + "/icon" + f + ".png");
+                assertThat(file.isFile(), is(true));
+            }
+        }
+
+        final PseudoFile icons = fs.getPseudoFile("/virtual/icons");
+        assertThat(icons.exists(), is(true));
+        assertThat(icons.isDirectory(), is(true));
+        assertThat(icons.getParentFile().getParentFile(), is(fs.root()));
+
+        assertThat(fs.getPseudoFile("/virtual/icons/set49/icon999.png").length(), is(13L));
+    }
+
+    @Test
+    public void lookupsRespectPathSegments() throws Exception {
+        final File zip = createZip(1, 1);
+        final PseudoFileSystem fs = new PseudoFileSystem(new PseudoFileSystem.ZipLayer("/virtual/lib", zip));
+
+        assertThat(fs.getPseudoFile("/virtual/lib/foobar.js").isFile(), is(true));
+        assertThat(fs.getPseudoFile("/virtual/lib/foo").exists(), is(false));
+        assertThat(fs.getPseudoFile("/virtual/lib/icons/set").exists(), is(false));
+        assertThat(fs.getPseudoFile("/virtual/li").exists(), is(false));
+        assertThat(fs.getPseudoFile("/virtual").isDirectory(), is(true));
+        assertThat(fs.getPseudoFile("/virtual/lib/icons/set0").isDirectory(), is(true));
+        assertThat(fs.getPseudoFile("/virtual/lib/icons/set0/icon0.png").isFile(), is(true));
+        assertThat(fs.getPseudoFile("/virtual/lib/icons/set0/icon0.png/nested").exists(), is(false));
+        assertThat(fs.getPseudoFile("/").getParentFile(), nullValue());
+
+        InputStream is = null;
+        try {
+            is = new PseudoFileInputStream(fs.getPseudoFile("/virtual/lib/icons/set0/icon0.png"));
+            assertThat(IOUtil.toString(is, "US-ASCII"), is("set0/icon0"));
+        } finally {
+            IOUtil.close(is);
+        }
+    }
+
+    @Test
+    public void archivesArePooled() throws Exception {
+        final ZipFilePool pool = new ZipFilePool(1);
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.ZipLayer("/a", createZip("a.zip", 1, 2), pool),
+                new PseudoFileSystem.ZipLayer("/b", createZip("b.zip", 1, 2), pool));
+        // the handle used to index the last archive is kept for subsequent reads
+        assertThat(pool.getOpenCount(), is(1));
+
+        assertThat(read(fs.getPseudoFile("/a/icons/set0/icon0.png")), is("set0/icon0"));
+        assertThat(read(fs.getPseudoFile("/a/icons/set0/icon1.png")), is("set0/icon1"));
+        assertThat(pool.getOpenCount(), is(1));
+
+        assertThat(read(fs.getPseudoFile("/b/icons/set0/icon1.png")), is("set0/icon1"));
+        assertThat(pool.getOpenCount(), is(1));
+
+        fs.close();
+        assertThat(pool.getOpenCount(), is(0));
+
+        assertThat(read(fs.getPseudoFile("/a/foobar.js")), is("foobar"));
+        assertThat(pool.getOpenCount(), is(1));
+        pool.close();
+        assertThat(pool.getOpenCount(), is(0));
+    }
+
+    @Test
+    public void closingALayerKeepsArchivesOtherLayersRead() throws Exception {
+        final File zip = createZip(1, 2);
+        final ZipFilePool pool = new ZipFilePool(2);
+        final PseudoFileSystem first = new PseudoFileSystem(new PseudoFileSystem.ZipLayer("/virtual", zip, pool));
+        final PseudoFileSystem second = new PseudoFileSystem(new PseudoFileSystem.ZipLayer("/lib", zip, pool));
+        assertThat(read(first.getPseudoFile("/virtual/icons/set0/icon0.png")), is("set0/icon0"));
+        final ZipFilePool.Handle handle = pool.acquire(zip);
+        final MappedZipFile opened = handle.getZipFile();
+        pool.release(handle);
+
+        first.close();
+        first.close();
+        assertThat(pool.getOpenCount(), is(1));
+        assertThat(read(second.getPseudoFile("/lib/icons/set0/icon1.png")), is("set0/icon1"));
+        final ZipFilePool.Handle again = pool.acquire(zip);
+        assertThat(again.getZipFile(), sameInstance(opened));
+        pool.release(again);
+
+        // the archive is closed with the last layer that reads it
+        second.close();
+        assertThat(pool.getOpenCount(), is(0));
+    }
+
+    @Test
+    public void rebuiltArchivesAreMappedAgain() throws Exception {
+        final File zip = createZip(1, 2);
+        final ZipFilePool pool = new ZipFilePool(2);
+        final PseudoFileSystem before = new PseudoFileSystem(new PseudoFileSystem.ZipLayer("/virtual", zip, pool));
+        assertThat(read(before.getPseudoFile("/virtual/icons/set0/icon1.png")), is("set0/icon1"));
+        final ZipFilePool.Handle stale = pool.acquire(zip);
+
+        assertThat(zip.delete(), is(true));
+        createZip(3, 1);
+        zip.setLastModified(zip.lastModified() - 10000L);
+        assertThat(stale.getZipFile().isStale(), is(true));
+
+        final PseudoFileSystem after = new PseudoFileSystem(new PseudoFileSystem.ZipLayer("/virtual", zip, pool));
+        assertThat(read(after.getPseudoFile("/virtual/icons/set2/icon0.png")), is("set2/icon0"));
+        assertThat(pool.getOpenCount(), is(1));
+        // a reader of the old archive keeps its mapping until it lets go
+        assertThat(stale.getZipFile().size(), is(4));
+        pool.release(stale);
+        assertThat(stale.getZipFile(), nullValue());
+
+        // an index of the old archive does not read the new one
+        try {
+            read(before.getPseudoFile("/virtual/icons/set0/icon1.png"));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        pool.close();
+    }
+
+    @Test
+    public void snapshotsSkipReadingArchives() throws Exception {
+        final File zip = createZip(2, 3);
+        final File index = new File(folder.getRoot(), "index.bin");
+        final ZipFilePool pool = new ZipFilePool(1);
+
+        IndexSnapshot snapshot = IndexSnapshot.load(index);
+        new PseudoFileSystem.ZipLayer("/virtual", zip, pool, snapshot);
+        assertThat(pool.getOpenCount(), is(1));
+        assertThat(snapshot.isDirty(), is(true));
+        snapshot.save();
+        pool.close();
+
+        snapshot = IndexSnapshot.load(index);
+        final PseudoFileSystem.ZipLayer layer = new PseudoFileSystem.ZipLayer("/virtual", zip, pool, snapshot);
+        assertThat(pool.getOpenCount(), is(0));
+        assertThat(snapshot.isDirty(), is(false));
+        // the index itself is kept, not just the entries it is built from
+        assertThat(ZipIndex.build(zip, pool, snapshot).getSlotCount(), is(1 + 1 + 2 + 2 * 3 + 1));
+        assertThat(pool.getOpenCount(), is(0));
+        assertThat(layer.listChildren("/virtual/icons").size(), is(2));
+        assertThat(layer.listChildren("/virtual/icons/set1").size(), is(3));
+        final PseudoFileSystem fs = new PseudoFileSystem(layer);
+        assertThat(fs.getPseudoFile("/virtual/icons/set1/icon2.png").length(), is(10L));
+        assertThat(read(fs.getPseudoFile("/virtual/icons/set1/icon2.png")), is("set1/icon2"));
+        assertThat(read(fs.getPseudoFile("/virtual/foobar.js")), is("foobar"));
+        fs.close();
+
+        // a changed archive is read again
+        assertThat(zip.delete(), is(true));
+        createZip(3, 1);
+        zip.setLastModified(zip.lastModified() - 10000L);
+        final PseudoFileSystem.ZipLayer changed = new PseudoFileSystem.ZipLayer("/virtual", zip, pool, snapshot);
+        assertThat(snapshot.isDirty(), is(true));
+        assertThat(changed.listChildren("/virtual/icons").size(), is(3));
+        pool.close();
+    }
+
+    @Test
+    public void indexHasOneSlotPerPath() throws Exception {
+        final ZipFilePool pool = new ZipFilePool(1);
+        final ZipIndex index = ZipIndex.build(createZip(3, 4), pool, null);
+        // the root, icons/, the set directories, their icons and foobar.js
+        assertThat(index.getSlotCount(), is(1 + 1 + 3 + 3 * 4 + 1));
+        final PseudoFileSystem fs = new PseudoFileSystem(new PseudoFileSystem.ZipLayer("/virtual", index, pool));
+        final PseudoFile icon = fs.getPseudoFile("/virtual/icons/set2/icon3.png");
+        assertThat(icon.getName(), is("icon3.png"));
+        assertThat(icon.length(), is(10L));
+        assertThat(read(icon), is("set2/icon3"));
+        assertThat(fs.getPseudoFile("/virtual/icons/set3").exists(), is(false));
+        fs.close();
+        pool.close();
+    }
+
+    @Test
+    public void registrySharesIndexesAcrossPrefixes() throws Exception {
+        final File zip = createZip(2, 3);
+        final ZipFilePool pool = new ZipFilePool(1);
+        final ZipIndexRegistry registry = new ZipIndexRegistry();
+
+        final ZipIndex first = registry.get(zip, pool, null);
+        final ZipIndex second = registry.get(zip, pool, null);
+        assertThat(second, sameInstance(first));
+        assertThat(registry.getIndexesBuilt(), is(1L));
+        assertThat(registry.getIndexesShared(), is(1L));
+
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.ZipLayer("/virtual", first, pool),
+                new PseudoFileSystem.ZipLayer("/virtual/lib", second, pool));
+        assertThat(read(fs.getPseudoFile("/virtual/icons/set1/icon2.png")), is("set1/icon2"));
+        assertThat(read(fs.getPseudoFile("/virtual/lib/icons/set1/icon2.png")), is("set1/icon2"));
+        assertThat(fs.getPseudoFile("/virtual/lib/icons/set1").list().length, is(3));
+        fs.close();
+
+        // a changed archive is indexed again
+        assertThat(zip.delete(), is(true));
+        createZip(3, 1);
+        zip.setLastModified(zip.lastModified() - 10000L);
+        final ZipIndex changed = registry.get(zip, pool, null);
+        assertThat(changed == first, is(false));
+        assertThat(registry.getIndexesBuilt(), is(2L));
+        // the new index replaces the old one rather than being kept alongside it
+        assertThat(registry.toString(), containsString("count=1"));
+        assertThat(new PseudoFileSystem.ZipLayer("/virtual", changed, pool).listChildren("/virtual/icons").size(),
+                is(3));
+        pool.close();
+    }
+
+    @Test
+    public void deferredLayersIndexOnFirstLookup() throws Exception {
+        final File a = createZip("a.zip", 1, 2);
+        final File b = createZip("b.zip", 2, 1);
+        final ZipFilePool pool = new ZipFilePool(2);
+        final ZipIndexRegistry registry = new ZipIndexRegistry();
+        final FutureTask<ZipIndex> first = registry.submit(a, pool, null, null);
+        final FutureTask<ZipIndex> second = registry.submit(b, pool, null, null);
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.ZipLayer("/virtual", a, first, pool),
+                new PseudoFileSystem.ZipLayer("/other", b, second, pool));
+
+        assertThat(Arrays.asList(fs.root().list()), is(Arrays.asList("other", "virtual")));
+        assertThat(first.isDone(), is(false));
+        assertThat(second.isDone(), is(false));
+
+        assertThat(read(fs.getPseudoFile("/virtual/icons/set0/icon1.png")), is("set0/icon1"));
+        assertThat(first.isDone(), is(true));
+        assertThat(second.isDone(), is(false));
+
+        assertThat(fs.getPseudoFile("/other/icons").list().length, is(2));
+        assertThat(second.isDone(), is(true));
+        assertThat(registry.getIndexesBuilt(), is(2L));
+        fs.close();
+        pool.close();
+    }
+
+    @Test
+    public void streamsHoldTheirArchiveOpen() throws Exception {
+        final ZipFilePool pool = new ZipFilePool(1);
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.ZipLayer("/a", createZip("a.zip", 1, 2), pool),
+                new PseudoFileSystem.ZipLayer("/b", createZip("b.zip", 1, 2), pool));
+        // cached content does not need the archive, so read directly from it
+        fs.setContentCache(null);
+
+        final InputStream streaming = new PseudoFileInputStream(fs.getPseudoFile("/a/icons/set0/icon0.png"));
+        try {
+            assertThat(streaming.markSupported(), is(false));
+            assertThat(read(fs.getPseudoFile("/b/icons/set0/icon0.png")), is("set0/icon0"));
+            // a.zip cannot be evicted while it is being streamed from, so the idle b.zip is closed instead
+            assertThat(pool.getOpenCount(), is(1));
+            assertThat(IOUtil.toString(streaming, "US-ASCII"), is("set0/icon0"));
+        } finally {
+            IOUtil.close(streaming);
+        }
+        assertThat(pool.getOpenCount(), is(1));
+
+        final InputStream markable = new PseudoFileInputStream(fs.getPseudoFile("/a/foobar.js"), true);
+        try {
+            assertThat(markable.markSupported(), is(true));
+            markable.mark(16);
+            assertThat(IOUtil.toString(markable, "US-ASCII"), is("foobar"));
+            markable.reset();
+            assertThat(IOUtil.toString(markable, "US-ASCII"), is("foobar"));
+        } finally {
+            IOUtil.close(markable);
+        }
+        fs.close();
+        assertThat(pool.getOpenCount(), is(0));
+    }
+
+    @Test
+    public void storedAndDeflatedEntries() throws Exception {
+        final byte[] stored = "stored content".getBytes("US-ASCII");
+        final File file = createMixedZip(stored);
+
+        final MappedZipFile zip = new MappedZipFile(file);
+        assertThat(zip.size(), is(2));
+        assertThat(zip.getName(0), is("css/stored.css"));
+        assertThat(zip.getMethod(0), is(MappedZipFile.STORED));
+        assertThat(zip.getStoredContent(0).remaining(), is(stored.length));
+        assertThat(zip.getMethod(1), is(MappedZipFile.DEFLATED));
+        assertThat(zip.getStoredContent(1), nullValue());
+
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.ZipLayer("/virtual", file, new ZipFilePool(1)));
+        final PseudoFile deflated = fs.getPseudoFile("/virtual/css/deflated.css");
+        final String text = read(deflated);
+        assertThat((long) text.length(), is(deflated.length()));
+        assertThat(text.endsWith("line 9999\n"), is(true));
+
+        final InputStream is = new PseudoFileInputStream(fs.getPseudoFile("/virtual/css/stored.css"));
+        try {
+            // stored entries are read straight from the mapping
+            assertThat(is.markSupported(), is(true));
+            is.mark(0);
+            assertThat(IOUtil.toString(is, "US-ASCII"), is("stored content"));
+            is.reset();
+            assertThat(IOUtil.toString(is, "US-ASCII"), is("stored content"));
+        } finally {
+            IOUtil.close(is);
+        }
+        fs.close();
+    }
+
+    @Test
+    public void archivesCanBeReadThroughFileHandles() throws Exception {
+        final byte[] stored = "stored content".getBytes("US-ASCII");
+        final File file = createMixedZip(stored);
+        final MappedZipFile zip = new MappedZipFile(file, false);
+        try {
+            assertThat(zip.isMapped(), is(false));
+            assertThat(zip.size(), is(2));
+            assertThat(zip.getName(1), is("css/deflated.css"));
+            assertThat(zip.getStoredContent(0).remaining(), is(stored.length));
+        } finally {
+            zip.close();
+        }
+
+        // a central directory that starts well before the end of the archive
+        final File big = createZip("big.zip", 20, 200);
+        final ZipFilePool pool = new ZipFilePool(1, false);
+        final PseudoFileSystem fs = new PseudoFileSystem(
+                new PseudoFileSystem.ZipLayer("/virtual", file, pool),
+                new PseudoFileSystem.ZipLayer("/big", big, pool));
+        fs.setContentCache(null);
+        assertThat(read(fs.getPseudoFile("/virtual/css/stored.css")), is("stored content"));
+        assertThat(read(fs.getPseudoFile("/virtual/css/deflated.css")).endsWith("line 9999\n"), is(true));
+        assertThat(read(fs.getPseudoFile("/big/icons/set19/icon199.png")), is("set19/icon199"));
+        fs.close();
+        pool.close();
+        assertThat(pool.getOpenCount(), is(0));
+        // nothing holds the archives open any more
+        assertThat(file.delete(), is(true));
+        assertThat(big.delete(), is(true));
+    }
+
+    private File createMixedZip(byte[] stored) throws IOException {
+        final File file = folder.newFile("mixed.zip");
+        ZipOutputStream zos = null;
+        try {
+            zos = new ZipOutputStream(new FileOutputStream(file));
+            zos.setComment("a trailing comment");
+            ZipEntry entry = new ZipEntry("css/stored.css");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(stored.length);
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            entry.setCrc(crc.getValue());
+            zos.putNextEntry(entry);
+            zos.write(stored);
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("css/deflated.css"));
+            for (int i = 0; i < 10000; i++) {
+                zos.write(("line " + i + "\n").getBytes("US-ASCII"));
+            }
+            zos.closeEntry();
+        } finally {
+            IOUtil.close(zos);
+        }
+        return file;
+    }
+
+    private static String read(PseudoFile file) throws IOException {
+        InputStream is = null;
+        try {
+            is = new PseudoFileInputStream(file);
+            return IOUtil.toString(is, "US-ASCII");
+        } finally {
+            IOUtil.close(is);
+        }
+    }
+}